@@ -27,6 +27,7 @@ import ch.fhnw.lernstickwelcome.controller.binder.exam.FirewallDependenciesWarni
 import ch.fhnw.lernstickwelcome.controller.binder.exam.FirewallPatternValidatorBinder;
 import ch.fhnw.lernstickwelcome.util.FXMLGuiLoader;
 import ch.fhnw.lernstickwelcome.util.WelcomeUtil;
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,8 +36,6 @@ import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.stage.Stage;
-import javax.xml.parsers.ParserConfigurationException;
-import org.xml.sax.SAXException;
 
 /**
  * The JavaFX Application.
@@ -53,6 +52,7 @@ import org.xml.sax.SAXException;
  * <li>Create the Progress Dialog</li>
  * <li>Create the scene for the Welcome Application</li>
  * <li>Initialize the stage with the main scene</li>
+ * <li>Offer to resume an interrupted save</li>
  * </ol>
  * </p>
  *
@@ -79,6 +79,7 @@ public final class WelcomeApplication extends Application {
      * <li>Create the scene for the Welcome Application</li>
      * <li>Initialize the stage with the main scene</li>
      * <li>Register a close event for the primaryStage which shows warnings</li>
+     * <li>Offer to resume an interrupted save</li>
      * </ol>
      *
      * @param primaryStage
@@ -89,7 +90,13 @@ public final class WelcomeApplication extends Application {
         try {
             controller = new WelcomeController();
 
-            guiLoader = new FXMLGuiLoader(isExamEnvironment(), controller.getBundle());
+            WelcomeEvents.Span loaderSpan
+                    = WelcomeEvents.beginFxSection("FXMLGuiLoader");
+            try {
+                guiLoader = new FXMLGuiLoader(isExamEnvironment(), controller.getBundle());
+            } finally {
+                loaderSpan.close();
+            }
 
             Stage errorStage = FXMLGuiLoader.createDialog(
                     primaryStage,
@@ -106,7 +113,13 @@ public final class WelcomeApplication extends Application {
             );
 
             if (isExamEnvironment()) {
-                controller.loadExamEnvironment();
+                WelcomeEvents.Span loadSpan = WelcomeEvents.beginFxSection(
+                        "loadExamEnvironment");
+                try {
+                    controller.loadExamEnvironment();
+                } finally {
+                    loadSpan.close();
+                }
 
                 if (!controller.getSysconf().isPasswordChanged()) {
                     PasswordChangeBinder examPasswordChangeBinder = new PasswordChangeBinder(controller, guiLoader.getPasswordChangeController());
@@ -164,7 +177,13 @@ public final class WelcomeApplication extends Application {
                 examSystemBinder.initBindings();
                 examSystemBinder.initHelp(helpStage, helpBinder);
             } else {
-                controller.loadStandardEnvironment();
+                WelcomeEvents.Span loadSpan = WelcomeEvents.beginFxSection(
+                        "loadStandardEnvironment");
+                try {
+                    controller.loadStandardEnvironment();
+                } finally {
+                    loadSpan.close();
+                }
 
                 HelpBinder helpBinder = new HelpBinder(controller, guiLoader.getHelpController());
                 helpBinder.initBindings();
@@ -250,8 +269,21 @@ public final class WelcomeApplication extends Application {
                     LOGGER.log(Level.SEVERE, "Couldn't show dialogs", ex);
                 }
             });
-        } catch (IllegalArgumentException | IOException 
-                | ParserConfigurationException | SAXException ex) {
+
+            // Offer to resume a save which was interrupted by a crash
+            if (controller.hasInterruptedSave()) {
+                guiLoader.getInfotextdialog(primaryStage,
+                        "WelcomeApplication.Resume_Interrupted_Save", e -> {
+                    ((Stage) ((Node)e.getSource()).getScene().getWindow()).close();
+                    controller.resumeProcessingTasks();
+                    progressStage.showAndWait();
+                }).showAndWait();
+                if (!controller.getInstaller().finishedProperty().get()) {
+                    // The user doesn't want to resume
+                    controller.discardInterruptedSave();
+                }
+            }
+        } catch (IllegalArgumentException | IOException ex) {
             LOGGER.log(Level.SEVERE, "Couldn't initialize GUI", ex);
             System.exit(1);
         }
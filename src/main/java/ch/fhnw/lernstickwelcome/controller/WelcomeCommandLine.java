@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.controller;
+
+import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
+import ch.fhnw.lernstickwelcome.model.TaskProcessor;
+import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
+import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
+import ch.fhnw.lernstickwelcome.model.application.ApplicationGroupTask;
+import ch.fhnw.lernstickwelcome.model.application.ApplicationTask;
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
+import ch.fhnw.lernstickwelcome.util.process.RecordingCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.ReplayCommandExecutor;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ResourceBundle;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.Property;
+import javafx.beans.property.StringProperty;
+
+/**
+ * Applies a configuration without GUI.
+ * <br>
+ * The same backend as in the {@link WelcomeApplication} is loaded by the
+ * {@link WelcomeController}, the settings are read from a properties file
+ * and the arguments and the {@link TaskProcessor} is run with the progress
+ * printed to the console. The JavaFX toolkit is never initialized.
+ * <br>
+ * Usage: {@code WelcomeCommandLine [examEnvironment] [--settings FILE]
+ * [--resume] [--trace DIR] [--record FILE | --replay FILE [--time-scale X]]
+ * [--root DIR] [--verbose] [KEY=VALUE...]}
+ * <br>
+ * With {@code --record} all executed commands are recorded to a file, which
+ * can be replayed with {@code --replay} on any system without executing the
+ * commands. With {@code --root} the files of the system are read and written
+ * in another directory (see {@link WelcomeConstants#SYSTEM_ROOT}).
+ *
+ * @author sschw
+ */
+public final class WelcomeCommandLine {
+
+    private static final String INSTALL = "install";
+    private final WelcomeController controller = new WelcomeController();
+    private final ResourceBundle bundle = controller.getBundle();
+    private final Map<String, Property<?>> settings = new LinkedHashMap<>();
+    private String lastOutput;
+
+    private WelcomeCommandLine() {
+    }
+
+    public static void main(String[] args) {
+        // Never use the JavaFX toolkit
+        UpdateDispatcher.setHeadless(true);
+        // The system root has to be set before the controller loads the
+        // WelcomeConstants
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("--root".equals(args[i])) {
+                System.setProperty(
+                        WelcomeConstants.SYSTEM_ROOT_PROPERTY, args[i + 1]);
+            }
+        }
+        System.exit(new WelcomeCommandLine().run(args));
+    }
+
+    /**
+     * Applies the configuration.
+     *
+     * @param args the command line arguments
+     * @return the exit code
+     */
+    private int run(String[] args) {
+        boolean exam = false;
+        boolean resume = false;
+        boolean verbose = false;
+        Path replayFile = null;
+        double timeScale = 1;
+        Properties values = new Properties();
+        Properties argValues = new Properties();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("examEnvironment".equals(arg) || "--exam".equals(arg)) {
+                    exam = true;
+                } else if ("--resume".equals(arg)) {
+                    resume = true;
+                } else if ("--verbose".equals(arg)) {
+                    verbose = true;
+                } else if ("--trace".equals(arg) && i + 1 < args.length) {
+                    System.setProperty(
+                            WelcomeController.TRACE_DIRECTORY_PROPERTY,
+                            args[++i]);
+                } else if ("--record".equals(arg) && i + 1 < args.length) {
+                    WelcomeModelFactory.setCommandExecutor(
+                            new RecordingCommandExecutor(
+                                    WelcomeModelFactory.getCommandExecutor(),
+                                    Paths.get(args[++i])));
+                } else if ("--replay".equals(arg) && i + 1 < args.length) {
+                    replayFile = Paths.get(args[++i]);
+                } else if ("--root".equals(arg) && i + 1 < args.length) {
+                    // already set in main()
+                    i++;
+                } else if ("--time-scale".equals(arg)
+                        && i + 1 < args.length) {
+                    timeScale = Double.parseDouble(args[++i]);
+                } else if ("--settings".equals(arg) && i + 1 < args.length) {
+                    try (InputStream in = Files.newInputStream(
+                            Paths.get(args[++i]))) {
+                        values.load(in);
+                    }
+                } else if (arg.contains("=") && !arg.startsWith("-")) {
+                    String[] keyValue = arg.split("=", 2);
+                    argValues.setProperty(keyValue[0], keyValue[1]);
+                } else {
+                    System.err.println("Unknown argument: " + arg);
+                    printUsage();
+                    return 2;
+                }
+            }
+            // Arguments override the settings file
+            values.putAll(argValues);
+            if (replayFile != null) {
+                WelcomeModelFactory.setCommandExecutor(
+                        new ReplayCommandExecutor(replayFile, timeScale));
+            }
+
+            if (exam) {
+                controller.loadExamEnvironment();
+            } else {
+                controller.loadStandardEnvironment();
+            }
+        } catch (Exception ex) {
+            System.err.println("Couldn't load configuration: " + ex);
+            return 1;
+        }
+        if (!verbose) {
+            // The progress is printed to the console, log only to the file
+            Logger logger = Logger.getLogger("ch.fhnw");
+            for (Handler handler : logger.getHandlers()) {
+                if (handler instanceof ConsoleHandler) {
+                    logger.removeHandler(handler);
+                }
+            }
+        }
+
+        initSettings(exam);
+        try {
+            for (String key : values.stringPropertyNames()) {
+                applySetting(key, values.getProperty(key));
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            printUsage();
+            return 2;
+        }
+
+        int exitCode = process(resume);
+        controller.closeApplication();
+        return exitCode;
+    }
+
+    /**
+     * Runs the TaskProcessor and waits until it is finished.
+     *
+     * @param resume true if an interrupted save should be resumed
+     * @return the exit code
+     */
+    private int process(boolean resume) {
+        TaskProcessor installer = controller.getInstaller();
+        CountDownLatch finished = new CountDownLatch(1);
+        installer.finishedProperty().addListener((ov, oldV, newV) -> {
+            if (newV) {
+                finished.countDown();
+            }
+        });
+        installer.progressProperty().addListener(cl -> printProgress());
+        installer.titleProperty().addListener(cl -> printProgress());
+        installer.messageProperty().addListener(cl -> printProgress());
+
+        if (resume && controller.hasInterruptedSave()) {
+            controller.resumeProcessingTasks();
+        } else {
+            if (resume) {
+                System.out.println("Nothing to resume, applying all settings");
+            }
+            controller.startProcessingTasks();
+        }
+        try {
+            finished.await();
+        } catch (InterruptedException ex) {
+            return 1;
+        }
+
+        Exception exception = installer.exceptionProperty().get();
+        if (exception != null) {
+            System.err.println(getMessage(exception));
+            for (Throwable suppressed : exception.getSuppressed()) {
+                System.err.println(getMessage(suppressed));
+            }
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Registers the settings which can be changed.
+     *
+     * @param exam true for the exam environment
+     */
+    private void initSettings(boolean exam) {
+        settings.put("system.name", controller.getSysconf().systemnameProperty());
+        settings.put("system.version", controller.getSysconf().systemversionProperty());
+        settings.put("system.timeout", controller.getSysconf().timeoutSecondsProperty());
+        settings.put("system.username", controller.getSysconf().usernameProperty());
+        settings.put("system.password", controller.getSysconf().passwordProperty());
+        settings.put("system.blockKdeDesktopApplets", controller.getSysconf().blockKdeDesktopAppletsProperty());
+        settings.put("system.directSoundOutput", controller.getSysconf().directSoundOutputProperty());
+        settings.put("system.allowAccessToOtherFilesystems", controller.getSysconf().allowAccessToOtherFilesystemsProperty());
+        settings.put("partition.label", controller.getPartition().exchangePartitionLabelProperty());
+        settings.put("partition.access", controller.getPartition().accessExchangePartitionProperty());
+        settings.put("partition.showReadOnlyInfo", controller.getPartition().showReadOnlyInfoProperty());
+        settings.put("partition.showReadWriteWelcome", controller.getPartition().showReadWriteWelcomeProperty());
+        if (exam) {
+            settings.put("backup.active", controller.getBackup().activeProperty());
+            settings.put("backup.source", controller.getBackup().sourcePathProperty());
+            settings.put("backup.local", controller.getBackup().localProperty());
+            settings.put("backup.destination", controller.getBackup().destinationPathProperty());
+            settings.put("backup.partition", controller.getBackup().partitionProperty());
+            settings.put("backup.partitionPath", controller.getBackup().partitionPathProperty());
+            settings.put("backup.screenshot", controller.getBackup().screenshotProperty());
+            settings.put("backup.frequency", controller.getBackup().frequencyProperty());
+        } else {
+            settings.put("proxy.active", controller.getProxy().proxyActiveProperty());
+            settings.put("proxy.host", controller.getProxy().hostnameProperty());
+            settings.put("proxy.port", controller.getProxy().portProperty());
+            settings.put("proxy.username", controller.getProxy().usernameProperty());
+            settings.put("proxy.password", controller.getProxy().passwordProperty());
+        }
+    }
+
+    /**
+     * Changes a setting.
+     *
+     * @param key the key of the setting
+     * @param value the new value
+     * @throws IllegalArgumentException if the key or value is invalid
+     */
+    private void applySetting(String key, String value) {
+        if (INSTALL.equals(key) && controller.getRecommendedApps() != null) {
+            selectApplications(Arrays.asList(value.split("\\s*,\\s*")));
+            return;
+        }
+        Property<?> property = settings.get(key);
+        if (property instanceof BooleanProperty) {
+            // Boolean.parseBoolean() would turn a typo into false
+            if ("true".equalsIgnoreCase(value)) {
+                ((BooleanProperty) property).set(true);
+            } else if ("false".equalsIgnoreCase(value)) {
+                ((BooleanProperty) property).set(false);
+            } else {
+                throw new IllegalArgumentException(
+                        "Invalid boolean for " + key + ": " + value);
+            }
+        } else if (property instanceof IntegerProperty) {
+            try {
+                ((IntegerProperty) property).set(Integer.parseInt(value));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(
+                        "Invalid number for " + key + ": " + value);
+            }
+        } else if (property instanceof StringProperty) {
+            ((StringProperty) property).set(value);
+            if ("system.password".equals(key)) {
+                controller.getSysconf().passwordRepeatProperty().set(value);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown setting: " + key);
+        }
+    }
+
+    /**
+     * Selects the applications which should be installed.
+     *
+     * @param names the names of the applications as defined in the
+     * applications.xml
+     */
+    private void selectApplications(List<String> names) {
+        List<ApplicationGroupTask> groups = Arrays.asList(
+                controller.getRecommendedApps(), controller.getUtilityApps(),
+                controller.getTeachApps(), controller.getSoftwApps(),
+                controller.getGamesApps());
+        List<String> unknown = new ArrayList<>(names);
+        for (ApplicationGroupTask group : groups) {
+            for (ApplicationTask app : group.getApps()) {
+                if (names.contains(app.getName())) {
+                    app.installingProperty().set(true);
+                    unknown.remove(app.getName());
+                }
+            }
+        }
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Unknown applications: " + unknown);
+        }
+    }
+
+    /**
+     * Prints the current progress if it has changed.
+     */
+    private void printProgress() {
+        TaskProcessor installer = controller.getInstaller();
+        String output = String.format("[%3.0f%%] %s: %s",
+                installer.progressProperty().get() * 100,
+                translate(installer.titleProperty().get()),
+                translate(installer.messageProperty().get()));
+        if (!output.equals(lastOutput)) {
+            lastOutput = output;
+            System.out.println(output);
+        }
+    }
+
+    private String getMessage(Throwable exception) {
+        if (exception instanceof ProcessingException) {
+            Object[] details = ((ProcessingException) exception).getMessageDetails();
+            for (int i = 0; i < details.length; i++) {
+                if (details[i] instanceof String) {
+                    details[i] = translate((String) details[i]);
+                }
+            }
+            return MessageFormat.format(
+                    translate(exception.getMessage()), details);
+        }
+        return exception.toString();
+    }
+
+    private String translate(String key) {
+        if (key == null) {
+            return "";
+        }
+        return bundle.containsKey(key) ? bundle.getString(key) : key;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: lernstickWelcomeCli [examEnvironment] "
+                + "[--settings FILE] [--resume] [--trace DIR]\n"
+                + "  [--record FILE | --replay FILE [--time-scale X]] "
+                + "[--root DIR] [--verbose] [KEY=VALUE...]\n"
+                + "Settings: system.name, system.version, system.timeout, "
+                + "system.username, system.password,\n"
+                + "  system.blockKdeDesktopApplets, system.directSoundOutput, "
+                + "system.allowAccessToOtherFilesystems,\n"
+                + "  partition.label, partition.access, "
+                + "partition.showReadOnlyInfo, partition.showReadWriteWelcome\n"
+                + "Standard environment: proxy.active, proxy.host, proxy.port, "
+                + "proxy.username, proxy.password,\n"
+                + "  install (comma separated application names)\n"
+                + "Exam environment: backup.active, backup.source, "
+                + "backup.local, backup.destination, backup.partition,\n"
+                + "  backup.partitionPath, backup.screenshot, backup.frequency");
+    }
+}
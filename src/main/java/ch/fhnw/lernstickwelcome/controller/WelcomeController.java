@@ -18,18 +18,25 @@ package ch.fhnw.lernstickwelcome.controller;
 
 import ch.fhnw.lernstickwelcome.model.Processable;
 import ch.fhnw.lernstickwelcome.model.PropertiesTask;
+import ch.fhnw.lernstickwelcome.model.TaskJournal;
 import ch.fhnw.lernstickwelcome.model.TaskProcessor;
+import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
 import ch.fhnw.lernstickwelcome.model.application.ApplicationGroupTask;
 import ch.fhnw.lernstickwelcome.model.application.InstallPostprocessingTask;
 import ch.fhnw.lernstickwelcome.model.application.InstallPreparationTask;
+import ch.fhnw.lernstickwelcome.model.application.InstallTransactionTask;
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
 import ch.fhnw.lernstickwelcome.model.backup.BackupTask;
 import ch.fhnw.lernstickwelcome.model.firewall.FirewallTask;
 import ch.fhnw.lernstickwelcome.model.help.HelpLoader;
 import ch.fhnw.lernstickwelcome.model.partition.PartitionTask;
 import ch.fhnw.lernstickwelcome.model.systemconfig.SystemconfigTask;
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -39,8 +46,6 @@ import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
-import javax.xml.parsers.ParserConfigurationException;
-import org.xml.sax.SAXException;
 
 /**
  * The controller of the WA.
@@ -50,13 +55,31 @@ import org.xml.sax.SAXException;
 public class WelcomeController {
     private static final ResourceBundle BUNDLE = ResourceBundle.getBundle("ch.fhnw.lernstickwelcome.Bundle");
     private static final Logger LOGGER = Logger.getLogger(WelcomeApplication.class.getName());
+    // Maximum number of processables which are saved concurrently
+    private static final int PARALLEL_TASKS = 3;
+    // Waiting for files and coordinating the TaskProcessor
+    private static final int IO_THREADS = 4;
+    // Concurrent downloads of packages which aren't in the repositories
+    private static final int DOWNLOAD_THREADS = 3;
+    /**
+     * System property with the directory where a trace of every save is
+     * written.
+     */
+    public static final String TRACE_DIRECTORY_PROPERTY
+            = "lernstickWelcome.traceDirectory";
+
+    private final BackgroundExecutor executor = new BackgroundExecutor(
+            IO_THREADS, PARALLEL_TASKS + 1, DOWNLOAD_THREADS);
 
     private TaskProcessor taskProcessor;
+    private final TaskJournal journal
+            = new TaskJournal(Paths.get(WelcomeConstants.JOURNAL_PATH));
     // Backend Tasks
     private PropertiesTask properties;
     // Standard Environment
     private ProxyTask proxy;
     private InstallPreparationTask prepare;
+    private InstallTransactionTask transaction;
     private ApplicationGroupTask recommendedApps;
     private ApplicationGroupTask utilityApps;
     private ApplicationGroupTask teachApps;
@@ -87,6 +110,7 @@ public class WelcomeController {
         // Init Model
         properties = WelcomeModelFactory.getPropertiesTask();
         firewall = WelcomeModelFactory.getFirewallTask();
+        firewall.startFirewallStateChecking(executor);
         backup = WelcomeModelFactory.getBackupTask(properties, BUNDLE.getString("BackupTask.Backup_Directory"));
         sysconf = WelcomeModelFactory.getSystemTask(true, properties);
         partition = WelcomeModelFactory.getPartitionTask(properties);
@@ -97,17 +121,24 @@ public class WelcomeController {
         processingList.add(sysconf);
         processingList.add(partition);
         processingList.add(properties);
-        taskProcessor = new TaskProcessor(processingList);
+        taskProcessor = new TaskProcessor(processingList, PARALLEL_TASKS, executor);
+        // The firewall, the backup and the system config are independent.
+        // Bootloader updates and backup checks need the exchange partition
+        // mounted while the partition task might umount it to relabel it.
+        taskProcessor.addDependency(partition, backup, sysconf);
+        // The properties are saved after all tasks have changed them.
+        taskProcessor.addDependency(properties, backup, sysconf, partition);
+        taskProcessor.addPersister(properties, backup, sysconf, partition);
+        taskProcessor.setJournal(journal);
+        taskProcessor.setTraceDirectory(getTraceDirectory());
     }
 
     /**
      * Loads the data for the Standard Env.
      *
-     * @throws javax.xml.parsers.ParserConfigurationException
-     * @throws org.xml.sax.SAXException
      * @throws java.io.IOException
      */
-    public void loadStandardEnvironment() throws ParserConfigurationException, SAXException, IOException {
+    public void loadStandardEnvironment() throws IOException {
         configureLogger();
 
         isExamEnvironment = false;
@@ -125,15 +156,20 @@ public class WelcomeController {
         gamesApps = WelcomeModelFactory.getApplicationGroupTask("game", "GameApplication.title", proxy);
 
         prepare = WelcomeModelFactory.getInstallPreparationTask(proxy, recommendedApps, utilityApps, teachApps, softwApps, gamesApps);
+        transaction = WelcomeModelFactory.getInstallTransactionTask(proxy, recommendedApps, utilityApps, teachApps, softwApps, gamesApps);
         post = WelcomeModelFactory.getInstallPostprocessingTask(proxy, recommendedApps, utilityApps, teachApps, softwApps, gamesApps);
 
         sysconf = WelcomeModelFactory.getSystemTask(false, properties);
         partition = WelcomeModelFactory.getPartitionTask(properties);
+        // show installations of other package managers immediately
+        WelcomeModelFactory.getDpkgStatusIndex().startWatching(executor);
+        WelcomeModelFactory.getPackageDownloader().setExecutor(executor);
 
         // Init Installer
         List<Processable> processingList = new ArrayList<>();
         processingList.add(proxy);
         processingList.add(prepare);
+        processingList.add(transaction);
         processingList.add(recommendedApps);
         processingList.add(utilityApps);
         processingList.add(teachApps);
@@ -146,25 +182,120 @@ public class WelcomeController {
 
         processingList.add(properties);
 
-        taskProcessor = new TaskProcessor(processingList);
+        taskProcessor = new TaskProcessor(processingList, PARALLEL_TASKS, executor);
+        // Only one process can use the package management at the same time,
+        // so the installation tasks have to run one after another. They
+        // don't need each other's results, a failed application mustn't
+        // prevent the installation of the other groups.
+        // The apt-get packages of all groups are installed at once, the
+        // groups only install the remaining packages (or all of them if the
+        // transaction failed).
+        taskProcessor.addOrdering(transaction, prepare);
+        taskProcessor.addOrdering(recommendedApps, transaction);
+        taskProcessor.addOrdering(utilityApps, recommendedApps);
+        taskProcessor.addOrdering(teachApps, utilityApps);
+        taskProcessor.addOrdering(softwApps, teachApps);
+        taskProcessor.addOrdering(gamesApps, softwApps);
+        // Repairs the packages of failed installations too
+        taskProcessor.addOrdering(post, gamesApps);
+        // The partition config runs during the installation. Bootloader
+        // updates need the exchange partition mounted while the partition
+        // task might umount it to relabel it.
+        taskProcessor.addDependency(sysconf, partition);
+        // The system config diverts files with dpkg-divert, which needs the
+        // lock of the package management too.
+        taskProcessor.addOrdering(sysconf, post);
+        // The properties are saved after all tasks have changed them.
+        taskProcessor.addDependency(properties, partition, sysconf);
+        taskProcessor.addPersister(properties, partition, sysconf);
+        // The downloads of applications which weren't installed
+        taskProcessor.addCleanup(
+                WelcomeModelFactory.getPackageDownloader()::cancelAll);
+        taskProcessor.setJournal(journal);
+        taskProcessor.setTraceDirectory(getTraceDirectory());
+        // A failed installation shouldn't prevent the system configuration.
+        taskProcessor.setErrorPolicy(TaskProcessor.ErrorPolicy.CONTINUE);
+    }
+
+    /**
+     * Returns the directory where the traces of the saves are written.
+     *
+     * @return the directory or null if no traces should be written
+     */
+    private Path getTraceDirectory() {
+        String directory = System.getProperty(TRACE_DIRECTORY_PROPERTY);
+        return directory == null || directory.isEmpty()
+                ? null : Paths.get(directory);
     }
 
     /**
      * Starts the TaskProcessor.
      */
     public void startProcessingTasks() {
-        if(taskProcessor != null)
-            taskProcessor.run();
+        WelcomeEvents.Span span
+                = WelcomeEvents.beginFxSection("startProcessingTasks");
+        try {
+            if(taskProcessor != null)
+                taskProcessor.run();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Checks if a previous save was interrupted and can be resumed.
+     *
+     * @return true if there are unfinished tasks of an interrupted save
+     */
+    public boolean hasInterruptedSave() {
+        return taskProcessor != null && taskProcessor.canResume(journal.read());
+    }
+
+    /**
+     * Starts the TaskProcessor with the unfinished tasks of the interrupted
+     * save.
+     */
+    public void resumeProcessingTasks() {
+        WelcomeEvents.Span span
+                = WelcomeEvents.beginFxSection("resumeProcessingTasks");
+        try {
+            TaskJournal.Entry entry = journal.read();
+            if (taskProcessor != null && taskProcessor.canResume(entry)) {
+                taskProcessor.resume(entry);
+            }
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Discards the journal of an interrupted save.
+     */
+    public void discardInterruptedSave() {
+        journal.delete();
     }
 
     /**
-     * Stops backend tasks when the application should be closed.
+     * Stops backend tasks when the application should be closed and logs
+     * the statistics of the executed commands.
      */
     public void closeApplication() {
-        if (firewall != null)
-            firewall.stopFirewallStateChecking();
-        if(sysconf != null)
-            sysconf.umountBootConfig();
+        WelcomeEvents.Span span
+                = WelcomeEvents.beginFxSection("closeApplication");
+        try {
+            if (firewall != null)
+                firewall.stopFirewallStateChecking();
+            if(sysconf != null)
+                sysconf.umountBootConfig();
+            WelcomeModelFactory.getDpkgStatusIndex().stopWatching();
+            executor.shutdown();
+            WelcomeModelFactory.getCommandStatistics().getStatistics().forEach(
+                    (name, statistics) -> LOGGER.log(Level.INFO,
+                            "command {0}: {1}",
+                            new Object[]{name, statistics}));
+        } finally {
+            span.close();
+        }
     }
 
     /**
@@ -235,6 +366,15 @@ public class WelcomeController {
         return partition;
     }
 
+    /**
+     * Returns the executor which runs all background work.
+     *
+     * @return the executor
+     */
+    public BackgroundExecutor getExecutor() {
+        return executor;
+    }
+
     public FirewallTask getFirewall() {
         return firewall;
     }
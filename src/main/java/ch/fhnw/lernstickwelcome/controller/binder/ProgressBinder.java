@@ -21,6 +21,7 @@ import ch.fhnw.lernstickwelcome.fxmlcontroller.ErrorController;
 import ch.fhnw.lernstickwelcome.fxmlcontroller.ProgressController;
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import java.io.File;
+import java.text.MessageFormat;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.animation.PauseTransition;
@@ -59,7 +60,26 @@ public class ProgressBinder {
      */
     public void initBindings() {
         install.getPbInstBar().progressProperty().bind(controller.getInstaller().progressProperty());
-        install.getLbInstPrc().textProperty().bind(controller.getInstaller().progressProperty().multiply(100).asString("%.0f%%"));
+        // Show the progress and the estimated remaining time
+        StringBinding progress = Bindings.createStringBinding(
+                () -> {
+                    String percent = String.format("%.0f%%",
+                            controller.getInstaller().progressProperty().get() * 100);
+                    long seconds = Math.round(controller.getInstaller().remainingSecondsProperty().get());
+                    if (controller.getInstaller().finishedProperty().get() || seconds <= 0) {
+                        return percent;
+                    }
+                    try {
+                        return seconds >= 60
+                                ? MessageFormat.format(controller.getBundle().getString("welcomeApplicationProgress.remainingMinutes"), percent, (seconds + 59) / 60)
+                                : MessageFormat.format(controller.getBundle().getString("welcomeApplicationProgress.remainingSeconds"), percent, seconds);
+                    } catch(Exception ex) {
+                        return percent; // No text could be load
+                    }
+                }, controller.getInstaller().progressProperty(),
+                controller.getInstaller().remainingSecondsProperty(),
+                controller.getInstaller().finishedProperty());
+        install.getLbInstPrc().textProperty().bind(progress);
 
         // Get the text of the title and the message from resource bundle
         StringBinding title = Bindings.createStringBinding(
@@ -103,6 +123,8 @@ public class ProgressBinder {
         // Hide the image if none is available
         install.getIvValue().managedProperty().bind(install.getIvValue().visibleProperty());
         install.getIvValue().visibleProperty().bind(controller.getInstaller().valueProperty().isNotNull());
+        // The save can only be cancelled once while it is running
+        install.getBtCancel().disableProperty().bind(controller.getInstaller().finishedProperty().or(controller.getInstaller().cancellingProperty()));
     }
 
     /**
@@ -112,6 +134,8 @@ public class ProgressBinder {
      * @param error the controller which the error message can be provided.
      */
     public void initHandlers(Stage errorDialog, ErrorController error) {
+        install.getBtCancel().setOnAction(evt -> controller.getInstaller().cancel());
+
         // Listen on task processor finished
         controller.getInstaller().finishedProperty().addListener(cl -> {
             if (controller.getInstaller().finishedProperty().get()) {
@@ -19,6 +19,7 @@ package ch.fhnw.lernstickwelcome.controller.binder.exam;
 import ch.fhnw.lernstickwelcome.controller.WelcomeController;
 import ch.fhnw.lernstickwelcome.fxmlcontroller.ErrorController;
 import ch.fhnw.lernstickwelcome.fxmlcontroller.exam.FirewallDependenciesWarningController;
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
 import javafx.concurrent.Task;
 import javafx.scene.Node;
 import javafx.stage.Stage;
@@ -57,7 +58,8 @@ public class FirewallDependenciesWarningBinder {
                 error.initErrorMessage((Exception) firewallSaveTask.getException());
                 errorStage.show();
             });
-            new Thread(firewallSaveTask).start();
+            controller.getExecutor().submit(BackgroundExecutor.Pool.PROCESS,
+                    firewallSaveTask);
             ((Node) evt.getSource()).getScene().getRoot().setDisable(true);
         });
     }
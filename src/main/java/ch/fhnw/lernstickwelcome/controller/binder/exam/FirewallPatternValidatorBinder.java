@@ -21,6 +21,7 @@ import ch.fhnw.lernstickwelcome.model.firewall.SquidAccessLogWatcher;
 import ch.fhnw.lernstickwelcome.fxmlcontroller.exam.FirewallPatternValidatorController;
 import ch.fhnw.lernstickwelcome.model.firewall.WebsiteFilter;
 import ch.fhnw.lernstickwelcome.view.impl.ButtonCell;
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
 import javafx.scene.Node;
 import javafx.stage.Stage;
 
@@ -57,13 +58,8 @@ public class FirewallPatternValidatorBinder {
     }
 
     public void initHandlers(Stage stage) {
-        stage.setOnShowing(evt -> {
-            try {
-                Thread t = new Thread(watcher);
-                t.start();
-            } catch (Exception e) {
-            }
-        });
+        stage.setOnShowing(evt -> controller.getExecutor().execute(
+                BackgroundExecutor.Pool.IO, watcher));
         stage.setOnHiding(evt -> watcher.stop());
         firewall.getBtOk().setOnAction(evt -> {
             ((Stage) ((Node) evt.getSource()).getScene().getWindow()).close();
@@ -74,7 +70,8 @@ public class FirewallPatternValidatorBinder {
             controller.getFirewall().getWebsiteListProperty().add(website);
             watcher.getWebsiteList().remove(website);
             // We update the firewall directly to see the effect of the change
-            new Thread(controller.getFirewall().newTask()).start();
+            controller.getExecutor().submit(BackgroundExecutor.Pool.PROCESS,
+                    controller.getFirewall().newTask());
         }));
     }
 }
@@ -54,7 +54,17 @@ public class ErrorController implements Initializable {
     public void initErrorMessage(Exception ex) {
         if(ex instanceof ProcessingException) {
             lbTitle.setText(rb.getString("welcomeApplicationError.saveStopped"));
-            lblMessage.setText(MessageFormat.format(rb.getString(ex.getMessage()), ((ProcessingException) ex).getMessageDetails()));
+            StringBuilder text = new StringBuilder(getMessage((ProcessingException) ex));
+            // Multiple failures are added as suppressed exceptions
+            for (Throwable suppressed : ex.getSuppressed()) {
+                text.append("\n\n");
+                if (suppressed instanceof ProcessingException) {
+                    text.append(getMessage((ProcessingException) suppressed));
+                } else {
+                    text.append(rb.getString("welcomeApplicationError.unknownExceptionMessage"));
+                }
+            }
+            lblMessage.setText(text.toString());
             LOGGER.log(Level.INFO, "Error Dialog shown for ProcessingException", ex);
         } else {
             lbTitle.setText(rb.getString("welcomeApplicationError.unknownException"));
@@ -63,6 +73,23 @@ public class ErrorController implements Initializable {
         }
     }
 
+    /**
+     * Returns the translated message of a ProcessingException. Details
+     * which are keys of the resource bundle are translated as well.
+     *
+     * @param ex the exception
+     * @return the message
+     */
+    private String getMessage(ProcessingException ex) {
+        Object[] details = ex.getMessageDetails();
+        for (int i = 0; i < details.length; i++) {
+            if (details[i] instanceof String && rb.containsKey((String) details[i])) {
+                details[i] = rb.getString((String) details[i]);
+            }
+        }
+        return MessageFormat.format(rb.getString(ex.getMessage()), details);
+    }
+
     @FXML
     private void btOkOnAction(ActionEvent event) {
         ((Node) event.getSource()).getScene().getWindow().hide();
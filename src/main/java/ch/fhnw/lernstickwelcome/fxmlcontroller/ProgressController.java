@@ -20,6 +20,7 @@ import java.net.URL;
 import java.util.ResourceBundle;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.image.ImageView;
@@ -41,6 +42,8 @@ public class ProgressController implements Initializable {
     private Label lbMesage;
     @FXML
     private ImageView ivValue;
+    @FXML
+    private Button btCancel;
     
 
     /**
@@ -69,4 +72,8 @@ public class ProgressController implements Initializable {
     public ImageView getIvValue() {
         return ivValue;
     }
+
+    public Button getBtCancel() {
+        return btCancel;
+    }
 }
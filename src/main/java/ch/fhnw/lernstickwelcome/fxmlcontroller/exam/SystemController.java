@@ -21,8 +21,8 @@ import ch.fhnw.lernstickwelcome.view.impl.ToggleSwitch;
 import java.awt.Toolkit;
 import java.net.URL;
 import java.util.ResourceBundle;
-import java.util.concurrent.TimeUnit;
-import javafx.application.Platform;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
@@ -32,6 +32,7 @@ import javafx.scene.control.TextField;
 import javafx.scene.control.TitledPane;
 import javafx.scene.effect.DropShadow;
 import javafx.scene.paint.Color;
+import javafx.util.Duration;
 import javafx.util.StringConverter;
 
 /**
@@ -181,40 +182,24 @@ public class SystemController implements Initializable {
         systemTitledPane.expandedProperty().set(false);
         partitionsTitledPane.expandedProperty().set(false);
 
-        new Thread() {
-            @Override
-            public void run() {
-                for (int i = 0; i < 5; i++) {
-                    highlight();
-                }
-            }
-
-            private void highlight() {
-                try {
-                    TimeUnit.MILLISECONDS.sleep(150);
-
-                    Platform.runLater(() -> {
-                        int depth = 70;
-                        DropShadow borderGlow = new DropShadow();
-                        borderGlow.setOffsetY(0f);
-                        borderGlow.setOffsetX(0f);
-                        borderGlow.setColor(Color.RED);
-                        borderGlow.setWidth(depth);
-                        borderGlow.setHeight(depth);
-                        allowFileSystemsToggleSwitch.setEffect(borderGlow);
-                    });
-
-                    TimeUnit.MILLISECONDS.sleep(150);
-
-                    Platform.runLater(() -> {
-                        allowFileSystemsToggleSwitch.setEffect(null);
-                    });
-                } catch (InterruptedException ex) {
-                    // ignored...
-                }
-            }
-
-        }.start();
+        // Let the toggle switch blink 5 times, the timeline runs in the GUI
+        // Thread and doesn't need a thread of its own.
+        int depth = 70;
+        DropShadow borderGlow = new DropShadow();
+        borderGlow.setOffsetY(0f);
+        borderGlow.setOffsetX(0f);
+        borderGlow.setColor(Color.RED);
+        borderGlow.setWidth(depth);
+        borderGlow.setHeight(depth);
+        Timeline highlight = new Timeline();
+        for (int i = 0; i < 5; i++) {
+            highlight.getKeyFrames().addAll(
+                    new KeyFrame(Duration.millis(300 * i + 150),
+                            evt -> allowFileSystemsToggleSwitch.setEffect(borderGlow)),
+                    new KeyFrame(Duration.millis(300 * i + 300),
+                            evt -> allowFileSystemsToggleSwitch.setEffect(null)));
+        }
+        highlight.play();
     }
 
     private boolean isChangeUsernameAllowed(String string) {
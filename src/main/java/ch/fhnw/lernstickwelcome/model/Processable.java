@@ -16,6 +16,9 @@
  */
 package ch.fhnw.lernstickwelcome.model;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import javafx.concurrent.Task;
 
 /**
@@ -32,4 +35,74 @@ public interface Processable<T> {
      * @return new Instance of the Task representing the {@link Processable}
      */
     Task<T> newTask();
+
+    /**
+     * Returns the Processables which have to be finished before the task of
+     * this Processable may be started.
+     * <br>
+     * The {@link TaskProcessor} uses this information to run independent
+     * Processables concurrently. By default a Processable has no
+     * dependencies.
+     *
+     * @return the Processables this Processable depends on
+     */
+    default Collection<Processable> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Checks if the task of this Processable has something to apply.
+     * <br>
+     * Processables compare their current values against the state they
+     * loaded on construction (or saved the last time). The
+     * {@link TaskProcessor} skips Processables without pending changes. By
+     * default a Processable always has pending changes.
+     *
+     * @return true if the task has to be run
+     */
+    default boolean hasChanges() {
+        return true;
+    }
+
+    /**
+     * Returns the estimated duration of the task of this Processable.
+     * <br>
+     * The {@link TaskProcessor} weights the progress of the tasks by this
+     * value and uses it to estimate the remaining time.
+     *
+     * @return the estimated duration in seconds
+     */
+    default double getEstimatedCost() {
+        return 1;
+    }
+
+    /**
+     * Returns the time after which the task of this Processable is cancelled
+     * and its processes are killed.
+     *
+     * @return the timeout in seconds, 0 if the task may run forever
+     */
+    default long getTaskTimeout() {
+        return 0;
+    }
+
+    /**
+     * Returns the state which is needed to resume the task of this
+     * Processable after an interrupted run.
+     * <br>
+     * Most Processables read their state from the system and don't need this.
+     *
+     * @return the state, stored in the {@link TaskJournal}
+     */
+    default List<String> getJournalState() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Restores the state of an interrupted run.
+     *
+     * @param state the state returned by {@link #getJournalState()}
+     */
+    default void restoreJournalState(List<String> state) {
+    }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model;
+
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.concurrent.Task;
+
+/**
+ * Base class for the tasks returned by {@link Processable#newTask()}.
+ * <br>
+ * The title, message, value and progress updates are sent to the GUI Thread
+ * by the {@link UpdateDispatcher}. Multiple updates of the same property
+ * between two flushes only result in a single update of the property.
+ * <br>
+ * A JavaFX Task can't be run without the JavaFX toolkit. Without GUI (see
+ * {@link UpdateDispatcher#setHeadless(boolean)}) the task is run by
+ * {@link #runInCurrentThread(Task)} and the updates are stored in own
+ * properties, which are returned by the static accessors of this class.
+ *
+ * @param <T> the result type of the task
+ * @author sschw
+ */
+public abstract class ProcessableTask<T> extends Task<T> {
+
+    private final Object titleKey = new Object();
+    private final Object messageKey = new Object();
+    private final Object valueKey = new Object();
+    private final Object progressKey = new Object();
+    // Used instead of the properties of the Task without GUI
+    private final ReadOnlyStringWrapper headlessTitle = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper headlessMessage = new ReadOnlyStringWrapper();
+    private final ReadOnlyObjectWrapper<T> headlessValue = new ReadOnlyObjectWrapper<>();
+    private final ReadOnlyDoubleWrapper headlessProgress = new ReadOnlyDoubleWrapper(-1);
+
+    /**
+     * Runs the task in the current thread. The run is recorded as flight
+     * recorder event (see {@link WelcomeEvents}).
+     *
+     * @param <S> the result type of the task
+     * @param task the task to run
+     * @return the result of the task
+     * @throws Exception the exception thrown by the task
+     */
+    public static <S> S runInCurrentThread(Task<S> task) throws Exception {
+        try (WelcomeEvents.Span span = WelcomeEvents.beginTask(task)) {
+            try {
+                S result = run(task);
+                span.setOutcome("succeeded");
+                return result;
+            } catch (InterruptedException | CancellationException ex) {
+                span.setOutcome("cancelled");
+                throw ex;
+            } catch (Exception ex) {
+                span.setOutcome(task.isCancelled()
+                        || Thread.currentThread().isInterrupted()
+                        ? "cancelled" : "failed");
+                span.setFailure(ex);
+                throw ex;
+            }
+        }
+    }
+
+    private static <S> S run(Task<S> task) throws Exception {
+        if (UpdateDispatcher.isHeadless()) {
+            if (!(task instanceof ProcessableTask)) {
+                throw new IllegalStateException(
+                        "Only a ProcessableTask can run without GUI");
+            }
+            return ((ProcessableTask<S>) task).call();
+        }
+        task.run();
+        try {
+            return task.get();
+        } catch (ExecutionException ex) {
+            // Throw the exception of the task itself
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Cancels the task and interrupts the thread running it.
+     *
+     * @param task the task
+     * @param thread the thread running the task (only needed without GUI)
+     */
+    public static void cancel(Task<?> task, Thread thread) {
+        if (UpdateDispatcher.isHeadless()) {
+            // The JavaFX Task would update its state in the GUI Thread
+            if (thread != null) {
+                thread.interrupt();
+            }
+        } else {
+            task.cancel(true);
+        }
+    }
+
+    public static ReadOnlyDoubleProperty progressOf(Task<?> task) {
+        if (UpdateDispatcher.isHeadless() && task instanceof ProcessableTask) {
+            return ((ProcessableTask<?>) task).headlessProgress.getReadOnlyProperty();
+        }
+        return task.progressProperty();
+    }
+
+    public static ReadOnlyStringProperty titleOf(Task<?> task) {
+        if (UpdateDispatcher.isHeadless() && task instanceof ProcessableTask) {
+            return ((ProcessableTask<?>) task).headlessTitle.getReadOnlyProperty();
+        }
+        return task.titleProperty();
+    }
+
+    public static ReadOnlyStringProperty messageOf(Task<?> task) {
+        if (UpdateDispatcher.isHeadless() && task instanceof ProcessableTask) {
+            return ((ProcessableTask<?>) task).headlessMessage.getReadOnlyProperty();
+        }
+        return task.messageProperty();
+    }
+
+    public static <S> ReadOnlyObjectProperty<S> valueOf(Task<S> task) {
+        if (UpdateDispatcher.isHeadless() && task instanceof ProcessableTask) {
+            return ((ProcessableTask<S>) task).headlessValue.getReadOnlyProperty();
+        }
+        return task.valueProperty();
+    }
+
+    @Override
+    protected void updateTitle(String title) {
+        if (UpdateDispatcher.isHeadless()) {
+            UpdateDispatcher.post(titleKey, () -> headlessTitle.set(title));
+        } else if (Platform.isFxApplicationThread()) {
+            super.updateTitle(title);
+        } else {
+            UpdateDispatcher.post(titleKey, () -> super.updateTitle(title));
+        }
+    }
+
+    @Override
+    protected void updateMessage(String message) {
+        WelcomeEvents.taskMessage(this, message);
+        if (UpdateDispatcher.isHeadless()) {
+            UpdateDispatcher.post(messageKey, () -> headlessMessage.set(message));
+        } else if (Platform.isFxApplicationThread()) {
+            super.updateMessage(message);
+        } else {
+            UpdateDispatcher.post(messageKey, () -> super.updateMessage(message));
+        }
+    }
+
+    @Override
+    protected void updateValue(T value) {
+        if (UpdateDispatcher.isHeadless()) {
+            UpdateDispatcher.post(valueKey, () -> headlessValue.set(value));
+        } else if (Platform.isFxApplicationThread()) {
+            super.updateValue(value);
+        } else {
+            UpdateDispatcher.post(valueKey, () -> super.updateValue(value));
+        }
+    }
+
+    @Override
+    protected void updateProgress(long workDone, long max) {
+        updateProgress((double) workDone, (double) max);
+    }
+
+    @Override
+    protected void updateProgress(double workDone, double max) {
+        WelcomeEvents.taskProgress(this, workDone, max);
+        if (UpdateDispatcher.isHeadless()) {
+            // Same calculation as the Task, -1 means indeterminate
+            double progress = workDone < 0 || max <= 0
+                    ? -1 : Math.min(workDone, max) / max;
+            UpdateDispatcher.post(progressKey,
+                    () -> headlessProgress.set(progress));
+        } else if (Platform.isFxApplicationThread()) {
+            super.updateProgress(workDone, max);
+        } else {
+            UpdateDispatcher.post(progressKey,
+                    () -> super.updateProgress(workDone, max));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model;
+
+/**
+ * Aggregates the progress of multiple tasks weighted by their estimated cost.
+ * <br>
+ * Every update only adjusts the sum of the done work by the difference to the
+ * previous progress of the task, so the costs of an update don't depend on the
+ * number of tasks.
+ * <br>
+ * This class isn't thread safe, it is used in the GUI Thread.
+ *
+ * @see Processable#getEstimatedCost()
+ * @author sschw
+ */
+public class ProgressAggregator {
+
+    /**
+     * Below this progress the estimated costs are more reliable than the
+     * measured speed.
+     */
+    private static final double MIN_MEASURED_PROGRESS = 0.05;
+    private final double[] costs;
+    private final double[] progress;
+    private final double totalCost;
+    private double doneCost;
+
+    /**
+     * Creates an aggregator for tasks with the given estimated costs.
+     *
+     * @param costs the estimated costs in seconds, one per task
+     */
+    public ProgressAggregator(double[] costs) {
+        this.costs = new double[costs.length];
+        this.progress = new double[costs.length];
+        double sum = 0;
+        for (int i = 0; i < costs.length; i++) {
+            this.costs[i] = Math.max(0, costs[i]);
+            sum += this.costs[i];
+        }
+        this.totalCost = sum;
+    }
+
+    /**
+     * Updates the progress of a task.
+     *
+     * @param index the index of the task
+     * @param taskProgress the progress of the task between 0 and 1, negative
+     * values (indeterminate progress) are handled as 0
+     */
+    public void update(int index, double taskProgress) {
+        double newProgress = Math.min(1, Math.max(0, taskProgress));
+        doneCost += costs[index] * (newProgress - progress[index]);
+        progress[index] = newProgress;
+    }
+
+    /**
+     * Returns the weighted progress of all tasks.
+     *
+     * @return progress between 0 and 1
+     */
+    public double getProgress() {
+        if (totalCost <= 0) {
+            return 1;
+        }
+        return Math.min(1, Math.max(0, doneCost / totalCost));
+    }
+
+    /**
+     * Estimates the remaining time.
+     * <br>
+     * At the beginning the estimated costs are used. As soon as enough work is
+     * done, the estimated costs are scaled by the measured speed.
+     *
+     * @param elapsedSeconds the seconds since the tasks were started
+     * @return the estimated remaining time in seconds
+     */
+    public double getRemainingSeconds(double elapsedSeconds) {
+        double remainingCost = Math.max(0, totalCost - doneCost);
+        if (getProgress() < MIN_MEASURED_PROGRESS || doneCost <= 0) {
+            return remainingCost;
+        }
+        return remainingCost * elapsedSeconds / doneCost;
+    }
+}
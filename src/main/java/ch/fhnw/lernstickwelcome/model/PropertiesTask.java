@@ -32,6 +32,8 @@ import javafx.concurrent.Task;
 public class PropertiesTask implements Processable<String> {
     private static final Logger LOGGER = Logger.getLogger(PropertiesTask.class.getName());
     private Properties properties;
+    // The properties as they are stored in the property file
+    private Properties savedProperties;
     private File propertiesFile;
     
     /**
@@ -46,12 +48,23 @@ public class PropertiesTask implements Processable<String> {
             LOGGER.log(Level.INFO,
                     "can not load properties from " + propertiesFile, ex);
         }
+        savedProperties = (Properties) properties.clone();
     }
     
     public Properties getProperties() {
         return properties;
     }
 
+    @Override
+    public boolean hasChanges() {
+        return !properties.equals(savedProperties);
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        return 0.1;
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
@@ -63,7 +76,7 @@ public class PropertiesTask implements Processable<String> {
      * Saves the property file.
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
         @Override
         protected String call() throws Exception {
             updateProgress(0, 1);
@@ -72,6 +85,7 @@ public class PropertiesTask implements Processable<String> {
             try(FileOutputStream fos = new FileOutputStream(propertiesFile)) {
                 properties.store(fos,
                         "lernstick Welcome properties");
+                savedProperties = (Properties) properties.clone();
             } catch (IOException ex) {
                 LOGGER.log(Level.SEVERE, null, ex);
             }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model;
+
+import ch.fhnw.lernstickwelcome.util.ProcessInspector;
+import ch.fhnw.lernstickwelcome.util.jfr.EventRecorder;
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javafx.concurrent.Task;
+
+/**
+ * Records a run of the {@link TaskProcessor} as trace in the Chrome trace
+ * event format, which can be opened with chrome://tracing or
+ * https://ui.perfetto.dev.
+ * <br>
+ * The trace contains a span for every task, nested spans for the steps
+ * between the progress checkpoints of a task and for every external command
+ * and section of the GUI Thread. Every thread is shown as own track. The
+ * hardware and software of the system are stored as metadata, so runs on
+ * different systems can be compared.
+ *
+ * @author sschw
+ */
+public class RunTrace implements EventRecorder {
+
+    private final long startNanos = System.nanoTime();
+    private final Date startDate = new Date();
+    private final long pid = ProcessInspector.getOwnPid();
+    private final List<String> events = new ArrayList<>();
+    private final Map<Long, String> threadNames = new LinkedHashMap<>();
+    private final Map<Task<?>, TaskState> tasks
+            = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    @Override
+    public WelcomeEvents.Span beginTask(Task<?> task, String processable,
+            String taskClass) {
+        TaskState state = new TaskState(currentThread(), now());
+        tasks.put(task, state);
+        Map<String, Object> args = new LinkedHashMap<>();
+        args.put("class", taskClass);
+        return new WelcomeEvents.Span() {
+            @Override
+            public void setOutcome(String outcome) {
+                args.put("outcome", outcome);
+            }
+
+            @Override
+            public void setFailure(Throwable failure) {
+                args.put("failure", failure.toString());
+            }
+
+            @Override
+            public void close() {
+                tasks.remove(task);
+                addSpan(processable, "task", state.thread,
+                        state.start, now(), args);
+            }
+        };
+    }
+
+    @Override
+    public void taskProgress(Task<?> task, double workDone, double max) {
+        TaskState state = tasks.get(task);
+        if (state == null || workDone < 0 || max <= 0) {
+            return;
+        }
+        long now = now();
+        synchronized (state) {
+            double progress = Math.min(workDone, max) / max;
+            if (progress <= state.progress) {
+                // No checkpoint reached, e.g. the initial progress
+                return;
+            }
+            Map<String, Object> args = new LinkedHashMap<>();
+            if (state.message != null) {
+                args.put("message", state.message);
+            }
+            args.put("progress", progress);
+            // The progress might be updated by another thread, the step
+            // belongs to the thread running the task.
+            addSpan("step " + format(workDone) + "/" + format(max), "step",
+                    state.thread, state.stepStart, now, args);
+            state.progress = progress;
+            state.stepStart = now;
+        }
+    }
+
+    @Override
+    public void taskMessage(Task<?> task, String message) {
+        TaskState state = tasks.get(task);
+        if (state != null) {
+            synchronized (state) {
+                state.message = message;
+            }
+        }
+    }
+
+    @Override
+    public WelcomeEvents.Span beginCommand(String command, boolean fxThread) {
+        long thread = currentThread();
+        long start = now();
+        Map<String, Object> args = new LinkedHashMap<>();
+        args.put("command", command);
+        String name = command.split(" ", 2)[0];
+        String executable = name.substring(name.lastIndexOf('/') + 1);
+        return new WelcomeEvents.Span() {
+            @Override
+            public void setResult(int exitCode, long outputSize) {
+                args.put("exitCode", exitCode);
+                args.put("outputSize", outputSize);
+            }
+
+            @Override
+            public void close() {
+                addSpan(executable, "process", thread, start, now(), args);
+            }
+        };
+    }
+
+    @Override
+    public WelcomeEvents.Span beginFxSection(String name) {
+        long thread = currentThread();
+        long start = now();
+        return new WelcomeEvents.Span() {
+            @Override
+            public void close() {
+                addSpan(name, "gui", thread, start, now(),
+                        Collections.emptyMap());
+            }
+        };
+    }
+
+    /**
+     * Adds the span of the whole run, which ends now, in the current thread
+     * and writes the trace.
+     *
+     * @param path the path of the trace file
+     * @param outcome the outcome of the run
+     * @throws IOException if the trace can't be written
+     */
+    public void write(Path path, String outcome) throws IOException {
+        addSpan("TaskProcessor.run", "run", currentThread(), 0, now(),
+                Collections.singletonMap("outcome", outcome));
+        try (Writer writer = Files.newBufferedWriter(
+                path, StandardCharsets.UTF_8)) {
+            writer.write("{\"displayTimeUnit\":\"ms\",\"otherData\":");
+            writer.write(toJson(getSystemInfo()));
+            writer.write(",\"traceEvents\":[\n");
+            synchronized (this) {
+                writer.write(metadata("process_name", 0,
+                        "lernstickWelcome"));
+                for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+                    writer.write(",\n");
+                    writer.write(metadata("thread_name", thread.getKey(),
+                            thread.getValue()));
+                }
+                for (String event : events) {
+                    writer.write(",\n");
+                    writer.write(event);
+                }
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    private synchronized void addSpan(String name, String category,
+            long thread, long start, long end, Map<String, ?> args) {
+        events.add("{\"name\":" + quote(name)
+                + ",\"cat\":" + quote(category)
+                + ",\"ph\":\"X\",\"pid\":" + pid + ",\"tid\":" + thread
+                + ",\"ts\":" + start + ",\"dur\":" + (end - start)
+                + ",\"args\":" + toJson(args) + "}");
+    }
+
+    private String metadata(String name, long thread, String value) {
+        return "{\"name\":\"" + name + "\",\"ph\":\"M\",\"pid\":" + pid
+                + ",\"tid\":" + thread + ",\"args\":{\"name\":"
+                + quote(value) + "}}";
+    }
+
+    private Map<String, Object> getSystemInfo() {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("start", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
+                .format(startDate));
+        try {
+            info.put("host", InetAddress.getLocalHost().getHostName());
+        } catch (UnknownHostException ex) {
+            info.put("host", "unknown");
+        }
+        info.put("os", System.getProperty("os.name") + " "
+                + System.getProperty("os.version") + " "
+                + System.getProperty("os.arch"));
+        info.put("java", System.getProperty("java.vendor") + " "
+                + System.getProperty("java.version"));
+        info.put("processors", Runtime.getRuntime().availableProcessors());
+        info.put("maxMemory", Runtime.getRuntime().maxMemory());
+        return info;
+    }
+
+    /**
+     * Returns the id of the current thread and remembers its name.
+     *
+     * @return the thread id
+     */
+    private synchronized long currentThread() {
+        Thread thread = Thread.currentThread();
+        threadNames.putIfAbsent(thread.getId(), thread.getName());
+        return thread.getId();
+    }
+
+    /**
+     * Returns the time since the start of the trace.
+     *
+     * @return the time in microseconds
+     */
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value)
+                ? Long.toString((long) value) : String.format("%.2f", value);
+    }
+
+    private static String toJson(Map<String, ?> map) {
+        StringBuilder builder = new StringBuilder("{");
+        map.forEach((key, value) -> {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append(quote(key)).append(':');
+            builder.append(value instanceof Number
+                    ? value.toString() : quote(String.valueOf(value)));
+        });
+        return builder.append('}').toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * The state of a running task.
+     */
+    private static class TaskState {
+
+        private final long thread;
+        private final long start;
+        private long stepStart;
+        private double progress;
+        private String message;
+
+        TaskState(long thread, long start) {
+            this.thread = thread;
+            this.start = start;
+            this.stepStart = start;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of a {@link TaskProcessor} run.
+ * <br>
+ * At the beginning of a run the journal is replaced atomically by a new one
+ * containing the ids of all tasks and the state needed to resume them (see
+ * {@link Processable#getJournalState()}). Afterwards every start and
+ * completion of a task is appended as a single line and synced to the disk.
+ * If the run finishes the journal is deleted, so an existing journal means
+ * that a run was interrupted.
+ * <br>
+ * Writing the journal never lets a run fail, errors are only logged.
+ *
+ * @author sschw
+ */
+public class TaskJournal {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(TaskJournal.class.getName());
+    private static final String RUN = "RUN";
+    private static final String STATE = "STATE";
+    private static final String STARTED = "STARTED";
+    private static final String FINISHED = "FINISHED";
+    private final Path path;
+    private FileChannel channel;
+
+    /**
+     * Creates a journal.
+     *
+     * @param path the path of the journal file
+     */
+    public TaskJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Starts a new journal and removes the old one.
+     *
+     * @param states the ids of all tasks of the run with the state needed to
+     * resume them, in the order of the tasks
+     */
+    public synchronized void begin(Map<String, List<String>> states) {
+        close();
+        StringBuilder builder = new StringBuilder(RUN);
+        states.keySet().forEach(id -> builder.append(' ').append(id));
+        builder.append('\n');
+        states.forEach((id, state) -> state.forEach(value -> builder
+                .append(STATE).append(' ').append(id).append(' ')
+                .append(encode(value)).append('\n')));
+
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel tmpChannel = FileChannel.open(tmpPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(tmpChannel, builder.toString());
+            }
+            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(path,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't create journal " + path, ex);
+        }
+    }
+
+    /**
+     * Appends that a task was started.
+     *
+     * @param id the id of the task
+     */
+    public void taskStarted(String id) {
+        append(STARTED + ' ' + id + '\n');
+    }
+
+    /**
+     * Appends that a task was finished successfully or had nothing to do.
+     *
+     * @param id the id of the task
+     */
+    public void taskFinished(String id) {
+        append(FINISHED + ' ' + id + '\n');
+    }
+
+    /**
+     * Closes the journal but keeps it, so the run can be resumed.
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Couldn't close journal", ex);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Closes and deletes the journal.
+     */
+    public synchronized void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't delete journal " + path, ex);
+        }
+    }
+
+    /**
+     * Reads the journal of an interrupted run.
+     *
+     * @return the content of the journal or null if there is none
+     */
+    public Entry read() {
+        List<String> lines;
+        try {
+            String content = new String(
+                    Files.readAllBytes(path), StandardCharsets.UTF_8);
+            lines = new ArrayList<>(Arrays.asList(content.split("\n", -1)));
+            // The last line is incomplete if writing it was interrupted,
+            // complete lines are followed by an empty string.
+            lines.remove(lines.size() - 1);
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't read journal " + path, ex);
+            return null;
+        }
+        if (lines.isEmpty() || !lines.get(0).startsWith(RUN)) {
+            LOGGER.log(Level.WARNING, "Ignoring invalid journal {0}", path);
+            return null;
+        }
+        Entry entry = new Entry();
+        String[] ids = lines.get(0).split(" ");
+        entry.taskIds.addAll(Arrays.asList(ids).subList(1, ids.length));
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(" ", 3);
+            if (fields.length >= 2) {
+                switch (fields[0]) {
+                    case STATE:
+                        if (fields.length == 3) {
+                            entry.states.computeIfAbsent(fields[1],
+                                    id -> new ArrayList<>())
+                                    .add(decode(fields[2]));
+                        }
+                        break;
+                    case STARTED:
+                        entry.started.add(fields[1]);
+                        break;
+                    case FINISHED:
+                        entry.finished.add(fields[1]);
+                        break;
+                    default:
+                        LOGGER.log(Level.WARNING,
+                                "Ignoring journal line {0}", line);
+                }
+            }
+        }
+        return entry;
+    }
+
+    private synchronized void append(String line) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            write(channel, line);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't write journal " + path, ex);
+        }
+    }
+
+    private static void write(FileChannel channel, String text)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(
+                text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't decode " + value, ex);
+            return value;
+        }
+    }
+
+    /**
+     * The content of the journal of an interrupted run.
+     */
+    public static class Entry {
+
+        private final List<String> taskIds = new ArrayList<>();
+        private final Map<String, List<String>> states = new LinkedHashMap<>();
+        private final Set<String> started = new HashSet<>();
+        private final Set<String> finished = new HashSet<>();
+
+        /**
+         * Returns the ids of all tasks of the interrupted run.
+         *
+         * @return the task ids in the order of the tasks
+         */
+        public List<String> getTaskIds() {
+            return Collections.unmodifiableList(taskIds);
+        }
+
+        /**
+         * Returns the state which has been stored for a task.
+         *
+         * @param id the id of the task
+         * @return the state of the task
+         */
+        public List<String> getState(String id) {
+            return states.getOrDefault(id, Collections.emptyList());
+        }
+
+        /**
+         * Returns the tasks which were finished.
+         *
+         * @return the ids of the finished tasks
+         */
+        public Set<String> getFinished() {
+            return Collections.unmodifiableSet(finished);
+        }
+
+        /**
+         * Checks if there are tasks which weren't finished.
+         *
+         * @return true if the run can be resumed
+         */
+        public boolean hasUnfinishedTasks() {
+            return !finished.containsAll(taskIds);
+        }
+
+        /**
+         * Checks if there are unfinished tasks which stored a state. The
+         * other tasks read their settings from the system again, which
+         * doesn't contain the settings of the interrupted run, so they are
+         * skipped when the run is resumed.
+         *
+         * @return true if resuming the run would apply some settings
+         */
+        public boolean hasUnfinishedTasksWithState() {
+            return taskIds.stream().anyMatch(id -> !finished.contains(id)
+                    && !getState(id).isEmpty());
+        }
+    }
+}
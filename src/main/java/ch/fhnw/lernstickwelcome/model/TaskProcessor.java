@@ -16,18 +16,43 @@
  */
 package ch.fhnw.lernstickwelcome.model;
 
+import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
+import ch.fhnw.lernstickwelcome.util.ProcessInspector;
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
+import ch.fhnw.lernstickwelcome.util.process.RunningCommands;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import javafx.application.Platform;
-import javafx.beans.binding.Bindings;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
-import javafx.beans.property.ReadOnlyDoubleProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -36,28 +61,111 @@ import javafx.beans.property.StringProperty;
 import javafx.concurrent.Task;
 
 /**
- * This class takes {@link Processable} objects and runs them in a new thread 
- * sequentially.
+ * This class takes {@link Processable} objects and runs them in the
+ * background.
  * <br>
- * The TaskProcessor binds its properties (progress, title, message and exception)
- * to the corrently processing {@link Task} of the {@link Processable}.
+ * The run is coordinated in the {@link BackgroundExecutor.Pool#IO} pool of
+ * the given {@link BackgroundExecutor} and the tasks are run in its
+ * {@link BackgroundExecutor.Pool#PROCESS} pool.
+ * <br>
+ * By default the Processables are run sequentially in the given order. If the
+ * TaskProcessor is created with a parallelism greater than one, every
+ * Processable is started as soon as all of its dependencies (see
+ * {@link Processable#getDependencies()} and
+ * {@link #addDependency(Processable, Processable...)}) are finished. At most
+ * parallelism Processables run at the same time. Processables which mustn't
+ * run at the same time without needing each other's results, e.g. because
+ * they use the package management, are ordered with
+ * {@link #addOrdering(Processable, Processable...)}.
+ * <br>
+ * The progress of the tasks is weighted by their estimated cost (see
+ * {@link Processable#getEstimatedCost()}) and used to estimate the remaining
+ * time.
+ * <br>
+ * The TaskProcessor binds its properties (progress, title, message and value)
+ * to the latest started {@link Task} of the {@link Processable}s which are
+ * currently processed. All updates of these properties are sent to the GUI
+ * Thread by the {@link UpdateDispatcher}.
  * <br>
  * If the TaskProcessor is finished, the finished Property is set to true.
  * <br>
- * If a processable throws an error the whole process stops and finished is set to true.
+ * Processables without pending changes (see {@link Processable#hasChanges()})
+ * are skipped and their progress is reported as complete.
+ * <br>
+ * If a processable throws an error no further processables are started, the
+ * exception property is set and finished is set to true as soon as the running
+ * processables are finished. With {@link ErrorPolicy#CONTINUE} only the
+ * processables depending on the failed one aren't started and all failures
+ * are reported at the end. The processables which are only ordered after the
+ * failed one are still started.
+ * <br>
+ * A task which runs longer than its timeout (see
+ * {@link Processable#getTaskTimeout()}) is cancelled and the commands it is
+ * running are killed (see {@link RunningCommands}). The whole run can be
+ * cancelled with {@link #cancel()}.
+ * <br>
+ * If a {@link TaskJournal} is set, the start and completion of every task is
+ * journaled. An interrupted run can be resumed with
+ * {@link #resume(TaskJournal.Entry)}. Tasks whose changes are saved by another
+ * task (see {@link #addPersister(Processable, Processable...)}) are journaled
+ * as finished together with it.
+ * <br>
+ * If a trace directory is set, a {@link RunTrace} of every run is written to
+ * it.
  * 
  * @author sschw
  */
 public class TaskProcessor {
     private final static Logger LOGGER = Logger.getLogger(TaskProcessor.class.getName());
     private final List<Processable> tasks;
+    private final int parallelism;
+    private final BackgroundExecutor executor;
+    private final Map<Processable, Set<Processable>> dependencies = new HashMap<>();
+    private final Map<Processable, Set<Processable>> orderings = new HashMap<>();
+    /**
+     * The Processables which persist the changes of other Processables.
+     */
+    private final Map<Processable, Processable> persisters = new HashMap<>();
+    private final List<Runnable> cleanups = new CopyOnWriteArrayList<>();
+    private final Map<Processable, Long> timeouts = new HashMap<>();
+    private ErrorPolicy errorPolicy = ErrorPolicy.STOP;
+    /**
+     * The tasks of the current run which have been started but aren't
+     * finished yet.
+     */
+    private final Set<RunningTask> currentTasks = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+    private TaskJournal journal;
+    private Path traceDirectory;
     /**
-     * Value represents progress by binding it to the values of the tasks.<br>
+     * The ids of the tasks which were finished by the interrupted run which
+     * is resumed.
+     */
+    private Set<String> resumedTaskIds = Collections.emptySet();
+    /**
+     * The tasks which are currently running (only accessed in the GUI Thread).
+     */
+    private final List<Task> runningTasks = new ArrayList<>();
+    /**
+     * Aggregates the progress of the tasks of the current run (only accessed
+     * in the GUI Thread).
+     */
+    private ProgressAggregator progressAggregator;
+    private long startTime;
+    /**
+     * Value represents progress by aggregating the values of the tasks.<br>
      * Tasks need to use progress.
      */
     private final DoubleProperty progress = new SimpleDoubleProperty();
 
+    /**
+     * The estimated remaining time in seconds.
+     */
+    private final DoubleProperty remainingSeconds = new SimpleDoubleProperty();
+
     private final BooleanProperty finished = new SimpleBooleanProperty();
+
+    private final BooleanProperty cancelling = new SimpleBooleanProperty();
     
     private final ObjectProperty<Exception> exception = new SimpleObjectProperty<>();
 
@@ -67,8 +175,224 @@ public class TaskProcessor {
     
     private final StringProperty value = new SimpleStringProperty();
 
-    public TaskProcessor(List<Processable> tasks) {
+    /**
+     * Creates a TaskProcessor which runs the given tasks sequentially.
+     *
+     * @param tasks the Processables in the order they should be processed
+     * @param executor the executor running the tasks
+     */
+    public TaskProcessor(List<Processable> tasks, BackgroundExecutor executor) {
+        this(tasks, 1, executor);
+    }
+
+    /**
+     * Creates a TaskProcessor which runs up to parallelism independent tasks
+     * concurrently.
+     *
+     * @param tasks the Processables in the order they should be processed if
+     * they depend on each other
+     * @param parallelism the maximum number of concurrently running tasks
+     * @param executor the executor running the tasks
+     */
+    public TaskProcessor(List<Processable> tasks, int parallelism,
+            BackgroundExecutor executor) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
         this.tasks = tasks;
+        this.parallelism = parallelism;
+        this.executor = executor;
+    }
+
+    /**
+     * Declares that the task can only be started when the given dependencies
+     * are finished.
+     * <br>
+     * This supplements the dependencies a {@link Processable} declares itself.
+     *
+     * @param task the Processable that has to wait
+     * @param dependsOn the Processables which have to be finished before
+     */
+    public void addDependency(Processable task, Processable... dependsOn) {
+        Set<Processable> taskDependencies = dependencies.get(task);
+        if (taskDependencies == null) {
+            taskDependencies = new HashSet<>();
+            dependencies.put(task, taskDependencies);
+        }
+        for (Processable dependency : dependsOn) {
+            taskDependencies.add(dependency);
+        }
+    }
+
+    /**
+     * Declares that the task can only be started when the given Processables
+     * are finished or failed.
+     * <br>
+     * Unlike a dependency, a failure isn't passed on: with
+     * {@link ErrorPolicy#CONTINUE} the task is started even if one of the
+     * given Processables failed or wasn't run.
+     *
+     * @param task the Processable that has to wait
+     * @param after the Processables which have to be finished or failed
+     * before
+     */
+    public void addOrdering(Processable task, Processable... after) {
+        orderings.computeIfAbsent(task, key -> new HashSet<>())
+                .addAll(Arrays.asList(after));
+    }
+
+    /**
+     * Declares that the changes of the tasks are only persisted by another
+     * Processable, e.g. the properties which are saved by the
+     * {@link PropertiesTask}.
+     * <br>
+     * The tasks are only journaled as finished when the persister is
+     * finished, so a resumed run repeats them if their changes weren't saved.
+     * The persister has to depend on the tasks.
+     *
+     * @param persister the Processable persisting the changes
+     * @param tasks the Processables whose changes are persisted
+     */
+    public void addPersister(Processable persister, Processable... tasks) {
+        for (Processable task : tasks) {
+            persisters.put(task, persister);
+        }
+    }
+
+    /**
+     * Adds work which is done when a run is finished or cancelled, e.g.
+     * stopping background work the tasks started for later tasks.
+     *
+     * @param cleanup the work, which may be done more than once per run
+     */
+    public void addCleanup(Runnable cleanup) {
+        cleanups.add(cleanup);
+    }
+
+    /**
+     * Overrides the timeout the task declares itself.
+     *
+     * @param task the Processable
+     * @param seconds the timeout in seconds, 0 if the task may run forever
+     * @see Processable#getTaskTimeout()
+     */
+    public void setTimeout(Processable task, long seconds) {
+        timeouts.put(task, seconds);
+    }
+
+    /**
+     * Sets the journal which records the progress of the runs.
+     *
+     * @param journal the journal or null if no journal should be written
+     */
+    public void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the directory where a trace of every run is written (see
+     * {@link RunTrace}).
+     *
+     * @param traceDirectory the directory or null if no traces should be
+     * written
+     */
+    public void setTraceDirectory(Path traceDirectory) {
+        this.traceDirectory = traceDirectory;
+    }
+
+    /**
+     * Checks if the interrupted run of a journal can be resumed by this
+     * TaskProcessor.
+     *
+     * @param entry the content of the journal
+     * @return true if the journal contains the same tasks as this
+     * TaskProcessor and some of them weren't finished and have a state to
+     * restore (see {@link TaskJournal.Entry#hasUnfinishedTasksWithState()})
+     */
+    public boolean canResume(TaskJournal.Entry entry) {
+        return entry != null && entry.getTaskIds().equals(getTaskIds())
+                && entry.hasUnfinishedTasksWithState();
+    }
+
+    /**
+     * Resumes an interrupted run. The state of the tasks is restored and only
+     * the tasks which weren't finished are run.
+     *
+     * @param entry the content of the journal of the interrupted run
+     * @see #canResume(TaskJournal.Entry)
+     */
+    public void resume(TaskJournal.Entry entry) {
+        List<String> ids = getTaskIds();
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).restoreJournalState(entry.getState(ids.get(i)));
+        }
+        resumedTaskIds = new HashSet<>(entry.getFinished());
+        run();
+    }
+
+    /**
+     * Returns the ids which identify the tasks in the journal. The id consists
+     * of the class name and the number of previous tasks of the same class.
+     *
+     * @return the ids in the order of the tasks
+     */
+    private List<String> getTaskIds() {
+        Map<String, Integer> counts = new HashMap<>();
+        List<String> ids = new ArrayList<>();
+        for (Processable task : tasks) {
+            String name = task.getClass().getSimpleName();
+            int count = counts.merge(name, 1, Integer::sum);
+            ids.add(name + "-" + count);
+        }
+        return ids;
+    }
+
+    /**
+     * Sets how the TaskProcessor reacts to a failed task.
+     *
+     * @param errorPolicy the error policy
+     */
+    public void setErrorPolicy(ErrorPolicy errorPolicy) {
+        this.errorPolicy = errorPolicy;
+    }
+
+    public ErrorPolicy getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    /**
+     * Returns all dependencies of the task which are part of this processor.
+     *
+     * @param task the Processable
+     * @return dependencies declared by the Processable or this processor
+     */
+    private Set<Processable> getDependencies(Processable task) {
+        Set<Processable> result = new HashSet<>();
+        Collection<Processable> declared = task.getDependencies();
+        if (declared != null) {
+            result.addAll(declared);
+        }
+        if (dependencies.containsKey(task)) {
+            result.addAll(dependencies.get(task));
+        }
+        // Dependencies which are not processed by us are always fulfilled.
+        result.retainAll(tasks);
+        return result;
+    }
+
+    /**
+     * Returns the Processables the task is ordered after which are part of
+     * this processor.
+     *
+     * @param task the Processable
+     * @return the Processables given to
+     * {@link #addOrdering(Processable, Processable...)}
+     */
+    private Set<Processable> getPredecessors(Processable task) {
+        Set<Processable> result = new HashSet<>(
+                orderings.getOrDefault(task, Collections.emptySet()));
+        result.retainAll(tasks);
+        return result;
     }
 
     /**
@@ -81,57 +405,444 @@ public class TaskProcessor {
         // Get Tasks from Processable
         List<Task> taskList = tasks.stream().map(t -> t.newTask()).collect(Collectors.toList());
         
-        // Binding progress to tasks
-        progress.bind(Bindings.createDoubleBinding(
-                () -> taskList.stream().mapToDouble(
-                        t -> t.getProgress() > 0 ? t.getProgress() : 0 // Add progress to bind
-                ).sum() / tasks.size(),
-                taskList.stream().map(t -> t.progressProperty()).toArray(s -> new ReadOnlyDoubleProperty[s])));
-
-        new Thread(() -> {
-            Iterator<Task> iterator = taskList.iterator();
+        // Aggregate the progress of the tasks weighted by their costs
+        progressAggregator = new ProgressAggregator(tasks.stream()
+                .mapToDouble(t -> t.getEstimatedCost()).toArray());
+        startTime = System.nanoTime();
+        ProgressAggregator aggregator = progressAggregator;
+        for (int i = 0; i < taskList.size(); i++) {
+            final int index = i;
+            ProcessableTask.progressOf(taskList.get(i)).addListener(
+                    (observable, oldValue, newValue) -> updateProgress(
+                            aggregator, index, newValue.doubleValue()));
+        }
+        updateProgress(aggregator, 0, 0);
+
+        List<String> taskIds = getTaskIds();
+        Set<String> resumed = resumedTaskIds;
+        resumedTaskIds = Collections.emptySet();
+        TaskJournal runJournal = journal;
+        // the ids of the finished tasks whose changes aren't persisted yet
+        Map<Processable, String> unpersisted = new HashMap<>();
+        if (runJournal != null) {
+            Map<String, List<String>> states = new LinkedHashMap<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                states.put(taskIds.get(i), tasks.get(i).getJournalState());
+            }
+            runJournal.begin(states);
+        }
+
+        RunTrace trace = traceDirectory != null ? new RunTrace() : null;
+        if (trace != null) {
+            WelcomeEvents.addRecorder(trace);
+        }
+
+        cancelled = false;
+        executor.execute(BackgroundExecutor.Pool.IO, () -> {
+            String outcome = "interrupted";
+            CompletionService<Processable> completionService
+                    = new ExecutorCompletionService<>(executor
+                            .getExecutorService(BackgroundExecutor.Pool.PROCESS));
+            // Remaining processables in the order they were given
+            Set<Processable> pending = new LinkedHashSet<>(tasks);
+            Set<Processable> done = new HashSet<>();
+            Set<Processable> failed = new HashSet<>();
+            List<Exception> failures = new ArrayList<>();
+            Map<Future<Processable>, RunningTask> running = new HashMap<>();
             
             // Running a task might throw an exception
-            // If an exception is thrown the while has to be interrupted
+            // Depending on the error policy no more tasks or only the tasks
+            // depending on the failed one are started
             try {
-                // As long we have tasks and there is no exception.
-                while(iterator.hasNext() && exception.getValue() == null) {
-                    Task t = iterator.next();
-                    // Bind the values in GUI Thread.
-                    Platform.runLater(() -> {
-                        title.bind(t.titleProperty());
-                        message.bind(t.messageProperty());
-                        value.bind(t.valueProperty());
-                        exception.bind(t.exceptionProperty());
-                    });
-                    // Run the task
-                    t.run();
-                    // Ensure the task is finished
-                    // If the task had an exception, throw it.
-                    t.get();
-                    // Unbind the values in GUI Thread.
-                    Platform.runLater(() -> {
-                        title.unbind();
-                        message.unbind();
-                        value.unbind();
+                while (!pending.isEmpty() || !running.isEmpty()) {
+                    // Start every task whose dependencies are finished, as
+                    // long as there is no exception which stops processing.
+                    Iterator<Processable> iterator = pending.iterator();
+                    while (!cancelled && (failures.isEmpty()
+                            || errorPolicy == ErrorPolicy.CONTINUE)
+                            && running.size() < parallelism
+                            && iterator.hasNext()) {
+                        Processable processable = iterator.next();
+                        Set<Processable> taskDependencies
+                                = getDependencies(processable);
+                        if (taskDependencies.stream().anyMatch(failed::contains)) {
+                            LOGGER.log(Level.WARNING, "Not running {0}, a "
+                                    + "dependency failed", processable.getClass().getSimpleName());
+                            iterator.remove();
+                            failed.add(processable);
+                            // Tasks depending on it might fail now
+                            iterator = pending.iterator();
+                            continue;
+                        }
+                        if (!done.containsAll(taskDependencies)
+                                || !getPredecessors(processable).stream()
+                                        .allMatch(p -> done.contains(p)
+                                        || failed.contains(p))) {
+                            continue;
+                        }
+                        iterator.remove();
+                        int index = tasks.indexOf(processable);
+                        Task t = taskList.get(index);
+                        String id = taskIds.get(index);
+                        if (resumed.contains(id) || !processable.hasChanges()) {
+                            LOGGER.log(Level.INFO, "Skipping {0}, {1}",
+                                    new Object[]{id, resumed.contains(id)
+                                        ? "finished by interrupted run"
+                                        : "nothing to apply"});
+                            try (WelcomeEvents.Span span
+                                    = WelcomeEvents.beginTask(t)) {
+                                span.setOutcome("skipped");
+                            }
+                            UpdateDispatcher.execute(() -> updateProgress(
+                                    aggregator, index, 1));
+                            journalFinished(runJournal, unpersisted,
+                                    processable, id);
+                            done.add(processable);
+                            // Tasks depending on it might be startable now
+                            iterator = pending.iterator();
+                            continue;
+                        }
+                        RunningTask runningTask = new RunningTask(processable,
+                                t, getTimeout(processable));
+                        currentTasks.add(runningTask);
+                        running.put(completionService.submit(() -> {
+                            // The time in the queue of the pool doesn't count
+                            runningTask.start();
+                            // Bind the values in GUI Thread.
+                            UpdateDispatcher.post(t, () -> showTask(t));
+                            if (runJournal != null) {
+                                runJournal.taskStarted(id);
+                            }
+                            try {
+                                // Run the task
+                                // If the task had an exception, throw it.
+                                ProcessableTask.runInCurrentThread(t);
+                                journalFinished(runJournal, unpersisted,
+                                        processable, id);
+                            } finally {
+                                // Unbind the values in GUI Thread.
+                                UpdateDispatcher.post(t, () -> hideTask(t));
+                            }
+                            return processable;
+                        }), runningTask);
+                    }
+                    if (running.isEmpty()) {
+                        // The last pending tasks might have been skipped
+                        if (!cancelled && failures.isEmpty()
+                                && !pending.isEmpty()) {
+                            // Nothing can be started anymore
+                            Exception cycle = new IllegalStateException(
+                                    "Cyclic dependencies between " + pending);
+                            LOGGER.log(Level.SEVERE, null, cycle);
+                            failures.add(cycle);
+                        }
+                        break;
+                    }
+                    Future<Processable> future = waitForTask(
+                            completionService, running.values(), failures);
+                    if (future == null) {
+                        // A task timed out, wait until it is finished
+                        continue;
+                    }
+                    RunningTask finishedTask = running.remove(future);
+                    currentTasks.remove(finishedTask);
+                    try {
+                        done.add(future.get());
+                    } catch (ExecutionException ex) {
+                        failed.add(finishedTask.processable);
+                        // Timeouts and cancellations are already reported
+                        if (!finishedTask.timedOut && !cancelled) {
+                            LOGGER.log(Level.INFO, "Task throwed an exception", ex);
+                            failures.add(getTaskException(ex));
+                        }
+                    }
+                }
+                if (runJournal != null) {
+                    // Keep the journal if the run can be resumed
+                    if (failures.isEmpty() || cancelled) {
+                        runJournal.delete();
+                    } else {
+                        runJournal.close();
+                    }
+                }
+                outcome = cancelled ? "cancelled"
+                        : failures.isEmpty() ? "succeeded" : "failed";
+                if (cancelled) {
+                    final Exception cancellation = new ProcessingException(
+                            "TaskProcessor.cancelled");
+                    UpdateDispatcher.execute(() -> exception.set(cancellation));
+                } else if (failures.isEmpty()) {
+                    UpdateDispatcher.execute(() -> {
                         value.set(null);
-                        exception.unbind();
+                        title.set("TaskProcessor.finishedTitle");
+                        message.set("TaskProcessor.finishedMessage");
                     });
+                } else {
+                    final Exception fFailure = combineFailures(failures);
+                    UpdateDispatcher.execute(() -> exception.set(fFailure));
                 }
-                Platform.runLater(() -> {
-                    value.set(null);
-                    title.set("TaskProcessor.finishedTitle");
-                    message.set("TaskProcessor.finishedMessage");
-                });
-            } catch(ExecutionException ex) {
-                LOGGER.log(Level.INFO, "Task throwed an exception", ex);
             } catch(InterruptedException ex) {
                 LOGGER.log(Level.WARNING, "Save task got interrupted", ex);
+                if (runJournal != null) {
+                    runJournal.close();
+                }
             } finally {
+                running.keySet().forEach(future -> future.cancel(true));
+                currentTasks.clear();
+                runCleanups();
+                if (trace != null) {
+                    WelcomeEvents.removeRecorder(trace);
+                    writeTrace(trace, outcome);
+                }
                 // If leaving this method, the task processor has finished its work.
-                Platform.runLater(() -> finished.set(true));
+                UpdateDispatcher.execute(() -> finished.set(true));
+            }
+        });
+    }
+
+    /**
+     * Journals a finished task. A task whose changes are persisted by another
+     * task is journaled when the persister is finished, right before the
+     * persister itself.
+     *
+     * @param runJournal the journal of the run or null
+     * @param unpersisted the finished tasks which aren't journaled yet
+     * @param processable the finished task
+     * @param id the id of the task
+     */
+    private void journalFinished(TaskJournal runJournal,
+            Map<Processable, String> unpersisted, Processable processable,
+            String id) {
+        if (runJournal == null) {
+            return;
+        }
+        synchronized (unpersisted) {
+            Iterator<Map.Entry<Processable, String>> iterator
+                    = unpersisted.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Processable, String> entry = iterator.next();
+                if (persisters.get(entry.getKey()) == processable) {
+                    runJournal.taskFinished(entry.getValue());
+                    iterator.remove();
+                }
+            }
+            if (persisters.containsKey(processable)) {
+                unpersisted.put(processable, id);
+            } else {
+                runJournal.taskFinished(id);
+            }
+        }
+    }
+
+    /**
+     * Writes the trace of a run into the trace directory.
+     *
+     * @param trace the trace of the run
+     * @param outcome the outcome of the run
+     */
+    private void writeTrace(RunTrace trace, String outcome) {
+        Path path = traceDirectory.resolve("trace-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())
+                + ".json");
+        try {
+            Files.createDirectories(traceDirectory);
+            trace.write(path, outcome);
+            LOGGER.log(Level.INFO, "Trace written to {0}", path);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't write trace " + path, ex);
+        }
+    }
+
+    /**
+     * Cancels the current run.
+     * <br>
+     * No further tasks are started, the running tasks are cancelled and the
+     * processes started by them are killed.
+     */
+    public void cancel() {
+        if (finished.get() || cancelled) {
+            return;
+        }
+        LOGGER.info("Cancelling the running tasks");
+        cancelled = true;
+        cancelling.set(true);
+        // Not in the process pool, which is busy with the cancelled tasks
+        executor.execute(BackgroundExecutor.Pool.IO, () -> {
+            Set<Long> processes = new HashSet<>();
+            currentTasks.forEach(r -> {
+                ProcessableTask.cancel(r.task, r.worker);
+                processes.addAll(RunningCommands.getProcesses(r.worker));
+            });
+            ProcessInspector.killProcessTrees(processes);
+            runCleanups();
+        });
+    }
+
+    private void runCleanups() {
+        for (Runnable cleanup : cleanups) {
+            try {
+                cleanup.run();
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Cleanup failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Waits until a task is finished or the deadline of a task is reached.
+     * <br>
+     * Tasks which reached their deadline are cancelled, their processes are
+     * killed and a timeout failure is added. The deadline of a task is set
+     * when it is started, tasks waiting in the queue of the pool can't time
+     * out before their whole timeout has passed.
+     *
+     * @param completionService the service running the tasks
+     * @param running the running tasks
+     * @param failures the failures of this run
+     * @return the future of the finished task or null if a task timed out
+     * @throws InterruptedException
+     */
+    private Future<Processable> waitForTask(
+            CompletionService<Processable> completionService,
+            Collection<RunningTask> running, List<Exception> failures)
+            throws InterruptedException {
+        long now = System.nanoTime();
+        OptionalLong waitTime = running.stream()
+                .filter(r -> r.hasDeadline() && !r.timedOut)
+                .mapToLong(r -> r.isStarted() ? r.deadline - now : r.timeout)
+                .min();
+        if (!waitTime.isPresent()) {
+            return completionService.take();
+        }
+        Future<Processable> future = completionService.poll(
+                Math.max(0, waitTime.getAsLong()), TimeUnit.NANOSECONDS);
+        if (future != null) {
+            return future;
+        }
+        long timeoutTime = System.nanoTime();
+        for (RunningTask runningTask : running) {
+            if (runningTask.hasDeadline() && !runningTask.timedOut
+                    && runningTask.isStarted()
+                    && runningTask.deadline - timeoutTime <= 0) {
+                runningTask.timedOut = true;
+                String name = runningTask.processable.getClass().getSimpleName();
+                LOGGER.log(Level.WARNING, "{0} timed out", name);
+                String title = ProcessableTask.titleOf(runningTask.task).get();
+                failures.add(new ProcessingException("TaskProcessor.timeout",
+                        title != null ? title : name));
+                ProcessableTask.cancel(runningTask.task, runningTask.worker);
+                // Only the commands of this task, the other tasks and the
+                // command helpers keep running
+                ProcessInspector.killProcessTrees(
+                        RunningCommands.getProcesses(runningTask.worker));
             }
-        }).start();
+        }
+        return null;
+    }
+
+    /**
+     * Combines the failures of a run to a single exception.
+     *
+     * @param failures the failures of the run
+     * @return the failure if there is only one, otherwise an exception which
+     * contains all failures as suppressed exceptions
+     */
+    private Exception combineFailures(List<Exception> failures) {
+        if (failures.size() == 1) {
+            return failures.get(0);
+        }
+        Exception combined = new ProcessingException(
+                "TaskProcessor.multipleErrors", failures.size());
+        failures.forEach(combined::addSuppressed);
+        return combined;
+    }
+
+    /**
+     * Returns the timeout of a task.
+     *
+     * @param task the task
+     * @return the timeout in seconds, 0 if there is none
+     */
+    private long getTimeout(Processable task) {
+        Long timeout = timeouts.get(task);
+        return timeout != null ? timeout : task.getTaskTimeout();
+    }
+
+    /**
+     * Updates the progress of a task and the aggregated values.
+     * <br>
+     * Has to be called in the GUI Thread.
+     *
+     * @param aggregator the aggregator of the run the task belongs to
+     * @param index the index of the task
+     * @param taskProgress the new progress of the task
+     */
+    private void updateProgress(ProgressAggregator aggregator, int index,
+            double taskProgress) {
+        if (aggregator != progressAggregator) {
+            // the task belongs to a previous run
+            return;
+        }
+        aggregator.update(index, taskProgress);
+        progress.set(aggregator.getProgress());
+        remainingSeconds.set(aggregator.getRemainingSeconds(
+                (System.nanoTime() - startTime) / 1e9));
+    }
+
+    /**
+     * Extracts the exception of a failed task.
+     *
+     * @param ex the exception thrown by the future of the task
+     * @return the exception of the task
+     */
+    private Exception getTaskException(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        // The task itself throws an ExecutionException containing its cause
+        if (cause instanceof ExecutionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        return ex;
+    }
+
+    /**
+     * Binds the values to the given task which just has been started.
+     * <br>
+     * Has to be called in the GUI Thread.
+     *
+     * @param t the started task
+     */
+    private void showTask(Task t) {
+        runningTasks.add(t);
+        bindTask(t);
+    }
+
+    /**
+     * Binds the values to another running task if the values are bound to the
+     * given task which just has been finished.
+     * <br>
+     * Has to be called in the GUI Thread.
+     *
+     * @param t the finished task
+     */
+    private void hideTask(Task t) {
+        runningTasks.remove(t);
+        if (runningTasks.isEmpty()) {
+            title.unbind();
+            message.unbind();
+            value.unbind();
+            value.set(null);
+        } else {
+            bindTask(runningTasks.get(runningTasks.size() - 1));
+        }
+    }
+
+    private void bindTask(Task t) {
+        title.bind(ProcessableTask.titleOf(t));
+        message.bind(ProcessableTask.messageOf(t));
+        value.bind(ProcessableTask.valueOf(t));
     }
 
     /**
@@ -139,6 +850,9 @@ public class TaskProcessor {
      */
     private void resetTaskProcessor() {
         finished.set(false);
+        cancelling.set(false);
+        runningTasks.clear();
+        progress.set(0);
         title.unbind();
         message.unbind();
         value.unbind();
@@ -150,6 +864,24 @@ public class TaskProcessor {
         return progress;
     }
     
+    /**
+     * The estimated remaining time of the current run in seconds.
+     *
+     * @return remaining seconds property
+     */
+    public DoubleProperty remainingSecondsProperty() {
+        return remainingSeconds;
+    }
+
+    /**
+     * True if the current run is being cancelled.
+     *
+     * @return cancelling property
+     */
+    public BooleanProperty cancellingProperty() {
+        return cancelling;
+    }
+
     public BooleanProperty finishedProperty() {
         return finished;
     }
@@ -169,4 +901,63 @@ public class TaskProcessor {
     public ObjectProperty<Exception> exceptionProperty() {
         return exception;
     }
+
+    /**
+     * Defines how the TaskProcessor reacts to a failed task.
+     */
+    public enum ErrorPolicy {
+        /**
+         * No further tasks are started after a task failed.
+         */
+        STOP,
+        /**
+         * Tasks which don't depend on the failed task are still run.
+         */
+        CONTINUE
+    }
+
+    /**
+     * A task which has been submitted to the executor.
+     */
+    private static class RunningTask {
+
+        private final Processable processable;
+        private final Task task;
+        /**
+         * The timeout in nanoseconds, 0 if the task has no timeout.
+         */
+        private final long timeout;
+        /**
+         * The deadline in nanoseconds (see {@link System#nanoTime()}), set
+         * when the task is started.
+         */
+        private volatile long deadline;
+        private boolean timedOut;
+        /**
+         * The thread running the task, set as soon as the task is started.
+         */
+        private volatile Thread worker;
+
+        RunningTask(Processable processable, Task task, long timeout) {
+            this.processable = processable;
+            this.task = task;
+            this.timeout = Math.max(0, TimeUnit.SECONDS.toNanos(timeout));
+        }
+
+        /**
+         * Called by the thread running the task when it starts the task.
+         */
+        void start() {
+            deadline = System.nanoTime() + timeout;
+            worker = Thread.currentThread();
+        }
+
+        boolean isStarted() {
+            return worker != null;
+        }
+
+        boolean hasDeadline() {
+            return timeout > 0;
+        }
+    }
 }
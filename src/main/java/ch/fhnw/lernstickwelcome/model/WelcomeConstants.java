@@ -18,18 +18,40 @@ package ch.fhnw.lernstickwelcome.model;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This class contains the Constants which are used in the Welcome Application.
+ * <br>
+ * All paths of the system are resolved against the system root, which is
+ * {@code /} unless another directory is set with the system property
+ * {@value #SYSTEM_ROOT_PROPERTY}. This way the tasks can work on a synthetic
+ * tree, e.g. for load tests. The property has to be set before this class is
+ * loaded.
  * 
  * @author sschw
  */
 public final class WelcomeConstants {
 
     private WelcomeConstants() {}
+
+    /**
+     * System property with the directory used as system root.
+     */
+    public static final String SYSTEM_ROOT_PROPERTY
+            = "lernstickWelcome.systemRoot";
+    /**
+     * The directory the paths of the system are resolved against, without
+     * trailing slash, so it is empty for {@code /}.
+     */
+    public static final String SYSTEM_ROOT = initSystemRoot();
     
     // PROPERTIES CONSTANTS
-    public static final String PROPERTIES_PATH = "/etc/lernstickWelcome";
+    public static final String PROPERTIES_PATH
+            = resolve("/etc/lernstickWelcome");
+    public static final String JOURNAL_PATH = PROPERTIES_PATH + ".journal";
     public static final String SHOW_WELCOME = "ShowWelcome";
     public static final String SHOW_READ_ONLY_INFO = "ShowReadOnlyInfo";
     public static final String BACKUP = "Backup";
@@ -46,30 +68,54 @@ public final class WelcomeConstants {
     
     // PATHS
     // !!! NO trailing slash at the end (would break comparison later) !!!
-    public static final String IMAGE_DIRECTORY = "/lib/live/mount/medium";
+    public static final String IMAGE_DIRECTORY
+            = resolve("/lib/live/mount/medium");
     
+    public static final String USER_JAVA_DIRECTORY
+            = resolve("/home/user/.java");
     public static final String USER_JBACKPACK_PREFERENCES 
-            = "/home/user/.java/.userPrefs/ch/fhnw/jbackpack/";
+            = USER_JAVA_DIRECTORY + "/.userPrefs/ch/fhnw/jbackpack/";
     public static final String ROOT_JBACKPACK_PREFERENCES 
-            = "/root/.java/.userPrefs/ch/fhnw/jbackpack/";
+            = resolve("/root/.java/.userPrefs/ch/fhnw/jbackpack/");
     
     public static final String IP_TABLES_FILENAME
-            = "/etc/lernstick-firewall/net_whitelist";
+            = resolve("/etc/lernstick-firewall/net_whitelist");
     public static final String URL_WHITELIST_FILENAME
-            = "/etc/lernstick-firewall/url_whitelist";
+            = resolve("/etc/lernstick-firewall/url_whitelist");
     public static final String LOCAL_POLKIT_PATH
-            = "/etc/polkit-1/localauthority/50-local.d";
+            = resolve("/etc/polkit-1/localauthority/50-local.d");
     public static final String EXAM_POLKIT_PATH
-            = "/etc/polkit-1/localauthority/55-lernstick-exam.d";
-    public static final Path APPLETS_CONFIG_FILE = Paths.get(
-            "/home/user/.kde/share/config/plasma-desktop-appletsrc");
-    public static final Path ALSA_PULSE_CONFIG_FILE = Paths.get(
-            "/usr/share/alsa/alsa.conf.d/pulse.conf");
-    public static final Path UDISKS_PKLA_PATH = Paths.get(
-    		"/etc/polkit-1/localauthority/50-local.d/10-udisks2.pkla");
+            = resolve("/etc/polkit-1/localauthority/55-lernstick-exam.d");
+    public static final Path APPLETS_CONFIG_FILE = Paths.get(resolve(
+            "/home/user/.kde/share/config/plasma-desktop-appletsrc"));
+    public static final Path ALSA_PULSE_CONFIG_FILE = Paths.get(resolve(
+            "/usr/share/alsa/alsa.conf.d/pulse.conf"));
+    public static final Path UDISKS_PKLA_PATH = Paths.get(resolve(
+    		"/etc/polkit-1/localauthority/50-local.d/10-udisks2.pkla"));
     public static final String EMPTY_PASSWORD_HINT_FILE = 
-            "/home/user/.kde/share/config/empty_passwd_info";
-    public static final String SQUID_ACCESS_LOG_FILE_PATH = "/var/log/squid/access.log";
+            resolve("/home/user/.kde/share/config/empty_passwd_info");
+    public static final String SQUID_ACCESS_LOG_FILE_PATH
+            = resolve("/var/log/squid/access.log");
+    public static final Path DPKG_STATUS_FILE
+            = Paths.get(resolve("/var/lib/dpkg/status"));
+    // locked by dpkg and apt while they change the packages or lists
+    public static final List<Path> PACKAGE_LOCK_FILES
+            = Collections.unmodifiableList(Arrays.asList(
+                    Paths.get(resolve("/var/lib/dpkg/lock-frontend")),
+                    Paths.get(resolve("/var/lib/dpkg/lock")),
+                    Paths.get(resolve("/var/lib/apt/lists/lock")),
+                    Paths.get(resolve("/var/cache/apt/archives/lock"))));
+    /**
+     * System property with the directory of the package cache, e.g. on the
+     * exchange partition, so the cache survives reboots without persistence.
+     */
+    public static final String PACKAGE_CACHE_PROPERTY
+            = "lernstickWelcome.packageCache";
+    public static final Path PACKAGE_CACHE_DIRECTORY = Paths.get(
+            System.getProperty(PACKAGE_CACHE_PROPERTY,
+                    resolve("/var/cache/lernstickWelcome/packages")));
+    // maximum size of the package cache in bytes
+    public static final long PACKAGE_CACHE_SIZE = 2L * 1024 * 1024 * 1024;
     
     public static final String USER_HOME = System.getProperty("user.home");
     
@@ -78,4 +124,22 @@ public final class WelcomeConstants {
     public static final String ICON_FILE_PATH = RESOURCE_FILE_PATH + "/icon";
     public static final String ICON_APPLICATION_FOLDER = "apps";
     public static final String ICON_APPLICATION_FILE_PATH = ICON_FILE_PATH + "/" + ICON_APPLICATION_FOLDER;
+
+    /**
+     * Resolves an absolute path of the system against the system root.
+     *
+     * @param path the absolute path, e.g. {@code /etc/lernstickWelcome}
+     * @return the path in the system root
+     */
+    public static String resolve(String path) {
+        return SYSTEM_ROOT + path;
+    }
+
+    private static String initSystemRoot() {
+        String root = System.getProperty(SYSTEM_ROOT_PROPERTY, "");
+        while (root.endsWith("/")) {
+            root = root.substring(0, root.length() - 1);
+        }
+        return root;
+    }
 }
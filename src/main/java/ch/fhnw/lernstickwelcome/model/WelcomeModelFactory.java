@@ -16,38 +16,42 @@
  */
 package ch.fhnw.lernstickwelcome.model;
 
+import ch.fhnw.lernstickwelcome.model.application.ApplicationCatalog;
 import ch.fhnw.lernstickwelcome.model.application.ApplicationGroupTask;
-import ch.fhnw.lernstickwelcome.model.application.ApplicationPackages;
 import ch.fhnw.lernstickwelcome.model.application.ApplicationTask;
-import ch.fhnw.lernstickwelcome.model.application.AptGetPackages;
-import ch.fhnw.lernstickwelcome.model.application.CombinedPackages;
+import ch.fhnw.lernstickwelcome.model.application.DpkgStatusIndex;
 import ch.fhnw.lernstickwelcome.model.application.InstallPostprocessingTask;
 import ch.fhnw.lernstickwelcome.model.application.InstallPreparationTask;
-import ch.fhnw.lernstickwelcome.model.application.WgetPackages;
+import ch.fhnw.lernstickwelcome.model.application.InstallTransactionTask;
+import ch.fhnw.lernstickwelcome.model.application.PackageCache;
+import ch.fhnw.lernstickwelcome.model.application.PackageDownloader;
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
 import ch.fhnw.lernstickwelcome.model.backup.BackupTask;
 import ch.fhnw.lernstickwelcome.model.firewall.FirewallTask;
 import ch.fhnw.lernstickwelcome.model.partition.PartitionTask;
 import ch.fhnw.lernstickwelcome.model.systemconfig.SystemconfigTask;
-import ch.fhnw.lernstickwelcome.util.WelcomeUtil;
-import ch.fhnw.util.ProcessExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
+import ch.fhnw.lernstickwelcome.util.process.CommandStatistics;
+import ch.fhnw.lernstickwelcome.util.process.HelperCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.MeasuringCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.OutputCapture;
+import ch.fhnw.lernstickwelcome.util.process.ProcessCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.RecordingCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.ReplayCommandExecutor;
 import ch.fhnw.util.StorageDevice;
 import ch.fhnw.util.StorageTools;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.parsers.ParserConfigurationException;
 import org.freedesktop.dbus.exceptions.DBusException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  * The WelcomeModelFactory creates the Model of the Welcome Application and
@@ -57,24 +61,119 @@ import org.xml.sax.SAXException;
  */
 public class WelcomeModelFactory {
 
-    private final static ProcessExecutor PROCESS_EXECUTOR
-            = new ProcessExecutor();
     private final static Logger LOGGER
             = Logger.getLogger(WelcomeModelFactory.class.getName());
+    private static volatile CommandExecutor commandExecutor
+            = createCommandExecutor();
+    private final static CommandStatistics COMMAND_STATISTICS
+            = new CommandStatistics();
+    // The model classes keep this instance, so the executor can be replaced
+    private final static CommandExecutor COMMAND_EXECUTOR
+            = new MeasuringCommandExecutor(new CommandExecutor() {
+                @Override
+                public CommandResult execute(OutputCapture capture,
+                        String... command) {
+                    return commandExecutor.execute(capture, command);
+                }
+
+                @Override
+                public CommandResult executeScript(String script,
+                        OutputCapture capture) throws IOException {
+                    return commandExecutor.executeScript(script, capture);
+                }
+            }, COMMAND_STATISTICS);
+    private final static DpkgStatusIndex DPKG_STATUS_INDEX
+            = new DpkgStatusIndex(WelcomeConstants.DPKG_STATUS_FILE);
+    private final static PackageDownloader PACKAGE_DOWNLOADER
+            = new PackageDownloader(new PackageCache(
+                    WelcomeConstants.PACKAGE_CACHE_DIRECTORY,
+                    WelcomeConstants.PACKAGE_CACHE_SIZE));
     private static volatile StorageDevice SYSTEM_STORAGE_DEVICE;
 
+    private static volatile ApplicationCatalog applicationCatalog;
     // used to store ApplicationTasks, so there is only 1 instance of each task
-    private static HashMap<String, ApplicationTask> applicationTasks
-            = new HashMap<>();
+    private final static Map<String, ApplicationTask> applicationTasks
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the general {@link CommandExecutor} which is used to run
+     * processes. Every execution returns its own result, so it can be used by
+     * concurrently running tasks. The commands are executed by helper
+     * processes unless they are disabled (see {@link HelperCommandExecutor}).
+     * <br>
+     * The commands can be recorded or replayed instead with the system
+     * properties {@value RecordingCommandExecutor#FILE_PROPERTY} and
+     * {@value ReplayCommandExecutor#FILE_PROPERTY}. Every execution is
+     * counted in the {@link #getCommandStatistics() statistics}.
+     *
+     * @return singleton instance of {@link CommandExecutor}
+     */
+    public static CommandExecutor getCommandExecutor() {
+        return COMMAND_EXECUTOR;
+    }
+
+    /**
+     * Returns the statistics of all commands executed by the executor of
+     * {@link #getCommandExecutor()}.
+     *
+     * @return the statistics
+     */
+    public static CommandStatistics getCommandStatistics() {
+        return COMMAND_STATISTICS;
+    }
+
+    /**
+     * Returns the index of the installed packages, which is shared by all
+     * {@link ApplicationTask}s.
+     *
+     * @return singleton instance of {@link DpkgStatusIndex}
+     */
+    public static DpkgStatusIndex getDpkgStatusIndex() {
+        return DPKG_STATUS_INDEX;
+    }
 
     /**
-     * Returns the general {@link ProcessExecutor} which is used to run
-     * processes.
+     * Returns the downloader of the packages which aren't in the
+     * repositories, which is shared by all {@link ApplicationTask}s.
      *
-     * @return singleton instance of {@link ProcessExecutor}
+     * @return singleton instance of {@link PackageDownloader}
      */
-    public static ProcessExecutor getProcessExecutor() {
-        return PROCESS_EXECUTOR;
+    public static PackageDownloader getPackageDownloader() {
+        return PACKAGE_DOWNLOADER;
+    }
+
+    /**
+     * Replaces the executor which runs the commands of the model, e.g. by a
+     * {@link ReplayCommandExecutor} for tests. The executors returned by
+     * {@link #getCommandExecutor()} use the new executor immediately.
+     *
+     * @param executor the new executor
+     */
+    public static void setCommandExecutor(CommandExecutor executor) {
+        commandExecutor = executor;
+    }
+
+    private static CommandExecutor createCommandExecutor() {
+        String replayFile = System.getProperty(
+                ReplayCommandExecutor.FILE_PROPERTY);
+        if (replayFile != null) {
+            try {
+                return new ReplayCommandExecutor(Paths.get(replayFile),
+                        ReplayCommandExecutor.getTimeScale());
+            } catch (IOException | IllegalArgumentException ex) {
+                LOGGER.log(Level.SEVERE, "can not replay " + replayFile, ex);
+            }
+        }
+        CommandExecutor executor = HelperCommandExecutor.isEnabled()
+                ? new HelperCommandExecutor(new ProcessCommandExecutor())
+                : new ProcessCommandExecutor();
+        String recordFile = System.getProperty(
+                RecordingCommandExecutor.FILE_PROPERTY);
+        if (recordFile != null) {
+            executor = new RecordingCommandExecutor(
+                    executor, Paths.get(recordFile));
+        }
+        return executor;
     }
 
     /**
@@ -102,13 +201,11 @@ public class WelcomeModelFactory {
      * @param title a title for the group task, can be anything
      * @param proxy
      * @return ApplicationGroupTask
-     * @throws IOException
-     * @throws SAXException
-     * @throws ParserConfigurationException
+     * @throws IOException if the catalog of the applications can't be read
      */
     public static ApplicationGroupTask getApplicationGroupTask(
             String tag, String title, ProxyTask proxy)
-            throws ParserConfigurationException, SAXException, IOException {
+            throws IOException {
 
         List<ApplicationTask> apps = getApplicationTasks(tag);
         ApplicationGroupTask task = new ApplicationGroupTask(
@@ -195,6 +292,19 @@ public class WelcomeModelFactory {
         return new InstallPreparationTask(proxy, groups);
     }
 
+    /**
+     * Returns a new instance of this class.
+     *
+     * @param proxy The proxy task which calculates the proxy for the commands
+     * @param groups The application groups that will be installed.
+     * @return {@link InstallTransactionTask}
+     */
+    public static InstallTransactionTask getInstallTransactionTask(
+            ProxyTask proxy, ApplicationGroupTask... groups) {
+
+        return new InstallTransactionTask(proxy, groups);
+    }
+
     /**
      * Returns a new instance of this class.
      *
@@ -209,36 +319,19 @@ public class WelcomeModelFactory {
     }
 
     /**
-     * Searches the application.xml for applications with the given tag.
+     * Returns the applications with the given tag.
      *
      * @param tag
      * @return List of ApplicationTasks
-     * @throws IOException
-     * @throws SAXException
-     * @throws ParserConfigurationException
+     * @throws IOException if the catalog of the applications can't be read
      */
     public static List<ApplicationTask> getApplicationTasks(String tag)
-            throws ParserConfigurationException, SAXException, IOException {
-
-        ArrayList<ApplicationTask> apps = new ArrayList<>();
-        InputStream is = WelcomeModelFactory.class.getResourceAsStream(
-                "/applications.xml");
-        //File xmlFile = new File("applications.xml");
-        Document xmlDoc = WelcomeUtil.parseXmlFile(is);
-
-        NodeList applications = xmlDoc.getElementsByTagName("application");
-        for (int i = 0; i < applications.getLength(); i++) {
-            Node application = applications.item(i);
-            if (application.getNodeType() == Node.ELEMENT_NODE) {
-                Element app = (Element) application;
-                NodeList tags = app.getElementsByTagName("tag");
-                for (int j = 0; j < tags.getLength(); j++) {
-                    Element t = ((Element) tags.item(j));
-                    if (t.getTextContent().equals(tag)) {
-                        apps.add(getApplicationTask(app));
-                    }
-                }
-            }
+            throws IOException {
+
+        List<ApplicationTask> apps = new ArrayList<>();
+        for (ApplicationCatalog.Entry entry
+                : getApplicationCatalog().getEntries(tag)) {
+            apps.add(getApplicationTask(entry));
         }
         return apps;
     }
@@ -249,93 +342,69 @@ public class WelcomeModelFactory {
      * @param name
      * @return a Task for this specific application or null if no application
      * was found.
-     * @throws IOException
-     * @throws SAXException
-     * @throws ParserConfigurationException
+     * @throws IOException if the catalog of the applications can't be read
      */
     public static ApplicationTask getApplicationTask(String name)
-            throws ParserConfigurationException, SAXException, IOException {
-        InputStream is = WelcomeModelFactory.class.getResourceAsStream(
-                "/applications.xml");
-        Document xmlDoc = WelcomeUtil.parseXmlFile(is);
-        NodeList applications = xmlDoc.getElementsByTagName("application");
-        for (int i = 0; i < applications.getLength(); i++) {
-            Node application = applications.item(i);
-            if (application.getNodeType() == Node.ELEMENT_NODE) {
-                Element app = (Element) application;
-                if (app.getAttribute("name").equals(name)) {
-                    // application found
-                    return getApplicationTask(app);
+            throws IOException {
+        ApplicationCatalog.Entry entry
+                = getApplicationCatalog().getEntry(name);
+        return entry != null ? getApplicationTask(entry) : null;
+    }
+
+    /**
+     * Returns the catalog of the applications, which is read once. The
+     * catalog compiled by the build is preferred, the applications.xml file
+     * is only parsed when the classes weren't built by Maven, e.g. in an IDE.
+     *
+     * @return the catalog
+     * @throws IOException if the catalog can't be read
+     */
+    public static ApplicationCatalog getApplicationCatalog()
+            throws IOException {
+        ApplicationCatalog catalog = applicationCatalog;
+        if (catalog == null) {
+            synchronized (WelcomeModelFactory.class) {
+                catalog = applicationCatalog;
+                if (catalog == null) {
+                    catalog = readApplicationCatalog();
+                    applicationCatalog = catalog;
                 }
             }
         }
-        return null;
+        return catalog;
+    }
+
+    private static ApplicationCatalog readApplicationCatalog()
+            throws IOException {
+        try (InputStream is = WelcomeModelFactory.class
+                .getResourceAsStream("/applications.catalog")) {
+            if (is != null) {
+                return ApplicationCatalog.readCompiled(
+                        new BufferedInputStream(is));
+            }
+        }
+        LOGGER.log(Level.INFO, "no compiled catalog, parsing applications.xml");
+        try (InputStream is = WelcomeModelFactory.class
+                .getResourceAsStream("/applications.xml")) {
+            if (is == null) {
+                throw new IOException("applications.xml not found");
+            }
+            return ApplicationCatalog.read(is);
+        }
     }
 
     /**
-     * Helper function to create an ApplicationTask out of xml data.
+     * Returns the task of an application of the catalog, every application
+     * has only one task.
      *
-     * @param applicationElement the DOM element of the application
+     * @param entry the application
      * @return ApplicationTask the task that installs the application
      */
     private static ApplicationTask getApplicationTask(
-            Element applicationElement) {
-
-        String applicationName = applicationElement.getAttribute("name");
-        if (applicationTasks.containsKey(applicationName)) {
-            return applicationTasks.get(applicationName);
-        }
-        String description = applicationElement.
-                getElementsByTagName("description").item(0).getTextContent();
-        String icon = applicationElement.
-                getElementsByTagName("icon").item(0).getTextContent();
-        String helpPath = applicationElement.
-                getElementsByTagName("help-path").item(0).getTextContent();
-
-        NodeList installedNamesNode
-                = applicationElement.getElementsByTagName("installed-name");
-        List<String> installedNames = new ArrayList();
-        for (int i = 0; i < installedNamesNode.getLength(); i++) {
-            installedNames.add(installedNamesNode.item(i).getTextContent());
-        }
-
-        // We need to keep the order of installations as given in the
-        // applications.xml file.
-        // This is important for e.g. Adobe Acrobat Reader:
-        // 1) Install its dependencies (e.g. libgtk2.0-0:i386), otherwise
-        //    installing the downloaded deb will fail
-        // 2) Download and install the deb.
-        // 3) Install package "lernstick-adobereader-enu" (which needs Adobe
-        //    Acrobat Reader to be fully installed)
-        List<ApplicationPackages> packages = new ArrayList<>();
-        NodeList packageNodeList
-                = applicationElement.getElementsByTagName("package");
-        for (int j = 0; j < packageNodeList.getLength(); j++) {
-            Element element = ((Element) packageNodeList.item(j));
-            String type = element.getAttribute("type");
-            String packageName = element.getTextContent();
-            switch (type) {
-                case "aptget":
-                    packages.add(new AptGetPackages(
-                            Arrays.asList(packageName)));
-                    break;
-                    
-                case "wget":
-                    String wgetFetchUrl = element.getAttribute("fetchUrl");
-                    String wgetSaveDir = element.getAttribute("saveDir");
-                    packages.add(new WgetPackages(Arrays.asList(packageName),
-                            wgetFetchUrl, wgetSaveDir));
-                    break;
-                    
-                default:
-                    LOGGER.log(Level.WARNING, "Unsupported type \"{0}\"", type);
-                    break;
-            }
-        }
-        CombinedPackages pkgs = new CombinedPackages(packages);
-        ApplicationTask task = new ApplicationTask(applicationName,
-                description, icon, helpPath, pkgs, installedNames);
-        applicationTasks.put(applicationName, task);
-        return task;
+            ApplicationCatalog.Entry entry) {
+        return applicationTasks.computeIfAbsent(entry.getName(),
+                name -> new ApplicationTask(name, entry.getDescription(),
+                        entry.getIcon(), entry.getHelpPath(),
+                        entry.createPackages(), entry.getInstalledNames()));
     }
 }
@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model.application;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The applications which can be installed, as defined in the
+ * applications.xml file.
+ * <br>
+ * The catalog is read in a single streaming pass and can't be changed
+ * afterwards, so it can be used by several threads. The applications are
+ * indexed by name and by tag and keep the order of the file.
+ * <br>
+ * The build compiles the applications.xml file into a binary catalog (see
+ * {@link ApplicationCatalogCompiler}), which is read without an XML parser
+ * at startup.
+ *
+ * @author sschw
+ */
+public final class ApplicationCatalog {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ApplicationCatalog.class.getName());
+
+    /**
+     * The first bytes of a compiled catalog, "LWAC".
+     */
+    private static final int MAGIC = 0x4c574143;
+    private static final int FORMAT_VERSION = 1;
+
+    private final List<Entry> entryList;
+    private final Map<String, Entry> entries;
+    private final Map<String, List<Entry>> tags;
+
+    private ApplicationCatalog(List<Entry> entryList) {
+        Map<String, Entry> byName = new LinkedHashMap<>();
+        Map<String, List<Entry>> byTag = new LinkedHashMap<>();
+        for (Entry entry : entryList) {
+            // like before the first application with a name wins
+            byName.putIfAbsent(entry.getName(), entry);
+            for (String tag : entry.getTags()) {
+                byTag.computeIfAbsent(tag, key -> new ArrayList<>())
+                        .add(entry);
+            }
+        }
+        byTag.replaceAll((tag, list) -> Collections.unmodifiableList(list));
+        this.entryList = Collections.unmodifiableList(entryList);
+        this.entries = Collections.unmodifiableMap(byName);
+        this.tags = Collections.unmodifiableMap(byTag);
+    }
+
+    /**
+     * Reads a catalog.
+     *
+     * @param in the content of an applications.xml file
+     * @return the catalog
+     * @throws IOException if the catalog can't be read
+     */
+    public static ApplicationCatalog read(InputStream in) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // The catalog never needs a DTD or external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                List<Entry> entryList = new ArrayList<>();
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamReader.START_ELEMENT
+                            && reader.getLocalName().equals("application")) {
+                        entryList.add(readEntry(reader));
+                    }
+                }
+                return new ApplicationCatalog(entryList);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("invalid application catalog", ex);
+        }
+    }
+
+    /**
+     * Reads a catalog compiled by {@link #write(OutputStream)}.
+     *
+     * @param in the compiled catalog
+     * @return the catalog
+     * @throws IOException if the catalog can't be read or has another format
+     * version
+     */
+    public static ApplicationCatalog readCompiled(InputStream in)
+            throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a compiled application catalog");
+        }
+        int version = data.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(
+                    "unsupported application catalog version " + version);
+        }
+        int count = data.readInt();
+        List<Entry> entryList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = data.readUTF();
+            String description = readString(data);
+            String icon = readString(data);
+            String helpPath = readString(data);
+            List<String> installedNames = readStrings(data);
+            int packageCount = data.readInt();
+            List<PackageEntry> packages = new ArrayList<>(packageCount);
+            for (int j = 0; j < packageCount; j++) {
+                packages.add(new PackageEntry(data.readUTF(), data.readUTF(),
+                        data.readUTF(), data.readUTF()));
+            }
+            entryList.add(new Entry(name, description, icon, helpPath,
+                    installedNames, packages, readStrings(data)));
+        }
+        return new ApplicationCatalog(entryList);
+    }
+
+    /**
+     * Writes the catalog in the compiled format.
+     *
+     * @param out receives the catalog, it isn't closed
+     * @throws IOException if the catalog can't be written
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(entryList.size());
+        for (Entry entry : entryList) {
+            data.writeUTF(entry.getName());
+            writeString(data, entry.getDescription());
+            writeString(data, entry.getIcon());
+            writeString(data, entry.getHelpPath());
+            writeStrings(data, entry.getInstalledNames());
+            data.writeInt(entry.getPackages().size());
+            for (PackageEntry packageEntry : entry.getPackages()) {
+                data.writeUTF(packageEntry.getType());
+                data.writeUTF(packageEntry.getName());
+                data.writeUTF(packageEntry.getFetchUrl());
+                data.writeUTF(packageEntry.getSaveDir());
+            }
+            writeStrings(data, entry.getTags());
+        }
+        data.flush();
+    }
+
+    /**
+     * Returns an application.
+     *
+     * @param name the name of the application
+     * @return the application or null if there is no application with this
+     * name
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Returns the applications with a tag.
+     *
+     * @param tag the tag, e.g. recommended
+     * @return the applications in the order of the file
+     */
+    public List<Entry> getEntries(String tag) {
+        return tags.getOrDefault(tag, Collections.<Entry>emptyList());
+    }
+
+    /**
+     * Returns all applications.
+     *
+     * @return the applications in the order of the file
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * Returns all applications including those whose name was already used
+     * by a previous application.
+     *
+     * @return the applications in the order of the file
+     */
+    public List<Entry> getAllEntries() {
+        return entryList;
+    }
+
+    /**
+     * Reads an application element.
+     *
+     * @param reader the reader positioned at the start of the element
+     * @return the application
+     * @throws XMLStreamException if the element is invalid
+     */
+    private static Entry readEntry(XMLStreamReader reader)
+            throws XMLStreamException {
+        String name = attribute(reader, "name");
+        String description = null;
+        String icon = null;
+        String helpPath = null;
+        List<String> installedNames = new ArrayList<>();
+        List<PackageEntry> packages = new ArrayList<>();
+        List<String> tagList = new ArrayList<>();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamReader.END_ELEMENT) {
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamReader.START_ELEMENT) {
+                continue;
+            }
+            switch (reader.getLocalName()) {
+                case "description":
+                    description = first(description, reader.getElementText());
+                    break;
+                case "icon":
+                    icon = first(icon, reader.getElementText());
+                    break;
+                case "help-path":
+                    helpPath = first(helpPath, reader.getElementText());
+                    break;
+                case "installed-name":
+                    installedNames.add(reader.getElementText());
+                    break;
+                case "tag":
+                    tagList.add(reader.getElementText());
+                    break;
+                case "package":
+                    String type = attribute(reader, "type");
+                    String fetchUrl = attribute(reader, "fetchUrl");
+                    String saveDir = attribute(reader, "saveDir");
+                    packages.add(new PackageEntry(type,
+                            reader.getElementText(), fetchUrl, saveDir));
+                    break;
+                default:
+                    // a container like <packages>
+                    depth++;
+                    break;
+            }
+        }
+        return new Entry(name, description, icon, helpPath, installedNames,
+                packages, tagList);
+    }
+
+    private static String first(String value, String newValue) {
+        return value != null ? value : newValue;
+    }
+
+    private static String readString(DataInputStream data)
+            throws IOException {
+        // a missing element is kept as null
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream data, String value)
+            throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream data)
+            throws IOException {
+        int count = data.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(data.readUTF());
+        }
+        return values;
+    }
+
+    private static void writeStrings(DataOutputStream data,
+            List<String> values) throws IOException {
+        data.writeInt(values.size());
+        for (String value : values) {
+            data.writeUTF(value);
+        }
+    }
+
+    private static String attribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        // like a DOM element
+        return value != null ? value : "";
+    }
+
+    /**
+     * An application of the catalog.
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final String description;
+        private final String icon;
+        private final String helpPath;
+        private final List<String> installedNames;
+        private final List<PackageEntry> packages;
+        private final List<String> tags;
+
+        private Entry(String name, String description, String icon,
+                String helpPath, List<String> installedNames,
+                List<PackageEntry> packages, List<String> tags) {
+            this.name = name;
+            this.description = description;
+            this.icon = icon;
+            this.helpPath = helpPath;
+            this.installedNames = Collections.unmodifiableList(installedNames);
+            this.packages = Collections.unmodifiableList(packages);
+            this.tags = Collections.unmodifiableList(tags);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getIcon() {
+            return icon;
+        }
+
+        public String getHelpPath() {
+            return helpPath;
+        }
+
+        /**
+         * Returns the names of the packages which have to be installed, if
+         * they differ from the package names.
+         *
+         * @return the installed names or an empty list
+         */
+        public List<String> getInstalledNames() {
+            return installedNames;
+        }
+
+        public List<PackageEntry> getPackages() {
+            return packages;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        /**
+         * Creates the packages which install the application. The order of
+         * the file is kept, e.g. the dependencies of a downloaded package
+         * are installed first.
+         *
+         * @return the packages
+         */
+        public CombinedPackages createPackages() {
+            List<ApplicationPackages> list = new ArrayList<>();
+            for (PackageEntry entry : packages) {
+                ApplicationPackages applicationPackages
+                        = entry.createPackages();
+                if (applicationPackages != null) {
+                    list.add(applicationPackages);
+                }
+            }
+            return new CombinedPackages(list);
+        }
+    }
+
+    /**
+     * A package of an application.
+     */
+    public static final class PackageEntry {
+
+        private final String type;
+        private final String name;
+        private final String fetchUrl;
+        private final String saveDir;
+
+        private PackageEntry(String type, String name, String fetchUrl,
+                String saveDir) {
+            this.type = type;
+            this.name = name;
+            this.fetchUrl = fetchUrl;
+            this.saveDir = saveDir;
+        }
+
+        /**
+         * Returns the type of the package, {@code aptget} or {@code wget}.
+         *
+         * @return the type
+         */
+        public String getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFetchUrl() {
+            return fetchUrl;
+        }
+
+        public String getSaveDir() {
+            return saveDir;
+        }
+
+        private ApplicationPackages createPackages() {
+            switch (type) {
+                case "aptget":
+                    return new AptGetPackages(Arrays.asList(name));
+
+                case "wget":
+                    return new WgetPackages(Arrays.asList(name),
+                            fetchUrl, saveDir);
+
+                default:
+                    LOGGER.log(Level.WARNING, "Unsupported type \"{0}\"", type);
+                    return null;
+            }
+        }
+    }
+}
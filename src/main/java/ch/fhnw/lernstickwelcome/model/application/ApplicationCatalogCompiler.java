@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model.application;
+
+import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compiles the applications.xml file into the binary catalog which is
+ * packaged instead of being parsed at startup. The build runs it after the
+ * classes were compiled:
+ * <pre>
+ * ApplicationCatalogCompiler &lt;applications.xml&gt; &lt;output&gt; &lt;resource directory&gt;
+ * </pre>
+ * Before the catalog is written, every application is validated against the
+ * resources, so a typo in a bundle key or icon name breaks the build instead
+ * of showing an application without description or icon.
+ *
+ * @author sschw
+ */
+public final class ApplicationCatalogCompiler {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ApplicationCatalogCompiler.class.getName());
+    private static final String BUNDLE_FILE
+            = "ch/fhnw/lernstickwelcome/Bundle.properties";
+
+    private ApplicationCatalogCompiler() {
+    }
+
+    /**
+     * Compiles the catalog.
+     *
+     * @param args the applications.xml file, the compiled catalog and the
+     * resource directory containing the bundle and the icons
+     * @throws IOException if the catalog can't be read or written
+     * @throws IllegalStateException if the catalog is invalid
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("usage: "
+                    + ApplicationCatalogCompiler.class.getSimpleName()
+                    + " <applications.xml> <output> <resource directory>");
+        }
+        Path source = Paths.get(args[0]);
+        Path target = Paths.get(args[1]);
+        Path resources = Paths.get(args[2]);
+
+        ApplicationCatalog catalog;
+        try (InputStream in = Files.newInputStream(source)) {
+            catalog = ApplicationCatalog.read(in);
+        }
+        Properties bundle = new Properties();
+        try (InputStream in = Files.newInputStream(
+                resources.resolve(BUNDLE_FILE))) {
+            bundle.load(in);
+        }
+
+        List<String> errors = validate(catalog, bundle, resources);
+        if (!errors.isEmpty()) {
+            errors.forEach(error -> LOGGER.log(Level.SEVERE, error));
+            throw new IllegalStateException(errors.size()
+                    + " errors in " + source + ", first: " + errors.get(0));
+        }
+
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        try (OutputStream out = Files.newOutputStream(target)) {
+            catalog.write(out);
+        }
+        LOGGER.log(Level.INFO, "compiled {0} applications into {1}",
+                new Object[]{catalog.getAllEntries().size(), target});
+    }
+
+    /**
+     * Validates the applications of a catalog. The names aren't validated,
+     * an application without a bundle key shows its name as it is.
+     *
+     * @param catalog the catalog
+     * @param bundle the default bundle
+     * @param resources the resource directory
+     * @return the errors or an empty list if the catalog is valid
+     */
+    static List<String> validate(ApplicationCatalog catalog,
+            Properties bundle, Path resources) {
+        List<String> errors = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        // the icon path is absolute within the resources
+        Path icons = resources.resolve(
+                WelcomeConstants.ICON_APPLICATION_FILE_PATH.substring(1));
+        for (ApplicationCatalog.Entry entry : catalog.getAllEntries()) {
+            String name = entry.getName();
+            if (name.isEmpty()) {
+                errors.add("application without name");
+            } else if (!names.add(name)) {
+                errors.add(name + ": duplicate application");
+            }
+            String description = entry.getDescription();
+            if (isSet(description) && !bundle.containsKey(description)) {
+                errors.add(name + ": unknown description key " + description);
+            }
+            String helpPath = entry.getHelpPath();
+            if (isSet(helpPath) && !bundle.containsKey(helpPath)) {
+                errors.add(name + ": unknown help path key " + helpPath);
+            }
+            String icon = entry.getIcon();
+            if (isSet(icon)
+                    && !Files.isRegularFile(icons.resolve(icon + ".png"))) {
+                errors.add(name + ": icon " + icon + ".png not found");
+            }
+            if (entry.getPackages().isEmpty()) {
+                errors.add(name + ": no packages");
+            }
+            for (ApplicationCatalog.PackageEntry packageEntry
+                    : entry.getPackages()) {
+                switch (packageEntry.getType()) {
+                    case "aptget":
+                        break;
+                    case "wget":
+                        if (packageEntry.getFetchUrl().isEmpty()) {
+                            errors.add(name + ": " + packageEntry.getName()
+                                    + " has no fetchUrl");
+                        }
+                        break;
+                    default:
+                        errors.add(name + ": unsupported package type "
+                                + packageEntry.getType());
+                }
+            }
+        }
+        return errors;
+    }
+
+    private static boolean isSet(String value) {
+        return value != null && !value.isEmpty();
+    }
+}
@@ -17,10 +17,12 @@
 package ch.fhnw.lernstickwelcome.model.application;
 
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 import javafx.concurrent.Task;
 
@@ -58,6 +60,56 @@ public class ApplicationGroupTask implements Processable<String> {
         return title;
     }
 
+    /**
+     * Checks if there are applications in this group which are selected to be
+     * installed but are not installed yet.
+     *
+     * @return true if at least one application has to be installed
+     */
+    public boolean hasApplicationsToInstall() {
+        return apps != null && apps.stream().anyMatch(
+                a -> !a.installedProperty().get() && a.installingProperty().get());
+    }
+
+    @Override
+    public boolean hasChanges() {
+        return hasApplicationsToInstall();
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        return apps == null ? 0 : apps.stream().filter(
+                a -> !a.installedProperty().get() && a.installingProperty().get())
+                .mapToDouble(a -> a.getEstimatedCost()).sum();
+    }
+
+    @Override
+    public long getTaskTimeout() {
+        // big downloads on slow networks take much longer than estimated
+        return Math.max(1800, Math.round(getEstimatedCost() * 10));
+    }
+
+    @Override
+    public List<String> getJournalState() {
+        // The applications selected by the user can't be read from the system
+        return apps == null ? Collections.emptyList() : apps.stream().filter(
+                a -> !a.installedProperty().get() && a.installingProperty().get())
+                .map(a -> a.getName()).collect(Collectors.toList());
+    }
+
+    @Override
+    public void restoreJournalState(List<String> state) {
+        if (apps != null) {
+            apps.stream().filter(a -> state.contains(a.getName()))
+                    .forEach(a -> a.installingProperty().set(true));
+        }
+    }
+
+    @Override
+    public Collection<Processable> getDependencies() {
+        return Collections.singletonList(proxy);
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
@@ -68,7 +120,7 @@ public class ApplicationGroupTask implements Processable<String> {
      *
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
@@ -83,25 +135,21 @@ public class ApplicationGroupTask implements Processable<String> {
                     updateProgress(0, totalWork);
                     int previouslyDone = 0;
                     for (ApplicationTask app : appsToInstall) {
-                        try {
-                            updateMessage(app.getName());
-                            updateValue(WelcomeConstants.ICON_APPLICATION_FOLDER + "/" + app.getIcon());
-                            Task<String> appTask = app.newTask();
-                            // update this progress on changes of sub-process
-                            final int fPreviouslyDone = previouslyDone;
-                            appTask.progressProperty().addListener(cl -> updateProgress(fPreviouslyDone + appTask.getWorkDone(), totalWork));
-
-                            app.setProxy(proxy);
-                            appTask.run();
-                            appTask.get();
-                            previouslyDone += app.getNoPackages();
-                        } catch(ExecutionException ex) {
-                            Throwable t = ex.getCause();
-                            if(t instanceof Exception)
-                                throw (Exception) t;
-                            else
-                                throw ex;
+                        if (isCancelled() || Thread.currentThread().isInterrupted()) {
+                            // don't start further installations
+                            break;
                         }
+                        updateMessage(app.getName());
+                        updateValue(WelcomeConstants.ICON_APPLICATION_FOLDER + "/" + app.getIcon());
+                        Task<String> appTask = app.newTask();
+                        // update this progress on changes of sub-process
+                        final int fPreviouslyDone = previouslyDone;
+                        ProcessableTask.progressOf(appTask).addListener((ov, oldV, newV) -> updateProgress(
+                                fPreviouslyDone + Math.max(0, newV.doubleValue()) * app.getNoPackages(), totalWork));
+
+                        app.setProxy(proxy);
+                        ProcessableTask.runInCurrentThread(appTask);
+                        previouslyDone += app.getNoPackages();
                     }
                 }
             }
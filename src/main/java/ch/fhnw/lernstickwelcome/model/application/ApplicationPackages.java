@@ -18,6 +18,7 @@ package ch.fhnw.lernstickwelcome.model.application;
 
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -56,6 +57,46 @@ public abstract class ApplicationPackages {
         return packageNames.size();
     }
 
+    /**
+     * returns the estimated duration of the installation of the packages.
+     *
+     * @return the estimated duration in seconds
+     */
+    public double getEstimatedCost() {
+        return getNumberOfPackages() * 10;
+    }
+
+    /**
+     * returns the package names which are installed from the repositories by
+     * apt-get. These packages can be installed together with the packages of
+     * other applications (see {@link InstallTransactionTask}).
+     *
+     * @return the package names or an empty list
+     */
+    public List<String> getAptGetPackageNames() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * returns the packages which aren't installed by apt-get from the
+     * repositories, e.g. downloaded packages.
+     *
+     * @return the remaining packages
+     */
+    public ApplicationPackages getRemainingPackages() {
+        return this;
+    }
+
+    /**
+     * returns the packages which have to be downloaded before the
+     * installation command is executed.
+     *
+     * @return the downloads or an empty list
+     */
+    public List<PackageDownloader.Download> getDownloads() {
+        return Collections.emptyList();
+    }
+
     /**
      * returns the installation command for the installation strategy.
      *
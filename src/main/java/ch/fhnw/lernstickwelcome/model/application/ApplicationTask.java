@@ -18,15 +18,18 @@ package ch.fhnw.lernstickwelcome.model.application;
 
 import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
-import ch.fhnw.util.ProcessExecutor;
-import java.util.ArrayList;
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
+import ch.fhnw.lernstickwelcome.util.process.OutputCapture;
+import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.concurrent.Task;
@@ -43,8 +46,12 @@ public class ApplicationTask implements Processable<String> {
 
     private final static Logger LOGGER
             = Logger.getLogger(ApplicationTask.class.getName());
-    private final static ProcessExecutor PROCESS_EXECUTOR
-            = WelcomeModelFactory.getProcessExecutor();
+    private final static CommandExecutor COMMAND_EXECUTOR
+            = WelcomeModelFactory.getCommandExecutor();
+    private final static DpkgStatusIndex DPKG_STATUS
+            = WelcomeModelFactory.getDpkgStatusIndex();
+    private final static PackageDownloader DOWNLOADER
+            = WelcomeModelFactory.getPackageDownloader();
 
     private final String name;
     private final String description;
@@ -55,6 +62,23 @@ public class ApplicationTask implements Processable<String> {
     private final BooleanProperty installed = new SimpleBooleanProperty();
     private final List<String> installedNames;
     private ProxyTask proxy;
+    private volatile AptGetResult aptGetResult;
+
+    /**
+     * The result of the apt-get packages of this application in an
+     * {@link InstallTransactionTask}.
+     */
+    enum AptGetResult {
+        /**
+         * The packages were installed, only the remaining packages have to
+         * be installed.
+         */
+        INSTALLED,
+        /**
+         * dpkg or apt-get failed on one of the packages.
+         */
+        FAILED
+    }
 
     /**
      * Creates a application
@@ -82,6 +106,7 @@ public class ApplicationTask implements Processable<String> {
             this.installedNames = installedNames;
         }
         this.installed.set(initIsInstalled());
+        DPKG_STATUS.addListener(this::packagesChanged);
     }
 
     public String getName() {
@@ -121,42 +146,67 @@ public class ApplicationTask implements Processable<String> {
         this.proxy = proxy;
     }
 
+    /**
+     * Returns the packages which are installed from the repositories by
+     * apt-get.
+     *
+     * @return the package names
+     */
+    List<String> getAptGetPackageNames() {
+        return packages.getAptGetPackageNames();
+    }
+
+    /**
+     * Returns the packages which have to be downloaded.
+     *
+     * @return the downloads
+     */
+    List<PackageDownloader.Download> getDownloads() {
+        return packages.getDownloads();
+    }
+
+    /**
+     * Sets the result of the apt-get packages, which were installed together
+     * with other applications. Without a result the task installs all
+     * packages itself.
+     *
+     * @param aptGetResult the result or null
+     */
+    void setAptGetResult(AptGetResult aptGetResult) {
+        this.aptGetResult = aptGetResult;
+    }
+
     /**
      * Checks if the installation is installed.
      *
-     * @return true if {@code dpkg -l installedNames}
+     * @return true if all installedNames are installed according to the
+     * {@link DpkgStatusIndex}
      */
     private boolean initIsInstalled() {
+        return DPKG_STATUS.areInstalled(installedNames);
+    }
 
-        List<String> dpkgListCommand = new ArrayList<>();
-        dpkgListCommand.add("dpkg");
-        dpkgListCommand.add("-l");
-        dpkgListCommand.addAll(installedNames);
-
-        PROCESS_EXECUTOR.executeProcess(true, true,
-                dpkgListCommand.toArray(new String[dpkgListCommand.size()]));
-
-        List<String> stdOut = PROCESS_EXECUTOR.getStdOutList();
-        for (String packageName : installedNames) {
-            LOGGER.log(Level.INFO, "checking package {0}", packageName);
-            Pattern pattern = Pattern.compile("^ii  " + packageName + ".*");
-            boolean found = false;
-            for (String line : stdOut) {
-                if (pattern.matcher(line).matches()) {
-                    LOGGER.info("match");
-                    found = true;
-                    break;
-                } else {
-                    LOGGER.info("no match");
-                }
-            }
-            if (!found) {
-                LOGGER.log(Level.INFO,
-                        "package {0} not installed", packageName);
-                return false;
-            }
+    /**
+     * Updates the installed state if one of the installedNames was installed
+     * or removed, e.g. by another package manager.
+     *
+     * @param packageNames the names of the changed packages
+     */
+    private void packagesChanged(Set<String> packageNames) {
+        boolean affected = installedNames.stream().anyMatch(
+                packageName -> packageNames.contains(
+                        packageName.split(":", 2)[0]));
+        if (affected) {
+            boolean isInstalled = initIsInstalled();
+            UpdateDispatcher.post(installed,
+                    () -> installed.set(isInstalled));
         }
-        return true;
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        // the apt-get packages are installed by the InstallTransactionTask
+        return packages.getRemainingPackages().getEstimatedCost();
     }
 
     @Override
@@ -169,25 +219,54 @@ public class ApplicationTask implements Processable<String> {
      *
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
             updateProgress(0, packages.getNumberOfPackages());
-            // XXX May nice if there would update the percentage while execute
-            int exitValue = PROCESS_EXECUTOR.executeScript(true, true,
-                    packages.getInstallCommand(proxy));
+            AptGetResult result = aptGetResult;
+            // a following save has to check the packages again
+            aptGetResult = null;
+            if (result == AptGetResult.FAILED) {
+                LOGGER.log(Level.SEVERE,
+                        "the packages of {0} couldn''t be installed", getName());
+                throw new ProcessingException(
+                        "ApplicationTask.installationFailed", getName());
+            }
+            ApplicationPackages toInstall = result == AptGetResult.INSTALLED
+                    ? packages.getRemainingPackages() : packages;
+            String output = "";
+            boolean success = true;
+            if (toInstall.getNumberOfPackages() > 0) {
+                for (PackageDownloader.Download download
+                        : toInstall.getDownloads()) {
+                    try {
+                        DOWNLOADER.await(proxy, download);
+                    } catch (IOException ex) {
+                        // the install command tries it again with wget
+                        LOGGER.log(Level.WARNING, "Couldn't download "
+                                + download.getUrl(), ex);
+                    }
+                }
+                // XXX May nice if there would update the percentage while execute
+                // Only the end of the output is kept for the error message
+                CommandResult commandResult = COMMAND_EXECUTOR.executeScript(
+                        toInstall.getInstallCommand(proxy),
+                        new OutputCapture(OutputCapture.DEFAULT_LIMIT));
+                output = commandResult.getOutput();
+                success = commandResult.isSuccess();
+            }
             // We check if it is installed (wget exit code is inconsistent)
-            if (exitValue != 0 || !initIsInstalled()) {
+            if (!success || !initIsInstalled()) {
                 String errorMessage
                         = "apt-get or wget failed with the following output:\n"
-                        + PROCESS_EXECUTOR.getOutput();
+                        + output;
                 LOGGER.severe(errorMessage);
                 throw new ProcessingException(
                         "ApplicationTask.installationFailed", getName());
             }
             // exit code = 0 && installed = true
-            Platform.runLater(() -> {
+            UpdateDispatcher.execute(() -> {
                 installed.set(true);
                 installing.set(false);
             });
@@ -17,6 +17,8 @@
 package ch.fhnw.lernstickwelcome.model.application;
 
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,18 +37,44 @@ public class AptGetPackages extends ApplicationPackages {
         super(packageNames);
     }
 
+    @Override
+    public List<String> getAptGetPackageNames() {
+        return getPackageNames();
+    }
+
+    @Override
+    public ApplicationPackages getRemainingPackages() {
+        return new CombinedPackages(
+                Collections.<ApplicationPackages>emptyList());
+    }
+
     @Override
     public String getInstallCommand(ProxyTask proxy) {
         for (String packageName : getPackageNames()) {
             LOGGER.log(Level.INFO, "installing package \"{0}\"", packageName);
         }
+        return getInstallCommand(proxy, getPackageNames(), "");
+    }
+
+    /**
+     * Creates the script which installs packages with apt-get.
+     *
+     * @param proxy The proxy task which provides the proxy string for the
+     * command.
+     * @param packageNames the names of the packages
+     * @param options further options of apt-get, each followed by a space
+     * @return the script
+     */
+    static String getInstallCommand(ProxyTask proxy,
+            Collection<String> packageNames, String options) {
         StringBuilder builder = new StringBuilder();
         builder.append("#!/bin/sh\n"
                 + "export DEBIAN_FRONTEND=noninteractive\n");
         builder.append("apt-get ");
         builder.append(proxy.getAptGetProxy());
+        builder.append(options);
         builder.append("-y --force-yes install ");
-        for (String packageName : getPackageNames()) {
+        for (String packageName : packageNames) {
             builder.append(packageName);
             builder.append(' ');
         }
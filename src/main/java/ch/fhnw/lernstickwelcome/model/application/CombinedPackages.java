@@ -17,6 +17,7 @@
 package ch.fhnw.lernstickwelcome.model.application;
 
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -42,6 +43,51 @@ public class CombinedPackages extends ApplicationPackages {
         this.applicationPackages = applicationPackages;
     }
 
+    @Override
+    public double getEstimatedCost() {
+        return applicationPackages.stream()
+                .mapToDouble(p -> p.getEstimatedCost()).sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * Only the packages before the first package of another type are
+     * returned, the packages after it might depend on it.
+     */
+    @Override
+    public List<String> getAptGetPackageNames() {
+        List<String> packageNames = new ArrayList<>();
+        for (ApplicationPackages p : applicationPackages) {
+            if (p.getRemainingPackages().getNumberOfPackages() > 0) {
+                break;
+            }
+            packageNames.addAll(p.getAptGetPackageNames());
+        }
+        return packageNames;
+    }
+
+    @Override
+    public ApplicationPackages getRemainingPackages() {
+        List<ApplicationPackages> remaining = new ArrayList<>();
+        for (ApplicationPackages p : applicationPackages) {
+            if (remaining.isEmpty()) {
+                p = p.getRemainingPackages();
+            }
+            if (p.getNumberOfPackages() > 0) {
+                remaining.add(p);
+            }
+        }
+        return new CombinedPackages(remaining);
+    }
+
+    @Override
+    public List<PackageDownloader.Download> getDownloads() {
+        return applicationPackages.stream()
+                .flatMap(p -> p.getDownloads().stream())
+                .collect(Collectors.toList());
+    }
+
     @Override
     public String getInstallCommand(ProxyTask proxyTask) {
 
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model.application;
+
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An index of the installed packages, read from the status file of dpkg.
+ * <br>
+ * The status file is parsed once into a map from package name to the
+ * architectures it is installed for, so checking an application doesn't
+ * fork {@code dpkg -l}. The file is parsed again when dpkg changed it, e.g.
+ * after an installation.
+ * <br>
+ * While {@link #startWatching(BackgroundExecutor) watching} the status file,
+ * changes of other package managers, e.g. Synaptic, are read immediately.
+ * The listeners are notified of the packages whose state changed.
+ * <br>
+ * A package counts as installed like the {@code ii} state of
+ * {@code dpkg -l}: it is selected for installation and completely installed.
+ *
+ * @author sschw
+ */
+public class DpkgStatusIndex {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DpkgStatusIndex.class.getName());
+    /**
+     * Time in milliseconds collecting further changes before the file is
+     * read, dpkg changes it several times per package.
+     */
+    private static final long SETTLE_TIME = 500;
+
+    private final Path statusFile;
+    private final List<Consumer<Set<String>>> listeners
+            = new CopyOnWriteArrayList<>();
+    private Future<?> watching;
+    private Map<String, Set<String>> installed = Collections.emptyMap();
+    // dpkg replaces the file, so a new inode shows a change, too
+    private Object fileKey;
+    private FileTime lastModified;
+    private long size = -1;
+
+    /**
+     * Creates a new index. The status file is read on the first query.
+     *
+     * @param statusFile the status file of dpkg
+     */
+    public DpkgStatusIndex(Path statusFile) {
+        this.statusFile = statusFile;
+    }
+
+    /**
+     * Returns whether a package is installed.
+     *
+     * @param packageName the name of the package, optionally with an
+     * architecture, e.g. {@code libgtk2.0-0:i386}
+     * @return true if the package is installed
+     */
+    public boolean isInstalled(String packageName) {
+        int colon = packageName.indexOf(':');
+        String name = colon < 0 ? packageName : packageName.substring(0, colon);
+        Set<String> architectures = getInstalled().get(name);
+        if (architectures == null) {
+            return false;
+        }
+        return colon < 0 || architectures.contains(
+                packageName.substring(colon + 1));
+    }
+
+    /**
+     * Returns whether all packages are installed.
+     *
+     * @param packageNames the names of the packages
+     * @return true if all packages are installed
+     */
+    public boolean areInstalled(Collection<String> packageNames) {
+        for (String packageName : packageNames) {
+            if (!isInstalled(packageName)) {
+                LOGGER.log(Level.INFO,
+                        "package {0} not installed", packageName);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a listener which is notified when packages were installed or
+     * removed. The listener is called in the thread which read the changes.
+     *
+     * @param listener receives the names of the changed packages
+     */
+    public void addListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Set<String>> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts watching the status file for changes.
+     *
+     * @param executor the executor running the watch
+     */
+    public synchronized void startWatching(BackgroundExecutor executor) {
+        stopWatching();
+        watching = executor.submit(BackgroundExecutor.Pool.IO, this::watch);
+    }
+
+    /**
+     * Stops watching the status file.
+     */
+    public synchronized void stopWatching() {
+        if (watching != null) {
+            watching.cancel(true);
+            watching = null;
+        }
+    }
+
+    /**
+     * Watches the directory of the status file until the watch is cancelled.
+     * dpkg replaces the file, so the directory has to be watched.
+     */
+    private void watch() {
+        Path directory = statusFile.toAbsolutePath().getParent();
+        try (WatchService watchService
+                = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                if (!isStatusChanged(watchService.take())) {
+                    continue;
+                }
+                Thread.sleep(SETTLE_TIME);
+                WatchKey key;
+                while ((key = watchService.poll()) != null) {
+                    isStatusChanged(key);
+                }
+                getInstalled();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // watching was stopped
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't watch " + statusFile, ex);
+        }
+    }
+
+    /**
+     * Checks the events of a watch key for changes of the status file and
+     * resets the key.
+     *
+     * @param key the signalled key
+     * @return true if the status file might have changed
+     */
+    private boolean isStatusChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || statusFile.getFileName().equals(event.context());
+        }
+        if (!key.reset()) {
+            LOGGER.log(Level.WARNING, "Can't watch {0} anymore", statusFile);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the installed packages, the status file is parsed again if it
+     * changed since the last query.
+     *
+     * @return a map from package name to the installed architectures
+     */
+    private Map<String, Set<String>> getInstalled() {
+        Map<String, Set<String>> current;
+        Set<String> changed;
+        synchronized (this) {
+            Map<String, Set<String>> previous = installed;
+            boolean initialized = lastModified != null;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(
+                        statusFile, BasicFileAttributes.class);
+                if (!Objects.equals(attributes.fileKey(), fileKey)
+                        || !attributes.lastModifiedTime().equals(lastModified)
+                        || attributes.size() != size) {
+                    installed = parse(statusFile);
+                    fileKey = attributes.fileKey();
+                    lastModified = attributes.lastModifiedTime();
+                    size = attributes.size();
+                }
+            } catch (NoSuchFileException ex) {
+                LOGGER.log(Level.WARNING, "{0} not found", statusFile);
+                installed = Collections.emptyMap();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Couldn't read " + statusFile, ex);
+            }
+            current = installed;
+            // nobody asked for a package before the first read
+            changed = initialized && current != previous
+                    ? getChanges(previous, current)
+                    : Collections.<String>emptySet();
+        }
+        if (!changed.isEmpty()) {
+            LOGGER.log(Level.INFO, "changed packages: {0}", changed);
+            listeners.forEach(listener -> listener.accept(changed));
+        }
+        return current;
+    }
+
+    /**
+     * Returns the packages which were installed or removed for an
+     * architecture.
+     *
+     * @param previous the previously installed packages
+     * @param current the currently installed packages
+     * @return the names of the changed packages
+     */
+    private static Set<String> getChanges(Map<String, Set<String>> previous,
+            Map<String, Set<String>> current) {
+        Set<String> changed = new HashSet<>();
+        previous.forEach((name, architectures) -> {
+            if (!architectures.equals(current.get(name))) {
+                changed.add(name);
+            }
+        });
+        current.keySet().forEach(name -> {
+            if (!previous.containsKey(name)) {
+                changed.add(name);
+            }
+        });
+        return Collections.unmodifiableSet(changed);
+    }
+
+    /**
+     * Parses the installed packages of a status file. The file consists of
+     * a paragraph per package, only the fields {@code Package},
+     * {@code Architecture} and {@code Status} are needed.
+     *
+     * @param file the status file
+     * @return a map from package name to the installed architectures
+     * @throws IOException if the file can't be read
+     */
+    private static Map<String, Set<String>> parse(Path file)
+            throws IOException {
+        long start = System.nanoTime();
+        Map<String, Set<String>> packages = new HashMap<>();
+        try (BufferedReader reader
+                = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String name = null;
+            String architecture = null;
+            boolean installed = false;
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null || line.isEmpty()) {
+                    // end of the paragraph
+                    if (name != null && installed) {
+                        Set<String> architectures = packages.get(name);
+                        if (architectures == null) {
+                            architectures = new HashSet<>();
+                            packages.put(name, architectures);
+                        }
+                        architectures.add(architecture);
+                    }
+                    name = null;
+                    architecture = null;
+                    installed = false;
+                } else if (line.startsWith("Package:")) {
+                    name = line.substring(8).trim();
+                } else if (line.startsWith("Architecture:")) {
+                    architecture = line.substring(13).trim();
+                } else if (line.startsWith("Status:")) {
+                    // e.g. "install ok installed" ("ii" of dpkg -l)
+                    String[] status = line.substring(7).trim().split(" ");
+                    installed = status.length == 3
+                            && status[0].equals("install")
+                            && status[2].equals("installed");
+                }
+            } while (line != null);
+        }
+        LOGGER.log(Level.INFO, "read {0} installed packages in {1} ms",
+                new Object[]{packages.size(),
+                    (System.nanoTime() - start) / 1000000});
+        return packages;
+    }
+}
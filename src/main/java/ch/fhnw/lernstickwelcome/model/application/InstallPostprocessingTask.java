@@ -17,9 +17,13 @@
 package ch.fhnw.lernstickwelcome.model.application;
 
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
-import ch.fhnw.util.ProcessExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.OutputCapture;
+import java.util.Collection;
+import java.util.Collections;
 import javafx.concurrent.Task;
 
 /**
@@ -29,7 +33,7 @@ import javafx.concurrent.Task;
  * @author sschw
  */
 public class InstallPostprocessingTask implements Processable<String> {
-    private final static ProcessExecutor PROCESS_EXECUTOR = WelcomeModelFactory.getProcessExecutor();
+    private final static CommandExecutor COMMAND_EXECUTOR = WelcomeModelFactory.getCommandExecutor();
     private final ProxyTask proxy;
     private final ApplicationGroupTask[] groups;
     
@@ -46,27 +50,55 @@ public class InstallPostprocessingTask implements Processable<String> {
         this.groups = groups;
     }
 
+    /**
+     * Only depends on the proxy. The groups are installed before, but a
+     * failed group mustn't skip the repair of the packages (see
+     * {@link ch.fhnw.lernstickwelcome.model.TaskProcessor#addOrdering(Processable, Processable...)}).
+     *
+     * @return the proxy
+     */
+    @Override
+    public Collection<Processable> getDependencies() {
+        return Collections.singletonList(proxy);
+    }
+
+    @Override
+    public boolean hasChanges() {
+        for (ApplicationGroupTask g : groups) {
+            if (g.hasApplicationsToInstall()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        return hasChanges() ? 10 : 0.1;
+    }
+
+    @Override
+    public long getTaskTimeout() {
+        return 1800;
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
     }
 
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
             // Check if there are applications to install.
-            int appsToInstall = 0;
-            for(ApplicationGroupTask g : groups) 
-                appsToInstall += g.getApps().stream().
-                        filter(a -> !a.installedProperty().get() && a.installingProperty().get()).count();
-            
-            if(appsToInstall > 0) {
+            if(hasChanges()) {
                 updateTitle("InstallPostprocessingTask.title");
                 updateMessage("InstallPostprocessingTask.message");
                 updateProgress(0, 1);
                 String script = "apt-get" + proxy.getAptGetProxy() + "-f -y --force-yes install";
-                PROCESS_EXECUTOR.executeScript(script);
+                COMMAND_EXECUTOR.executeScript(script,
+                        new OutputCapture(OutputCapture.DEFAULT_LIMIT));
             }
             updateProgress(1, 1);
             return null;
@@ -17,11 +17,24 @@
 package ch.fhnw.lernstickwelcome.model.application;
 
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
-import ch.fhnw.util.ProcessExecutor;
+import ch.fhnw.lernstickwelcome.util.ProcessInspector;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
+import ch.fhnw.lernstickwelcome.util.process.OutputCapture;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.concurrent.Task;
@@ -36,8 +49,18 @@ import javafx.concurrent.Task;
  */
 public class InstallPreparationTask implements Processable<String> {
 
-    private final static ProcessExecutor PROCESS_EXECUTOR = WelcomeModelFactory.getProcessExecutor();
+    private final static CommandExecutor COMMAND_EXECUTOR
+            = WelcomeModelFactory.getCommandExecutor();
     private final static Logger LOGGER = Logger.getLogger(InstallPreparationTask.class.getName());
+    // Processes which lock the package lists in the background
+    private final static List<String> BLOCKING_EXECUTABLES = Arrays.asList(
+            "/usr/lib/update-notifier/apt-check", "/usr/bin/update-notifier");
+    /**
+     * Time in seconds other package managers get to release their locks.
+     */
+    private final static long LOCK_TIMEOUT = 120;
+    // Time in milliseconds between two checks of the locks
+    private final static long LOCK_POLL_INTERVAL = 1000;
     private final ProxyTask proxy;
     private final ApplicationGroupTask[] groups;
 
@@ -55,29 +78,53 @@ public class InstallPreparationTask implements Processable<String> {
     }
 
     /**
-     * Stops the update-notifier because this could block the update and install
-     * commands.
+     * Makes sure that no other process holds the locks of dpkg and apt.
+     * <br>
+     * The update-notifier is stopped if it holds a lock, because this would
+     * block the update and install commands. Other package managers, e.g.
+     * unattended-upgrades, are waited for at most {@link #LOCK_TIMEOUT}
+     * seconds. Nothing is stopped if no process holds a lock.
+     *
+     * @throws InterruptedException if the task is cancelled while waiting
      */
-    private void killBlockingProcesses() {
-        String script = "#!/bin/sh\n"
-                + "mykill() {\n"
-                + "   ID=`ps -u 0 | grep \"${1}\" | awk '{ print $1 }'`\n"
-                + "   if [ -n \"${ID}\" ]\n"
-                + "   then\n"
-                + "       kill -9 ${ID}\n"
-                + "   fi\n"
-                + "}\n"
-                + "mykill /usr/lib/update-notifier/apt-check\n"
-                + "mykill update-notifier";
-
-        try {
-            int exitValue = PROCESS_EXECUTOR.executeScript(script);
-            if (exitValue != 0) {
-                LOGGER.log(Level.WARNING, "Could not kill update-notifier: {0}",
-                        PROCESS_EXECUTOR.getOutput());
+    private void releasePackageLocks() throws InterruptedException {
+        long deadline = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(LOCK_TIMEOUT);
+        boolean waiting = false;
+        Set<Long> holders;
+        while (!(holders = ProcessInspector.getLockHolders(
+                WelcomeConstants.PACKAGE_LOCK_FILES)).isEmpty()) {
+            Map<Long, ProcessInspector.ProcessInfo> processes
+                    = ProcessInspector.getProcesses();
+            List<ProcessInspector.ProcessInfo> holderProcesses
+                    = holders.stream().map(processes::get)
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.toList());
+            // also checked after killing, a process might survive the kill
+            // or be restarted at once
+            if (System.nanoTime() - deadline > 0) {
+                LOGGER.log(Level.WARNING,
+                        "package management is still locked by {0}",
+                        holderProcesses);
+                return;
+            }
+            Set<Long> blocking = ProcessInspector.findProcesses(
+                    processes, BLOCKING_EXECUTABLES);
+            List<Long> killable = holders.stream()
+                    .filter(pid -> ProcessInspector.descendsFrom(
+                            processes, pid, blocking))
+                    .collect(Collectors.toList());
+            if (!killable.isEmpty()) {
+                ProcessInspector.killProcessTrees(killable);
+                continue;
+            }
+            if (!waiting) {
+                LOGGER.log(Level.INFO,
+                        "waiting for package management locked by {0}",
+                        holderProcesses);
+                waiting = true;
             }
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
+            Thread.sleep(LOCK_POLL_INTERVAL);
         }
     }
 
@@ -89,10 +136,10 @@ public class InstallPreparationTask implements Processable<String> {
 
         String updateScript = "cd " + WelcomeConstants.USER_HOME + '\n'
                 + "apt-get" + proxy.getAptGetProxy() + "update";
-        int exitValue = PROCESS_EXECUTOR.executeScript(
-                true, true, updateScript);
-        if (exitValue != 0) {
-            String aptGetOutput = PROCESS_EXECUTOR.getOutput();
+        CommandResult result = COMMAND_EXECUTOR.executeScript(updateScript,
+                new OutputCapture(OutputCapture.DEFAULT_LIMIT));
+        if (!result.isSuccess()) {
+            String aptGetOutput = result.getOutput();
             String logMessage = "apt-get failed with the following "
                     + "output:\n" + aptGetOutput;
             LOGGER.severe(logMessage);
@@ -101,6 +148,33 @@ public class InstallPreparationTask implements Processable<String> {
         }
     }
 
+    @Override
+    public Collection<Processable> getDependencies() {
+        return Collections.singletonList(proxy);
+    }
+
+    @Override
+    public boolean hasChanges() {
+        for (ApplicationGroupTask g : groups) {
+            if (g.hasApplicationsToInstall()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        // apt-get update
+        return hasChanges() ? 30 : 0.1;
+    }
+
+    @Override
+    public long getTaskTimeout() {
+        // apt-get update might wait for a lock or a slow mirror
+        return 1800;
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
@@ -111,22 +185,17 @@ public class InstallPreparationTask implements Processable<String> {
      *
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
             // Check if there are applications to install.
-            int appsToInstall = 0;
-            for(ApplicationGroupTask g : groups) 
-                appsToInstall += g.getApps().stream().
-                        filter(a -> !a.installedProperty().get() && a.installingProperty().get()).count();
-            
-            if(appsToInstall > 0) {
+            if(hasChanges()) {
                 updateTitle("InstallPreparationTask.title");
                 updateMessage("InstallPreparationTask.prepareUpdate");
                 updateProgress(0, 2);
                 // make sure that update-notifier does not get into our way
-                killBlockingProcesses();
+                releasePackageLocks();
 
                 updateProgress(1, 2);
                 updateMessage("InstallPreparationTask.update");
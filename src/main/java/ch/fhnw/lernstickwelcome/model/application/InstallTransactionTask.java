@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model.application;
+
+import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
+import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
+import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
+import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
+import ch.fhnw.lernstickwelcome.util.process.OutputCapture;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javafx.concurrent.Task;
+
+/**
+ * Installs the apt-get packages of all selected applications of all groups
+ * in a single apt-get call, before the {@link ApplicationGroupTask}s install
+ * the remaining packages of their applications.
+ * <br>
+ * A single transaction resolves the dependencies, takes the locks and runs
+ * the dpkg triggers (e.g. man-db, icon cache) only once instead of once per
+ * application. The downloads of all applications are started before (see
+ * {@link PackageDownloader}).
+ * <br>
+ * The progress and the failures are attributed to the applications by
+ * reading the status messages of apt-get ({@code APT::Status-Fd}):
+ * <ul>
+ * <li>The applications whose packages dpkg couldn't install fail.</li>
+ * <li>Packages apt-get can't find are removed and the transaction is tried
+ * once more without their applications.</li>
+ * <li>The applications whose packages aren't installed for another reason
+ * install their packages by themselves, like without this task.</li>
+ * </ul>
+ *
+ * @see Processable
+ * @author sschw
+ */
+public class InstallTransactionTask implements Processable<String> {
+
+    private final static CommandExecutor COMMAND_EXECUTOR
+            = WelcomeModelFactory.getCommandExecutor();
+    private final static DpkgStatusIndex DPKG_STATUS
+            = WelcomeModelFactory.getDpkgStatusIndex();
+    private final static PackageDownloader DOWNLOADER
+            = WelcomeModelFactory.getPackageDownloader();
+    private final static Logger LOGGER
+            = Logger.getLogger(InstallTransactionTask.class.getName());
+    // e.g. "pmstatus:libc6:amd64:20.0000:Preparing libc6 (amd64)"
+    private final static Pattern STATUS_PATTERN = Pattern.compile(
+            "(dlstatus|pmstatus|pmerror):(.*?):(\\d+(?:\\.\\d+)?):(.*)");
+    private final static Pattern UNKNOWN_PACKAGE_PATTERN = Pattern.compile(
+            "E: (?:Unable to locate package (\\S+)"
+            + "|Package '(\\S+)' has no installation candidate)");
+    // The download takes the first half of the progress
+    private final static double DOWNLOAD_WORK = 50;
+    private final static double TOTAL_WORK = 100;
+    private final ProxyTask proxy;
+    private final ApplicationGroupTask[] groups;
+
+    /**
+     * Initializes the InstallTransactionTask.
+     *
+     * @param proxy The proxy which should be used to run its tasks.
+     * @param groups The application groups that will be installed.
+     */
+    public InstallTransactionTask(ProxyTask proxy,
+            ApplicationGroupTask... groups) {
+        this.proxy = proxy;
+        this.groups = groups;
+    }
+
+    /**
+     * Returns the applications which are selected to be installed.
+     *
+     * @return the applications in the order of the groups
+     */
+    private List<ApplicationTask> getApplications() {
+        List<ApplicationTask> apps = new ArrayList<>();
+        for (ApplicationGroupTask g : groups) {
+            if (g.getApps() == null) {
+                continue;
+            }
+            for (ApplicationTask app : g.getApps()) {
+                if (!app.installedProperty().get()
+                        && app.installingProperty().get()) {
+                    apps.add(app);
+                }
+            }
+        }
+        return apps;
+    }
+
+    @Override
+    public Collection<Processable> getDependencies() {
+        return Collections.singletonList(proxy);
+    }
+
+    @Override
+    public boolean hasChanges() {
+        return !getApplications().isEmpty();
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        return getApplications().stream()
+                .flatMap(a -> a.getAptGetPackageNames().stream())
+                .distinct().count() * 10;
+    }
+
+    @Override
+    public long getTaskTimeout() {
+        // big downloads on slow networks take much longer than estimated
+        return Math.max(1800, Math.round(getEstimatedCost() * 10));
+    }
+
+    @Override
+    public Task<String> newTask() {
+        return new InternalTask();
+    }
+
+    /**
+     * Returns the name of a package without its architecture.
+     *
+     * @param packageName e.g. {@code libc6:amd64}
+     * @return e.g. {@code libc6}
+     */
+    private static String withoutArchitecture(String packageName) {
+        int colon = packageName.indexOf(':');
+        return colon < 0 ? packageName : packageName.substring(0, colon);
+    }
+
+    /**
+     * Task for {@link #newTask() }
+     *
+     * @see Processable
+     */
+    private class InternalTask extends ProcessableTask<String> {
+
+        // read by the thread reading the output of apt-get
+        private final Map<String, List<ApplicationTask>> packageApps
+                = new ConcurrentHashMap<>();
+        private final Set<String> failedPackages
+                = ConcurrentHashMap.newKeySet();
+        private final Set<String> unknownPackages
+                = ConcurrentHashMap.newKeySet();
+
+        @Override
+        protected String call() throws Exception {
+            updateTitle("InstallTransactionTask.title");
+            updateProgress(0, TOTAL_WORK);
+            List<ApplicationTask> selected = getApplications();
+            // the downloads run while apt-get installs the packages
+            DOWNLOADER.start(proxy, selected.stream()
+                    .flatMap(app -> app.getDownloads().stream())
+                    .collect(Collectors.toList()));
+            selected.forEach(app -> app.setAptGetResult(null));
+            List<ApplicationTask> apps = selected.stream()
+                    .filter(app -> !app.getAptGetPackageNames().isEmpty())
+                    .collect(Collectors.toList());
+            // at most one retry without the unknown packages
+            for (int attempt = 0; attempt < 2 && !apps.isEmpty(); attempt++) {
+                if (isCancelled() || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                if (install(apps)) {
+                    apps.forEach(app -> app.setAptGetResult(
+                            ApplicationTask.AptGetResult.INSTALLED));
+                    break;
+                }
+                apps = attributeFailure(apps);
+            }
+            updateProgress(TOTAL_WORK, TOTAL_WORK);
+            return null;
+        }
+
+        /**
+         * Installs the apt-get packages of the applications.
+         *
+         * @param apps the applications
+         * @return true if apt-get was successful
+         * @throws Exception if the script can't be executed
+         */
+        private boolean install(List<ApplicationTask> apps) throws Exception {
+            packageApps.clear();
+            failedPackages.clear();
+            unknownPackages.clear();
+            for (ApplicationTask app : apps) {
+                for (String packageName : app.getAptGetPackageNames()) {
+                    packageApps.computeIfAbsent(
+                            withoutArchitecture(packageName),
+                            key -> new ArrayList<>()).add(app);
+                }
+            }
+            Set<String> packageNames = new LinkedHashSet<>();
+            apps.forEach(app -> packageNames.addAll(
+                    app.getAptGetPackageNames()));
+            LOGGER.log(Level.INFO, "installing packages {0} of {1}",
+                    new Object[]{packageNames, apps.stream()
+                        .map(ApplicationTask::getName)
+                        .collect(Collectors.toList())});
+
+            // The status messages are written to stdout with the rest
+            String script = AptGetPackages.getInstallCommand(proxy,
+                    packageNames, "-o APT::Status-Fd=1 ");
+            CommandResult result = COMMAND_EXECUTOR.executeScript(script,
+                    new OutputCapture(OutputCapture.DEFAULT_LIMIT,
+                            this::parseLine));
+            if (!result.isSuccess()) {
+                LOGGER.log(Level.SEVERE,
+                        "apt-get failed with the following output:\n{0}",
+                        result.getOutput());
+            }
+            return result.isSuccess();
+        }
+
+        /**
+         * Parses a line of the output of apt-get.
+         *
+         * @param line the line
+         */
+        private void parseLine(String line) {
+            Matcher status = STATUS_PATTERN.matcher(line);
+            if (status.matches()) {
+                double percent = Double.parseDouble(status.group(3));
+                String packageName = withoutArchitecture(status.group(2));
+                switch (status.group(1)) {
+                    case "dlstatus":
+                        updateProgress(percent * DOWNLOAD_WORK / 100,
+                                TOTAL_WORK);
+                        break;
+                    case "pmstatus":
+                        updateProgress(DOWNLOAD_WORK + percent
+                                * (TOTAL_WORK - DOWNLOAD_WORK) / 100,
+                                TOTAL_WORK);
+                        showApplication(packageName);
+                        break;
+                    default:
+                        LOGGER.log(Level.WARNING, "dpkg failed on {0}: {1}",
+                                new Object[]{packageName, status.group(4)});
+                        failedPackages.add(packageName);
+                }
+                return;
+            }
+            Matcher unknown = UNKNOWN_PACKAGE_PATTERN.matcher(line);
+            if (unknown.matches()) {
+                String packageName = unknown.group(1) != null
+                        ? unknown.group(1) : unknown.group(2);
+                unknownPackages.add(withoutArchitecture(packageName));
+            }
+        }
+
+        /**
+         * Shows the application a package which is being installed belongs
+         * to.
+         *
+         * @param packageName the name of the package
+         */
+        private void showApplication(String packageName) {
+            List<ApplicationTask> apps = packageApps.get(packageName);
+            if (apps != null) {
+                // the dependencies of an application aren't attributed
+                ApplicationTask app = apps.get(0);
+                updateMessage(app.getName());
+                updateValue(WelcomeConstants.ICON_APPLICATION_FOLDER
+                        + "/" + app.getIcon());
+            }
+        }
+
+        /**
+         * Attributes a failed transaction to the applications.
+         *
+         * @param apps the applications of the transaction
+         * @return the applications which should be tried again
+         */
+        private List<ApplicationTask> attributeFailure(
+                List<ApplicationTask> apps) {
+            List<ApplicationTask> retry = new ArrayList<>();
+            for (ApplicationTask app : apps) {
+                Set<String> names = app.getAptGetPackageNames().stream()
+                        .map(InstallTransactionTask::withoutArchitecture)
+                        .collect(Collectors.toSet());
+                if (!Collections.disjoint(names, failedPackages)
+                        || !Collections.disjoint(names, unknownPackages)) {
+                    LOGGER.log(Level.WARNING,
+                            "installation of {0} failed", app.getName());
+                    app.setAptGetResult(ApplicationTask.AptGetResult.FAILED);
+                } else if (DPKG_STATUS.areInstalled(
+                        app.getAptGetPackageNames())) {
+                    app.setAptGetResult(
+                            ApplicationTask.AptGetResult.INSTALLED);
+                } else if (!unknownPackages.isEmpty()) {
+                    // apt-get didn't install anything
+                    retry.add(app);
+                }
+                // else the application installs its packages by itself
+            }
+            return retry;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model.application;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A size-bounded cache of the packages downloaded by the
+ * {@link PackageDownloader}, so a failed or repeated installation doesn't
+ * need the network.
+ * <br>
+ * The packages are stored under their SHA-256 hash, so a package offered by
+ * several URLs is stored only once and a damaged file is detected. An index
+ * file maps the URLs to the hashes and the ETag and Last-Modified headers of
+ * the download, which are used to check whether the package has changed
+ * since. The modification time of a package is its last use, the least
+ * recently used packages are removed when the cache gets too big.
+ * <br>
+ * Only plain file operations are used, so the cache may be on a FAT
+ * formatted exchange partition.
+ *
+ * @author sschw
+ */
+public class PackageCache {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(PackageCache.class.getName());
+    private static final String INDEX_FILE = "index.properties";
+    private static final String PACKAGE_SUFFIX = ".deb";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // separates the hash and the validators in the index
+    private static final String SEPARATOR = "\t";
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * Creates a new PackageCache. The directory is created when the first
+     * package is stored.
+     *
+     * @param directory the directory of the cache
+     * @param maxSize the maximum size of all packages in bytes
+     */
+    public PackageCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a cached package, which may be damaged or removed until it is
+     * copied.
+     *
+     * @param url the URL the package was downloaded from
+     * @return the package or null if it isn't cached or can't be checked for
+     * changes
+     */
+    public synchronized Entry getEntry(String url) {
+        String value = readIndex().getProperty(url);
+        if (value == null) {
+            return null;
+        }
+        Entry entry = Entry.parse(value);
+        return entry.getEtag() != null || entry.getLastModified() != null
+                ? entry : null;
+    }
+
+    /**
+     * Copies a cached package.
+     *
+     * @param url the URL the package was downloaded from
+     * @param target the file the package is copied to
+     * @return true if the package was cached, false if it has to be
+     * downloaded
+     */
+    public synchronized boolean copy(String url, Path target) {
+        String value = readIndex().getProperty(url);
+        if (value == null) {
+            return false;
+        }
+        String hash = Entry.parse(value).hash;
+        Path file = directory.resolve(hash + PACKAGE_SUFFIX);
+        try {
+            String copyHash;
+            try (InputStream in = Files.newInputStream(file);
+                    OutputStream out = Files.newOutputStream(target)) {
+                copyHash = copy(in, out);
+            }
+            if (!copyHash.equals(hash)) {
+                LOGGER.log(Level.WARNING, "removing damaged package {0}",
+                        file);
+                Files.delete(file);
+                Files.delete(target);
+                return false;
+            }
+            // the modification time is the last use
+            Files.setLastModifiedTime(file,
+                    FileTime.fromMillis(System.currentTimeMillis()));
+            LOGGER.log(Level.INFO, "using cached package {0} for {1}",
+                    new Object[]{file, url});
+            return true;
+        } catch (NoSuchFileException ex) {
+            // removed by hand
+            return false;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't read cached package " + file,
+                    ex);
+            return false;
+        }
+    }
+
+    /**
+     * Adds a downloaded package to the cache. Packages bigger than the cache
+     * and packages which can't be checked for changes aren't stored.
+     *
+     * @param url the URL the package was downloaded from
+     * @param file the package
+     * @param etag the ETag header of the download or null
+     * @param lastModified the Last-Modified header of the download or null
+     */
+    public void store(String url, Path file, String etag,
+            String lastModified) {
+        if (etag == null && lastModified == null) {
+            return;
+        }
+        try {
+            long size = Files.size(file);
+            if (size > maxSize) {
+                return;
+            }
+            Files.createDirectories(directory);
+            // copied outside of the lock, other downloads may be finished
+            // in the meantime
+            Path temp = Files.createTempFile(directory, "download", ".tmp");
+            String hash;
+            try {
+                try (InputStream in = Files.newInputStream(file);
+                        OutputStream out = Files.newOutputStream(temp)) {
+                    hash = copy(in, out);
+                }
+                synchronized (this) {
+                    Path target = directory.resolve(hash + PACKAGE_SUFFIX);
+                    Files.move(temp, target,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    Properties index = readIndex();
+                    index.setProperty(url, new Entry(hash, etag,
+                            lastModified).format());
+                    evict(index, target);
+                    writeIndex(index);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't cache " + url, ex);
+        }
+    }
+
+    /**
+     * Removes the least recently used packages until the cache isn't bigger
+     * than its maximum size, and the URLs of removed packages.
+     *
+     * @param index the index, which is updated
+     * @param stored the package which was just stored and is kept
+     * @throws IOException if the directory can't be read
+     */
+    private void evict(Properties index, Path stored) throws IOException {
+        Map<Path, BasicFileAttributes> packages = new HashMap<>();
+        long size = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+                directory, "*" + PACKAGE_SUFFIX)) {
+            for (Path file : stream) {
+                BasicFileAttributes attributes = Files.readAttributes(
+                        file, BasicFileAttributes.class);
+                packages.put(file, attributes);
+                size += attributes.size();
+            }
+        }
+        List<Path> leastRecentlyUsed = new ArrayList<>(packages.keySet());
+        leastRecentlyUsed.sort(Comparator.comparing(
+                file -> packages.get(file).lastModifiedTime()));
+        for (Path file : leastRecentlyUsed) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (file.equals(stored)) {
+                continue;
+            }
+            try {
+                Files.delete(file);
+                size -= packages.get(file).size();
+                LOGGER.log(Level.INFO, "removed {0} from the cache", file);
+            } catch (FileSystemException ex) {
+                LOGGER.log(Level.WARNING, "Couldn't remove " + file, ex);
+            }
+        }
+        // the URLs of removed packages
+        index.stringPropertyNames().stream()
+                .filter(url -> !Files.exists(directory.resolve(Entry.parse(
+                        index.getProperty(url)).hash + PACKAGE_SUFFIX)))
+                .forEach(index::remove);
+    }
+
+    private Properties readIndex() {
+        Properties index = new Properties();
+        try (InputStream in = Files.newInputStream(
+                directory.resolve(INDEX_FILE))) {
+            index.load(in);
+        } catch (NoSuchFileException ex) {
+            // empty cache
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't read the package cache", ex);
+        }
+        return index;
+    }
+
+    private void writeIndex(Properties index) throws IOException {
+        // replaced at once, an interrupted write keeps the old index
+        Path temp = Files.createTempFile(directory, "index", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                index.store(out, "URL = SHA-256 of the cached package, "
+                        + "ETag and Last-Modified");
+            }
+            Files.move(temp, directory.resolve(INDEX_FILE),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Copies a stream and calculates the hash of the content.
+     *
+     * @param in the source
+     * @param out the target
+     * @return the SHA-256 hash as hexadecimal string
+     * @throws IOException if the copy failed
+     */
+    private static String copy(InputStream in, OutputStream out)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every JRE supports SHA-256
+            throw new IllegalStateException(ex);
+        }
+        DigestInputStream digestIn = new DigestInputStream(in, digest);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = digestIn.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        return hash.toString();
+    }
+
+    /**
+     * A package in the cache.
+     */
+    public static final class Entry {
+
+        private final String hash;
+        private final String etag;
+        private final String lastModified;
+
+        private Entry(String hash, String etag, String lastModified) {
+            this.hash = hash;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        private static Entry parse(String value) {
+            String[] parts = value.split(SEPARATOR, -1);
+            return new Entry(parts[0], getPart(parts, 1), getPart(parts, 2));
+        }
+
+        private static String getPart(String[] parts, int index) {
+            return parts.length > index && !parts[index].isEmpty()
+                    ? parts[index] : null;
+        }
+
+        private String format() {
+            return hash + SEPARATOR + (etag != null ? etag : "")
+                    + SEPARATOR + (lastModified != null ? lastModified : "");
+        }
+
+        /**
+         * Returns the ETag header of the download.
+         *
+         * @return the ETag or null
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Returns the Last-Modified header of the download.
+         *
+         * @return the date or null
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.model.application;
+
+import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads the packages which aren't in the repositories (see
+ * {@link WgetPackages}).
+ * <br>
+ * The downloads of all selected applications run concurrently in the
+ * {@link BackgroundExecutor.Pool#DOWNLOAD} pool, while the packages are
+ * installed one after another. A download is written to a {@code .part}
+ * file, which is renamed when the download is complete. An interrupted
+ * download is resumed with an HTTP range request, also in a later save. The
+ * validator (ETag or Last-Modified) of the file is stored next to the part
+ * file, the server only sends the rest of the file if it hasn't changed.
+ * <br>
+ * The downloaded packages are kept in a {@link PackageCache}. A package in
+ * the cache is only downloaded again if the server reports that it has
+ * changed since (conditional request with its ETag or Last-Modified). If the
+ * server can't be reached, the cached package is used without checking it.
+ *
+ * @author sschw
+ */
+public class PackageDownloader {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(PackageDownloader.class.getName());
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int READ_TIMEOUT = 60000;
+    private static final int MAX_ATTEMPTS = 5;
+    // Time in milliseconds before the first retry, doubled for every retry
+    private static final long RETRY_DELAY = 2000;
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+    // the beginning of the message of HttpURLConnection if the proxy refuses
+    // to open a tunnel for https
+    private static final String TUNNEL_FAILED
+            = "Unable to tunnel through proxy";
+    // e.g. "bytes 1000-1999/2000"
+    private static final Pattern CONTENT_RANGE_PATTERN
+            = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)");
+
+    private final PackageCache cache;
+    private final Map<Path, Future<Path>> downloads
+            = new ConcurrentHashMap<>();
+    private volatile BackgroundExecutor executor;
+
+    /**
+     * Creates a new PackageDownloader.
+     *
+     * @param cache the cache of the downloaded packages
+     */
+    public PackageDownloader(PackageCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the executor running the downloads. Without an executor the
+     * packages are downloaded when they are needed.
+     *
+     * @param executor the executor
+     */
+    public void setExecutor(BackgroundExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Starts downloads in the background, which weren't started yet.
+     *
+     * @param proxy the proxy settings
+     * @param downloadList the downloads
+     */
+    public void start(ProxyTask proxy, Collection<Download> downloadList) {
+        BackgroundExecutor backgroundExecutor = executor;
+        if (backgroundExecutor == null) {
+            return;
+        }
+        for (Download download : downloadList) {
+            downloads.computeIfAbsent(download.getFile(), file -> {
+                LOGGER.log(Level.INFO, "starting download of {0}",
+                        download.getUrl());
+                return backgroundExecutor.getExecutorService(
+                        BackgroundExecutor.Pool.DOWNLOAD).submit(
+                                () -> download(download, proxy));
+            });
+        }
+    }
+
+    /**
+     * Waits for a download, the download is started if it wasn't started
+     * before.
+     *
+     * @param proxy the proxy settings
+     * @param download the download
+     * @return the downloaded file
+     * @throws IOException if the download failed
+     * @throws InterruptedException if the thread was interrupted while
+     * waiting, the download is cancelled
+     */
+    public Path await(ProxyTask proxy, Download download)
+            throws IOException, InterruptedException {
+        start(proxy, Collections.singletonList(download));
+        Future<Path> future = downloads.get(download.getFile());
+        if (future == null) {
+            // no executor
+            return download(download, proxy);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof IOException
+                    ? (IOException) cause : new IOException(cause);
+        } catch (CancellationException ex) {
+            throw new IOException("download of " + download.getUrl()
+                    + " was cancelled", ex);
+        } finally {
+            // a later save downloads the package again
+            downloads.remove(download.getFile(), future);
+        }
+    }
+
+    /**
+     * Cancels the downloads which are still running and forgets the finished
+     * ones which weren't awaited, e.g. of applications which weren't
+     * installed because the run failed or was cancelled.
+     */
+    public void cancelAll() {
+        downloads.values().forEach(future -> future.cancel(true));
+        downloads.clear();
+    }
+
+    /**
+     * Downloads a package. Transfers which failed for a temporary reason are
+     * resumed a few times (see {@link #isRetryable(IOException)}).
+     *
+     * @param download the download
+     * @param proxy the proxy settings
+     * @return the downloaded file
+     * @throws IOException if the package couldn't be downloaded
+     * @throws InterruptedException if the download was cancelled
+     */
+    private Path download(Download download, ProxyTask proxy)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Path file = download.getFile();
+        Path part = file.resolveSibling(file.getFileName() + ".part");
+        Path validatorFile = getValidatorFile(part);
+        // an old file of a failed installation might be outdated
+        Files.deleteIfExists(file);
+        PackageCache.Entry cached = cache.getEntry(download.getUrl());
+        URL url = new URL(download.getUrl());
+        Proxy javaProxy = proxy.getProxy();
+        Response response;
+        for (int attempt = 1;; attempt++) {
+            try {
+                response = transfer(url, part, javaProxy, cached);
+                if (response != null || cache.copy(download.getUrl(), file)) {
+                    break;
+                }
+                // the cached package is damaged
+                cached = null;
+            } catch (IOException ex) {
+                if (cached != null && isUnreachable(ex)
+                        && cache.copy(download.getUrl(), file)) {
+                    // the package can't be revalidated, e.g. offline
+                    LOGGER.log(Level.WARNING, "{0} is unreachable ({1}), "
+                            + "using the cached package", new Object[]{
+                                download.getUrl(), ex});
+                    response = null;
+                    break;
+                }
+                if (attempt == MAX_ATTEMPTS || !isRetryable(ex)
+                        || Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+                LOGGER.log(Level.WARNING, "download of {0} failed ({1}), "
+                        + "resuming it", new Object[]{download.getUrl(), ex});
+                Thread.sleep(RETRY_DELAY << (attempt - 1));
+            }
+        }
+        if (response == null) {
+            // unchanged since it was cached
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(validatorFile);
+            return file;
+        }
+        Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(validatorFile);
+        long size = Files.size(file);
+        LOGGER.log(Level.INFO, "downloaded {0} ({1} bytes) in {2} s",
+                new Object[]{download.getUrl(), size,
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)});
+        if (size == response.length) {
+            cache.store(download.getUrl(), file, response.etag,
+                    response.lastModified);
+        } else {
+            LOGGER.log(Level.INFO, "not caching {0}, its length is unknown",
+                    download.getUrl());
+        }
+        return file;
+    }
+
+    /**
+     * Checks if a transfer failed because the server (or the proxy) can't be
+     * reached at all, e.g. without network connection.
+     *
+     * @param ex the error of the transfer
+     * @return true if the server can't be reached
+     */
+    private static boolean isUnreachable(IOException ex) {
+        return ex instanceof UnknownHostException
+                || ex instanceof ConnectException
+                || ex instanceof NoRouteToHostException
+                || ex instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Checks if a failed transfer should be tried again. Connection errors
+     * (e.g. a timeout or a connection closed too early), server errors (5xx)
+     * and discarded part files are retried. Other HTTP errors (e.g. 407
+     * Proxy Authentication Required), tunnels refused by the proxy, redirects
+     * which aren't followed (e.g. from http to https), protocol errors and
+     * errors of the local files fail at once.
+     *
+     * @param ex the error of the transfer
+     * @return true if the transfer should be tried again
+     */
+    private static boolean isRetryable(IOException ex) {
+        if (ex instanceof HttpStatusException) {
+            return ((HttpStatusException) ex).getStatus()
+                    >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        String message = ex.getMessage();
+        if (message != null && message.startsWith(TUNNEL_FAILED)) {
+            // the proxy refused the CONNECT, e.g. with 407
+            return false;
+        }
+        // e.g. a redirect loop
+        return !(ex instanceof ProtocolException
+                || ex instanceof FileSystemException);
+    }
+
+    /**
+     * Transfers the rest of a file into the part file.
+     * <br>
+     * The part file is only resumed if the server confirms with the stored
+     * validator that the file hasn't changed, otherwise the whole file is
+     * transferred. A file which isn't resumed is only transferred if it has
+     * changed since it was cached.
+     *
+     * @param url the URL of the file
+     * @param part the part file containing the beginning of the file
+     * @param proxy the proxy
+     * @param cached the cached version of the file or null
+     * @return the response which completed the file or null if the cached
+     * version is still valid
+     * @throws IOException if the transfer failed
+     */
+    private static Response transfer(URL url, Path part, Proxy proxy,
+            PackageCache.Entry cached) throws IOException {
+        Path validatorFile = getValidatorFile(part);
+        try (FileChannel channel = FileChannel.open(part,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = channel.size();
+            String ifRange = position > 0 ? readValidator(validatorFile) : null;
+            if (ifRange == null) {
+                // the part might belong to another version of the file
+                position = 0;
+            }
+            URLConnection connection = url.openConnection(proxy);
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            // the length of the whole file
+            long length;
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection http = (HttpURLConnection) connection;
+                boolean conditional = position == 0 && cached != null;
+                if (position > 0) {
+                    http.setRequestProperty("Range", "bytes=" + position + "-");
+                    http.setRequestProperty("If-Range", ifRange);
+                } else if (conditional) {
+                    if (cached.getEtag() != null) {
+                        http.setRequestProperty(
+                                "If-None-Match", cached.getEtag());
+                    }
+                    if (cached.getLastModified() != null) {
+                        http.setRequestProperty(
+                                "If-Modified-Since", cached.getLastModified());
+                    }
+                }
+                int status = http.getResponseCode();
+                if (conditional
+                        && status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    http.disconnect();
+                    return null;
+                } else if (status == HttpURLConnection.HTTP_OK) {
+                    // no support for ranges or the file has changed
+                    position = 0;
+                    length = connection.getContentLengthLong();
+                } else if (status == HttpURLConnection.HTTP_PARTIAL) {
+                    String contentRange = http.getHeaderField("Content-Range");
+                    Matcher range = contentRange != null
+                            ? CONTENT_RANGE_PATTERN.matcher(contentRange)
+                            : null;
+                    if (range == null || !range.matches()
+                            || Long.parseLong(range.group(1)) != position) {
+                        channel.truncate(0);
+                        throw new IOException("unexpected range "
+                                + contentRange + " for " + url
+                                + ", restarting the download");
+                    }
+                    length = range.group(2).equals("*")
+                            ? -1 : Long.parseLong(range.group(2));
+                } else if (status == 416) {
+                    // Range Not Satisfiable, the part file is invalid
+                    channel.truncate(0);
+                    throw new IOException("invalid part file " + part);
+                } else {
+                    // redirects to another protocol aren't followed
+                    String location = http.getHeaderField("Location");
+                    throw new HttpStatusException(status, "HTTP status "
+                            + status + " for " + url + (location != null
+                                    ? ", not following redirect to "
+                                    + location : ""));
+                }
+            } else {
+                // e.g. ftp, which can't be resumed
+                position = 0;
+                length = connection.getContentLengthLong();
+            }
+            if (position == 0) {
+                channel.truncate(0);
+                writeValidator(validatorFile, connection);
+            }
+            try (ReadableByteChannel in
+                    = Channels.newChannel(connection.getInputStream())) {
+                long count;
+                while ((count = channel.transferFrom(
+                        in, position, TRANSFER_SIZE)) > 0) {
+                    position += count;
+                }
+            }
+            if (length >= 0 && position > length) {
+                channel.truncate(0);
+                throw new IOException("received " + position + " bytes of "
+                        + url + " instead of " + length);
+            }
+            if (length >= 0 && position < length) {
+                throw new EOFException("connection to " + url.getHost()
+                        + " closed after " + position + " of " + length
+                        + " bytes");
+            }
+            return new Response(length, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"));
+        }
+    }
+
+    private static Path getValidatorFile(Path part) {
+        return part.resolveSibling(part.getFileName() + ".validator");
+    }
+
+    /**
+     * Reads the validator of a part file.
+     *
+     * @param validatorFile the file containing the validator
+     * @return the value of the If-Range header or null if the part file
+     * can't be resumed
+     */
+    private static String readValidator(Path validatorFile) {
+        try {
+            String validator = new String(Files.readAllBytes(validatorFile),
+                    StandardCharsets.UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the validator of a file which is transferred from the start.
+     * Weak ETags can't be used to resume a transfer.
+     *
+     * @param validatorFile the file containing the validator
+     * @param connection the connection transferring the file
+     * @throws IOException if the validator can't be written
+     */
+    private static void writeValidator(Path validatorFile,
+            URLConnection connection) throws IOException {
+        String validator = connection.getHeaderField("ETag");
+        if (validator == null || validator.startsWith("W/")) {
+            validator = connection.getHeaderField("Last-Modified");
+        }
+        if (validator == null) {
+            Files.deleteIfExists(validatorFile);
+        } else {
+            Files.write(validatorFile,
+                    validator.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * The response which completed a transfer.
+     */
+    private static final class Response {
+
+        /**
+         * The length of the whole file, -1 if unknown.
+         */
+        private final long length;
+        private final String etag;
+        private final String lastModified;
+
+        Response(long length, String etag, String lastModified) {
+            this.length = length;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * An HTTP response with an unexpected status.
+     */
+    private static final class HttpStatusException extends IOException {
+
+        private final int status;
+
+        HttpStatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * A package which is downloaded.
+     */
+    public static final class Download {
+
+        private final String url;
+        private final Path file;
+
+        /**
+         * Creates a new Download.
+         *
+         * @param url the URL of the package
+         * @param file the file the package is saved to
+         */
+        public Download(String url, Path file) {
+            this.url = url;
+            this.file = file;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+    }
+}
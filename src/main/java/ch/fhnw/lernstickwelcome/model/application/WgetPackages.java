@@ -18,8 +18,10 @@ package ch.fhnw.lernstickwelcome.model.application;
 
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * This class creates an apt-get command out of packages which should be
@@ -27,6 +29,10 @@ import java.util.List;
  * <br>
  * Requires the packages which should be get from the fetchUrl. The packages
  * temporarely saved to the saveDir.
+ * <br>
+ * The packages are downloaded by the {@link PackageDownloader} before the
+ * command is executed, the command only downloads a package with wget if it
+ * is missing.
  *
  * @see ApplicationPackages
  * @author sschw
@@ -70,6 +76,21 @@ public class WgetPackages extends ApplicationPackages {
         }
     }
 
+    @Override
+    public double getEstimatedCost() {
+        // downloading the packages takes much longer than installing them
+        return getNumberOfPackages() * 60;
+    }
+
+    @Override
+    public List<PackageDownloader.Download> getDownloads() {
+        return getPackageNames().stream()
+                .map(packageName -> new PackageDownloader.Download(
+                        MessageFormat.format(fetchUrl, packageName),
+                        Paths.get(saveDir, packageName)))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public String getInstallCommand(ProxyTask proxy) {
 
@@ -77,6 +98,8 @@ public class WgetPackages extends ApplicationPackages {
 
         builder.append("cd ").append(saveDir).append('\n');
         for (String packageName : getPackageNames()) {
+            // only if the PackageDownloader failed
+            builder.append("[ -f ").append(packageName).append(" ] || ");
             builder.append("wget").append(proxy.getWgetProxy());
             builder.append("-O ").append(packageName).append(' ');
             builder.append(MessageFormat.format(fetchUrl, packageName));
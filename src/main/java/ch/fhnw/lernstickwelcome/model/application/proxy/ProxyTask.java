@@ -16,7 +16,14 @@
  */
 package ch.fhnw.lernstickwelcome.model.application.proxy;
 
+import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
@@ -36,6 +43,17 @@ import javafx.concurrent.Task;
  */
 public class ProxyTask implements Processable<String> {
 
+    private static final String TUNNELING_DISABLED_SCHEMES
+            = "jdk.http.auth.tunneling.disabledSchemes";
+
+    static {
+        // The JDK doesn't send Basic credentials when opening a tunnel for
+        // https through the proxy, unless the scheme is enabled.
+        if (System.getProperty(TUNNELING_DISABLED_SCHEMES) == null) {
+            System.setProperty(TUNNELING_DISABLED_SCHEMES, "");
+        }
+    }
+
     private BooleanProperty proxyActive = new SimpleBooleanProperty();
     private StringProperty hostname = new SimpleStringProperty();
     private StringProperty port = new SimpleStringProperty();
@@ -50,6 +68,7 @@ public class ProxyTask implements Processable<String> {
      * Settings of previous starts wont be saved.
      */
     public ProxyTask() {
+        Authenticator.setDefault(new ProxyAuthenticator());
     }
 
     public String getWgetProxy() {
@@ -60,6 +79,45 @@ public class ProxyTask implements Processable<String> {
         return aptGetProxy;
     }
 
+    /**
+     * Returns the proxy for connections opened by Java, e.g. downloads. The
+     * credentials of the proxy are supplied by the default
+     * {@link Authenticator}, which is set by this task.
+     *
+     * @return the HTTP proxy or {@link Proxy#NO_PROXY} if no proxy is set
+     * @throws IOException if the port of the proxy is invalid
+     */
+    public Proxy getProxy() throws IOException {
+        String host = hostname.get();
+        if (!proxyActive.get() || host == null || host.trim().isEmpty()) {
+            return Proxy.NO_PROXY;
+        }
+        int proxyPort = getPort();
+        if (proxyPort < 0) {
+            throw new IOException("invalid proxy port " + port.get());
+        }
+        return new Proxy(Proxy.Type.HTTP,
+                InetSocketAddress.createUnresolved(host.trim(), proxyPort));
+    }
+
+    /**
+     * Returns the port of the proxy.
+     *
+     * @return the port, 80 if none is set, or -1 if it isn't a valid port
+     */
+    private int getPort() {
+        String portString = port.get();
+        if (portString == null || portString.trim().isEmpty()) {
+            return 80;
+        }
+        try {
+            int portNumber = Integer.parseInt(portString.trim());
+            return portNumber > 0 && portNumber <= 65535 ? portNumber : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
     /**
      * Modifies the wgetProxy-String to allow a connection over a proxy when
      * calling a wget command.
@@ -130,21 +188,54 @@ public class ProxyTask implements Processable<String> {
         return password;
     }
 
+    @Override
+    public double getEstimatedCost() {
+        return 0.1;
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
     }
 
+    /**
+     * Supplies the credentials of the proxy to connections opened by Java.
+     * Unlike a Proxy-Authorization header they are also sent when a tunnel
+     * for https is opened (CONNECT). Servers and other proxies don't get
+     * them.
+     */
+    private class ProxyAuthenticator extends Authenticator {
+
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+            String host = hostname.get();
+            String user = username.get();
+            if (getRequestorType() != RequestorType.PROXY
+                    || !proxyActive.get() || host == null
+                    || !host.trim().equalsIgnoreCase(getRequestingHost())
+                    || getRequestingPort() != getPort()
+                    || user == null || user.isEmpty()) {
+                return null;
+            }
+            return new PasswordAuthentication(user, password.get() == null
+                    ? new char[0] : password.get().toCharArray());
+        }
+    }
+
     /**
      * Task for {@link #newTask() }
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
             updateProgress(0, 1);
             if (proxyActive.get()) {
+                if (getPort() < 0) {
+                    throw new ProcessingException(
+                            "ProxyTask.Error_Port", port.get());
+                }
                 updateTitle("ProxyTask.title");
                 updateMessage("ProxyTask.message");
                 setupWgetProxy();
@@ -18,18 +18,19 @@ package ch.fhnw.lernstickwelcome.model.backup;
 
 import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
+import ch.fhnw.lernstickwelcome.util.FileOperations;
 import ch.fhnw.lernstickwelcome.util.WelcomeUtil;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
 import ch.fhnw.util.Partition;
-import ch.fhnw.util.ProcessExecutor;
 import ch.fhnw.util.StorageDevice;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -65,8 +66,8 @@ public class BackupTask implements Processable<String> {
 
     private final static Logger LOGGER
             = Logger.getLogger(BackupTask.class.getName());
-    private final static ProcessExecutor PROCESS_EXECUTOR
-            = WelcomeModelFactory.getProcessExecutor();
+    private final static CommandExecutor COMMAND_EXECUTOR
+            = WelcomeModelFactory.getCommandExecutor();
 
     private Partition exchangePartition;
     private Properties properties;
@@ -150,8 +151,9 @@ public class BackupTask implements Processable<String> {
 
             String[] files = dirFile.list();
             if ((files != null) && (files.length != 0)) {
-                int returnValue = PROCESS_EXECUTOR.executeProcess(
-                        "rdiff-backup", "-l", dirFile.getAbsolutePath());
+                int returnValue = COMMAND_EXECUTOR.execute(
+                        "rdiff-backup", "-l", dirFile.getAbsolutePath())
+                        .getExitCode();
                 if (returnValue != 0) {
                     throw new ProcessingException(
                             "BackupTask.Error_Backup_Directory_Invalid",
@@ -162,9 +164,8 @@ public class BackupTask implements Processable<String> {
 
         // determine device where the directory is located
         // (df takes care for symlinks etc.)
-        PROCESS_EXECUTOR.executeProcess(
-                true, true, "df", destinationPath.get());
-        List<String> stdOut = PROCESS_EXECUTOR.getStdOutList();
+        List<String> stdOut = COMMAND_EXECUTOR.execute(
+                "df", destinationPath.get()).getStdOutList();
         String device = null;
         for (String line : stdOut) {
             if (line.startsWith("/dev/")) {
@@ -238,7 +239,6 @@ public class BackupTask implements Processable<String> {
     private void updateJBackpackProperties(File prefsDirectory, 
             String backupSource, String backupDestination, boolean chown) {
         File prefsFile = new File(prefsDirectory, "prefs.xml");
-        String prefsFilePath = prefsFile.getPath();
         if (prefsFile.exists()) {
             try {
                 Document xmlBootDocument = WelcomeUtil.parseXmlFile(prefsFile);
@@ -266,7 +266,6 @@ public class BackupTask implements Processable<String> {
                 }
 
                 // write changes back to config file
-                File tmpFile = File.createTempFile("lernstickWelcome", "tmp");
                 TransformerFactory transformerFactory
                         = TransformerFactory.newInstance();
                 Transformer transformer = transformerFactory.newTransformer();
@@ -274,12 +273,9 @@ public class BackupTask implements Processable<String> {
                 transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM,
                         "http://java.sun.com/dtd/preferences.dtd");
                 DOMSource source = new DOMSource(xmlBootDocument);
-                StreamResult result = new StreamResult(tmpFile);
-                transformer.transform(source, result);
-                PROCESS_EXECUTOR.executeProcess(
-                        "mv", tmpFile.getPath(), prefsFilePath);
-                PROCESS_EXECUTOR.executeProcess(
-                        "chown", "user.user", prefsFilePath);
+                FileOperations.writeAtomically(prefsFile.toPath(), out
+                        -> transformer.transform(source, new StreamResult(out)));
+                FileOperations.setOwner(prefsFile.toPath(), "user", "user");
 
             } catch (ParserConfigurationException | SAXException
                     | IOException | DOMException | TransformerException ex) {
@@ -303,17 +299,18 @@ public class BackupTask implements Processable<String> {
                     + "  <entry key=\"source\" value=\"" + sourcePath.get() + "\"/>\n"
                     + "</map>\n";
 
-            try (OutputStreamWriter osw = new OutputStreamWriter(
-                    new FileOutputStream(prefsFile), Charset.defaultCharset())) {
-                osw.write(preferences);
-                osw.flush();
+            try {
+                FileOperations.writeAtomically(prefsFile.toPath(), out
+                        -> out.write(preferences.getBytes(
+                                Charset.defaultCharset())));
+                if (chown) {
+                    FileOperations.setOwnerRecursively(
+                            Paths.get(WelcomeConstants.USER_JAVA_DIRECTORY),
+                            "user", "user");
+                }
             } catch (IOException ex) {
                 LOGGER.log(Level.WARNING, "", ex);
             }
-            if (chown) {
-                PROCESS_EXECUTOR.executeProcess(
-                        "chown", "-R", "user.user", "/home/user/.java/");
-            }
         }
     }
 
@@ -357,6 +354,59 @@ public class BackupTask implements Processable<String> {
         return frequency;
     }
 
+    /**
+     * Returns the backup configuration as it is saved in the property file.
+     *
+     * @return the backup related properties
+     */
+    private Properties getBackupProperties() {
+        Properties backupProperties = new Properties();
+        backupProperties.setProperty(WelcomeConstants.BACKUP,
+                active.get() ? "true" : "false");
+        backupProperties.setProperty(WelcomeConstants.BACKUP_SCREENSHOT,
+                screenshot.get() ? "true" : "false");
+        backupProperties.setProperty(WelcomeConstants.BACKUP_DIRECTORY_ENABLED,
+                local.get() ? "true" : "false");
+        backupProperties.setProperty(WelcomeConstants.BACKUP_PARTITION_ENABLED,
+                partition.get() ? "true" : "false");
+        backupProperties.setProperty(WelcomeConstants.BACKUP_SOURCE,
+                sourcePath.get() != null ? sourcePath.get() : "");
+        backupProperties.setProperty(WelcomeConstants.BACKUP_DIRECTORY,
+                destinationPath.get() != null ? destinationPath.get() : "");
+        backupProperties.setProperty(WelcomeConstants.BACKUP_PARTITION,
+                partitionPath.get() != null ? partitionPath.get() : "");
+        backupProperties.setProperty(WelcomeConstants.BACKUP_FREQUENCY,
+                Integer.toString(frequency.get()));
+        return backupProperties;
+    }
+
+    /**
+     * Checks if the backup configuration differs from the property file.
+     *
+     * @return true if the backup has to be configured
+     */
+    @Override
+    public boolean hasChanges() {
+        Properties backupProperties = getBackupProperties();
+        for (String key : backupProperties.stringPropertyNames()) {
+            if (!backupProperties.getProperty(key).equals(
+                    properties.getProperty(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        return 3;
+    }
+
+    @Override
+    public long getTaskTimeout() {
+        return 300;
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
@@ -367,7 +417,7 @@ public class BackupTask implements Processable<String> {
      *
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
@@ -391,22 +441,7 @@ public class BackupTask implements Processable<String> {
             }
             updateProgress(1, 2);
             updateMessage("BackupTask.saveConfig");
-            properties.setProperty(WelcomeConstants.BACKUP,
-                    active.get() ? "true" : "false");
-            properties.setProperty(WelcomeConstants.BACKUP_SCREENSHOT,
-                    screenshot.get() ? "true" : "false");
-            properties.setProperty(WelcomeConstants.BACKUP_DIRECTORY_ENABLED,
-                    local.get() ? "true" : "false");
-            properties.setProperty(WelcomeConstants.BACKUP_PARTITION_ENABLED,
-                    partition.get() ? "true" : "false");
-            properties.setProperty(WelcomeConstants.BACKUP_SOURCE,
-                    sourcePath.get() != null ? sourcePath.get() : "");
-            properties.setProperty(WelcomeConstants.BACKUP_DIRECTORY,
-                    destinationPath.get() != null ? destinationPath.get() : "");
-            properties.setProperty(WelcomeConstants.BACKUP_PARTITION,
-                    partitionPath.get() != null ? partitionPath.get() : "");
-            properties.setProperty(WelcomeConstants.BACKUP_FREQUENCY,
-                    Integer.toString(frequency.get()));
+            properties.putAll(getBackupProperties());
             updateProgress(2, 2);
             return null;
         }
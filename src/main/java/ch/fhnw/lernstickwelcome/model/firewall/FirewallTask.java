@@ -18,9 +18,13 @@ package ch.fhnw.lernstickwelcome.model.firewall;
 
 import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
-import ch.fhnw.util.ProcessExecutor;
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileInputStream;
@@ -31,11 +35,10 @@ import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ListProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -53,8 +56,8 @@ import javafx.concurrent.Task;
  */
 public class FirewallTask implements Processable<String> {
 
-    private final static ProcessExecutor PROCESS_EXECUTOR
-            = WelcomeModelFactory.getProcessExecutor();
+    private final static CommandExecutor COMMAND_EXECUTOR
+            = WelcomeModelFactory.getCommandExecutor();
     private final static Logger LOGGER
             = Logger.getLogger(FirewallTask.class.getName());
     private ListProperty<IpFilter> ipList
@@ -62,13 +65,15 @@ public class FirewallTask implements Processable<String> {
     private ListProperty<WebsiteFilter> websiteList
             = new SimpleListProperty<>(FXCollections.observableArrayList());
     private List<WebsiteFilter> savedWebsiteList = new ArrayList<>();
+    // content of the config files as loaded or saved the last time
+    private String savedIpTables;
+    private String savedUrlWhitelist;
     private BooleanProperty firewallRunning = new SimpleBooleanProperty();
-    private final Timer timer;
+    private Future<?> stateChecking;
 
     /**
      * Creates a FirewallTask by loading the {@link #parseNetWhiteList()
-     * Server Whitelist, {@link #parseURLWhiteList()  Website Whitelist and
-     * starting a {@link Timer} to load the firewall state every 3 seconds.
+     * Server Whitelist and {@link #parseURLWhiteList()  Website Whitelist.
      */
     public FirewallTask() {
         try {
@@ -83,23 +88,30 @@ public class FirewallTask implements Processable<String> {
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "", ex);
         }
+        savedIpTables = getIpTablesContent();
+        savedUrlWhitelist = getUrlWhitelistContent();
+    }
 
-        // start periodic firewall status check
-        timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                updateFirewallState();
-            }
-
-        }, 0, 3000);
+    /**
+     * Starts loading the firewall state every 3 seconds.
+     *
+     * @param executor the executor running the checks
+     */
+    public void startFirewallStateChecking(BackgroundExecutor executor) {
+        stopFirewallStateChecking();
+        stateChecking = executor.scheduleAtFixedRate(
+                BackgroundExecutor.Pool.PROCESS, this::updateFirewallState,
+                3, TimeUnit.SECONDS);
     }
 
     /**
-     * Stops the timer in order to stop the background thread.
+     * Stops loading the firewall state.
      */
     public void stopFirewallStateChecking() {
-        timer.cancel();
+        if (stateChecking != null) {
+            stateChecking.cancel(false);
+            stateChecking = null;
+        }
     }
 
     /**
@@ -109,22 +121,22 @@ public class FirewallTask implements Processable<String> {
      */
     public void toggleFirewallState() throws ProcessingException {
         String action = firewallRunning.get() ? "stop" : "start";
-        int ret = PROCESS_EXECUTOR.executeProcess(
-                true, true, "systemctl", action, "lernstick-firewall");
+        CommandResult result = COMMAND_EXECUTOR.execute(
+                "systemctl", action, "lernstick-firewall");
 
-        if (ret == 0) {
+        if (result.isSuccess()) {
             firewallRunning.set(!firewallRunning.get());
             // check firewall state
-            firewallRunning.set(PROCESS_EXECUTOR.executeProcess(
-                    "lernstick-firewall", "status") == 0);
+            firewallRunning.set(COMMAND_EXECUTOR.execute(
+                    "lernstick-firewall", "status").isSuccess());
         } else {
             LOGGER.log(Level.WARNING,
                     action + "ing lernstick-firewall failed, return code {0} "
                     + "stdout: '{1}', stderr: '{2}'",
                     new Object[]{
-                        ret,
-                        PROCESS_EXECUTOR.getStdOut(),
-                        PROCESS_EXECUTOR.getStdErr()
+                        result.getExitCode(),
+                        result.getStdOut(),
+                        result.getStdErr()
                     });
             String messageId = firewallRunning.get()
                     ? "FirewallTask.Stop_firewall_error"
@@ -138,9 +150,10 @@ public class FirewallTask implements Processable<String> {
      * firewall.
      */
     private void updateFirewallState() {
-        boolean running = PROCESS_EXECUTOR.executeProcess(
-                "lernstick-firewall", "status") == 0;
-        Platform.runLater(() -> firewallRunning.set(running));
+        boolean running = COMMAND_EXECUTOR.execute(
+                "lernstick-firewall", "status").isSuccess();
+        UpdateDispatcher.post(firewallRunning,
+                () -> firewallRunning.set(running));
     }
 
     /**
@@ -211,10 +224,52 @@ public class FirewallTask implements Processable<String> {
         }
     }
 
+    /**
+     * Returns the content of the ip whitelist config file for the current ip
+     * whitelist entries.
+     *
+     * @return the config file content
+     */
+    private String getIpTablesContent() {
+        StringBuilder sb = new StringBuilder();
+        for (IpFilter ip : ipList) {
+            // comment
+            sb.append("# ");
+            sb.append(ip.getDescription());
+            sb.append('\n');
+            // protocol
+            sb.append(ip.getProtocol());
+            sb.append(' ');
+            // target
+            sb.append(ip.getIpAddress());
+            sb.append(' ');
+            // port
+            sb.append(ip.getPortRange());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the content of the url whitelist config file for the current
+     * url whitelist entries.
+     *
+     * @return the config file content
+     */
+    private String getUrlWhitelistContent() {
+        StringBuilder sb = new StringBuilder();
+        for (WebsiteFilter website : websiteList) {
+            sb.append(website.getSearchPattern());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
     /**
      * Saves the ip whitelist entries into the config file.
      */
     private void saveIpTables() {
+        String content = getIpTablesContent();
         try (BufferedWriter bw = new BufferedWriter(
                 new OutputStreamWriter(
                         new FileOutputStream(
@@ -222,24 +277,8 @@ public class FirewallTask implements Processable<String> {
                         ), Charset.defaultCharset()
                 )
         )) {
-            for (IpFilter ip : ipList) {
-                StringBuilder sb = new StringBuilder();
-                // comment
-                sb.append("# ");
-                sb.append(ip.getDescription());
-                sb.append('\n');
-                // protocol
-                sb.append(ip.getProtocol().toString());
-                sb.append(' ');
-                // target
-                sb.append(ip.getIpAddress());
-                sb.append(' ');
-                // port
-                sb.append(ip.getPortRange());
-                sb.append('\n');
-                // write line to file
-                bw.write(sb.toString());
-            }
+            bw.write(content);
+            savedIpTables = content;
         } catch (IOException ex) {
             LOGGER.log(Level.WARNING, "", ex);
         }
@@ -250,6 +289,7 @@ public class FirewallTask implements Processable<String> {
      */
     public void saveUrlWhitelist() {
         // save URL whitelist
+        String content = getUrlWhitelistContent();
         try (BufferedWriter bw = new BufferedWriter(
                 new OutputStreamWriter(
                         new FileOutputStream(
@@ -257,12 +297,8 @@ public class FirewallTask implements Processable<String> {
                         ), Charset.defaultCharset()
                 )
         )) {
-            for (WebsiteFilter website : websiteList) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(website.getSearchPattern());
-                sb.append('\n');
-                bw.write(sb.toString());
-            }
+            bw.write(content);
+            savedUrlWhitelist = content;
         } catch (IOException ex) {
             LOGGER.log(Level.WARNING, "", ex);
         }
@@ -285,6 +321,28 @@ public class FirewallTask implements Processable<String> {
                 || !savedWebsiteList.containsAll(websiteList);
     }
 
+    /**
+     * Checks if the whitelists were changed since they were loaded or saved.
+     *
+     * @return true if a whitelist has to be saved and the firewall reloaded
+     */
+    @Override
+    public boolean hasChanges() {
+        return !getIpTablesContent().equals(savedIpTables)
+                || !getUrlWhitelistContent().equals(savedUrlWhitelist);
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        // restarting the firewall and squid
+        return 2;
+    }
+
+    @Override
+    public long getTaskTimeout() {
+        return 120;
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
@@ -295,7 +353,7 @@ public class FirewallTask implements Processable<String> {
      *
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
@@ -316,7 +374,7 @@ public class FirewallTask implements Processable<String> {
             updateProgress(2, 3);
             updateMessage("FirewallTask.restartFirewall");
 
-            PROCESS_EXECUTOR.executeProcess(
+            COMMAND_EXECUTOR.execute(
                     "/lib/systemd/lernstick-firewall", "reload");
 
             updateProgress(3, 3);
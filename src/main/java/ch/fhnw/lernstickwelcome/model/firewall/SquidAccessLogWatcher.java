@@ -18,6 +18,7 @@ package ch.fhnw.lernstickwelcome.model.firewall;
 
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.firewall.WebsiteFilter.SearchPattern;
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -28,7 +29,6 @@ import java.io.LineNumberReader;
 import java.nio.charset.Charset;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.application.Platform;
 import javafx.beans.property.ListProperty;
 import javafx.beans.property.SimpleListProperty;
 import javafx.collections.FXCollections;
@@ -118,7 +118,7 @@ public class SquidAccessLogWatcher implements Runnable {
                     return;
                 }
             }
-            Platform.runLater(() -> websiteList.add(newElement));
+            UpdateDispatcher.execute(() -> websiteList.add(newElement));
         }
     }
 }
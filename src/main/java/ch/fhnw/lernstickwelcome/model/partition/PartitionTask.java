@@ -17,10 +17,11 @@
 package ch.fhnw.lernstickwelcome.model.partition;
 
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
 import ch.fhnw.util.Partition;
-import ch.fhnw.util.ProcessExecutor;
 import ch.fhnw.util.StorageDevice;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -45,7 +46,7 @@ import org.freedesktop.dbus.exceptions.DBusException;
 public class PartitionTask implements Processable<String> {
 
     private static final Logger LOGGER = Logger.getLogger(PartitionTask.class.getName());
-    private static final ProcessExecutor PROCESS_EXECUTOR = WelcomeModelFactory.getProcessExecutor();
+    private static final CommandExecutor COMMAND_EXECUTOR = WelcomeModelFactory.getCommandExecutor();
     private Partition exchangePartition;
     private Properties properties;
 
@@ -116,7 +117,7 @@ public class PartitionTask implements Processable<String> {
                 exchangePartition.umount();
             }
             // Change label by calling binary /dev/device_name new_label
-            PROCESS_EXECUTOR.executeProcess(binary,
+            COMMAND_EXECUTOR.execute(binary,
                     "/dev/" + exchangePartition.getDeviceAndNumber(),
                     exchangePartitionLabel.get());
             if (tmpUmount) {
@@ -151,6 +152,39 @@ public class PartitionTask implements Processable<String> {
         return showReadWriteWelcome;
     }
 
+    /**
+     * Checks if the label or the settings differ from the loaded values.
+     *
+     * @return true if the label or the properties have to be updated
+     */
+    @Override
+    public boolean hasChanges() {
+        return hasLabelChanged()
+                || !Boolean.toString(showReadWriteWelcome.get()).equals(
+                        properties.getProperty(WelcomeConstants.SHOW_WELCOME))
+                || !Boolean.toString(showReadOnlyInfo.get()).equals(
+                        properties.getProperty(WelcomeConstants.SHOW_READ_ONLY_INFO))
+                || !Boolean.toString(accessExchangePartition.get()).equals(
+                        properties.getProperty(WelcomeConstants.EXCHANGE_ACCESS));
+    }
+
+    private boolean hasLabelChanged() {
+        return exchangePartitionLabel.get() != null
+                && !exchangePartitionLabel.get().isEmpty()
+                && !exchangePartitionLabel.get().equals(oldExchangePartitionLabel);
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        // relabeling needs to umount and mount the exchange partition
+        return hasLabelChanged() ? 5 : 1;
+    }
+
+    @Override
+    public long getTaskTimeout() {
+        return 300;
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
@@ -161,7 +195,7 @@ public class PartitionTask implements Processable<String> {
      *
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
@@ -173,9 +207,9 @@ public class PartitionTask implements Processable<String> {
                     exchangePartitionLabel.get());
 
             // If exchange partition label has changed - modify it on call
-            if (exchangePartitionLabel.get() != null && !exchangePartitionLabel.get().isEmpty()
-                    && !exchangePartitionLabel.get().equals(oldExchangePartitionLabel)) {
+            if (hasLabelChanged()) {
                 updateExchangePartitionLabel();
+                oldExchangePartitionLabel = exchangePartitionLabel.get();
             }
 
             updateProgress(1, 2);
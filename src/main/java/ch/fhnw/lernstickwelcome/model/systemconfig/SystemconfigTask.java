@@ -18,12 +18,15 @@ package ch.fhnw.lernstickwelcome.model.systemconfig;
 
 import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
 import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
+import ch.fhnw.lernstickwelcome.util.FileOperations;
 import ch.fhnw.lernstickwelcome.util.WelcomeUtil;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
 import ch.fhnw.util.MountInfo;
 import ch.fhnw.util.Partition;
-import ch.fhnw.util.ProcessExecutor;
 import ch.fhnw.util.StorageDevice;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -41,6 +44,7 @@ import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.logging.Level;
@@ -79,8 +83,8 @@ import org.xml.sax.SAXException;
  */
 public class SystemconfigTask implements Processable<String> {
 
-    private final static ProcessExecutor PROCESS_EXECUTOR
-            = WelcomeModelFactory.getProcessExecutor();
+    private final static CommandExecutor COMMAND_EXECUTOR
+            = WelcomeModelFactory.getCommandExecutor();
     private final static Logger LOGGER
             = Logger.getLogger(SystemconfigTask.class.getName());
 
@@ -107,6 +111,12 @@ public class SystemconfigTask implements Processable<String> {
     private MountInfo bootConfigMountInfo;
     private Properties properties;
 
+    // values as loaded or saved the last time
+    private int oldTimeoutSeconds;
+    private String oldSystemname;
+    private String oldSystemversion;
+    private boolean oldAllowAccessToOtherFilesystems;
+
     /**
      * Creates a SystemconfigTask by loading the values from the properties or
      * bootconfig.
@@ -136,6 +146,11 @@ public class SystemconfigTask implements Processable<String> {
         getBootConfigInfos();
         // Load the Username
         getFullUserName();
+        // Remember the loaded values to detect changes
+        oldTimeoutSeconds = timeoutSeconds.get();
+        oldSystemname = systemname.get();
+        oldSystemversion = systemversion.get();
+        oldAllowAccessToOtherFilesystems = allowAccessToOtherFilesystems.get();
     }
 
     /**
@@ -200,11 +215,11 @@ public class SystemconfigTask implements Processable<String> {
 
     /**
      * Read out the full username by running {@code getent passwd user} with the
-     * {@link ProcessExecutor}
+     * {@link CommandExecutor}
      */
     private void getFullUserName() {
-        PROCESS_EXECUTOR.executeProcess(true, true, "getent", "passwd", "user");
-        List<String> stdOut = PROCESS_EXECUTOR.getStdOutList();
+        List<String> stdOut = COMMAND_EXECUTOR.execute(
+                "getent", "passwd", "user").getStdOutList();
         if (stdOut.isEmpty()) {
             LOGGER.warning("getent returned no result!");
         } else {
@@ -298,14 +313,14 @@ public class SystemconfigTask implements Processable<String> {
             // located again on the system partition
 
             // make image temporarily writable
-            PROCESS_EXECUTOR.executeProcess("mount", "-o", "remount,rw",
+            COMMAND_EXECUTOR.execute("mount", "-o", "remount,rw",
                     WelcomeConstants.IMAGE_DIRECTORY);
 
             updateBootloaders(new File(WelcomeConstants.IMAGE_DIRECTORY),
                     timeout, systemName, systemVersion);
 
             // remount image read-only
-            PROCESS_EXECUTOR.executeProcess("mount", "-o", "remount,ro",
+            COMMAND_EXECUTOR.execute("mount", "-o", "remount,ro",
                     WelcomeConstants.IMAGE_DIRECTORY);
         } else {
             // system with a separate boot partition
@@ -330,7 +345,7 @@ public class SystemconfigTask implements Processable<String> {
 
         // syslinux
         for (File syslinuxConfigFile : getSyslinuxConfigFiles(directory)) {
-            PROCESS_EXECUTOR.executeProcess("sed", "-i", "-e",
+            COMMAND_EXECUTOR.execute("sed", "-i", "-e",
                     "s|timeout .*|timeout " + (timeout * 10) + "|1",
                     syslinuxConfigFile.getPath());
         }
@@ -359,24 +374,20 @@ public class SystemconfigTask implements Processable<String> {
                 }
 
                 // write changes back to config file
-                // Create a temp file.
-                File tmpFile = File.createTempFile("lernstickWelcome", "tmp");
                 TransformerFactory transformerFactory
                         = TransformerFactory.newInstance();
                 Transformer transformer = transformerFactory.newTransformer();
                 transformer.setOutputProperty(OutputKeys.INDENT, "yes");
                 DOMSource source = new DOMSource(xmlBootDocument);
-                StreamResult result = new StreamResult(tmpFile);
-                transformer.transform(source, result);
-                // Replace existing bootconfig with the temp file using mv.
-                PROCESS_EXECUTOR.executeProcess("mv", tmpFile.getPath(),
-                        xmlBootConfigFile.getPath());
+                // Replace existing bootconfig atomically
+                FileOperations.writeAtomically(xmlBootConfigFile.toPath(), out
+                        -> transformer.transform(source, new StreamResult(out)));
 
                 // rebuild bootlogo so that the changes are visible right after
                 // reboot
                 File bootlogoDir = xmlBootConfigFile.getParentFile();
                 File syslinuxDir = bootlogoDir.getParentFile();
-                PROCESS_EXECUTOR.executeProcess("gfxboot",
+                COMMAND_EXECUTOR.execute("gfxboot",
                         "--archive", bootlogoDir.getPath(),
                         "--pack-archive", syslinuxDir.getPath() + "/bootlogo");
             } catch (ParserConfigurationException | SAXException | IOException
@@ -388,14 +399,14 @@ public class SystemconfigTask implements Processable<String> {
         // grub
         String grubMainConfigFilePath = directory + "/boot/grub/grub_main.cfg";
         if (new File(grubMainConfigFilePath).exists()) {
-            PROCESS_EXECUTOR.executeProcess("sed", "-i", "-e",
+            COMMAND_EXECUTOR.execute("sed", "-i", "-e",
                     "s|set timeout=.*|set timeout=" + timeout + "|1",
                     grubMainConfigFilePath);
         }
         String grubThemeFilePath
                 = directory + "/boot/grub/themes/lernstick/theme.txt";
         if (new File(grubThemeFilePath).exists()) {
-            PROCESS_EXECUTOR.executeProcess("sed", "-i", "-e",
+            COMMAND_EXECUTOR.execute("sed", "-i", "-e",
                     "s|num_ticks = .*|num_ticks = " + timeout + "|1;"
                     + "s|title-text: .*|title-text: \""
                     + systemName + ' ' + systemVersion + "\"|1",
@@ -577,7 +588,7 @@ public class SystemconfigTask implements Processable<String> {
 
     /**
      * Changes the password of the user by running {@code chpasswd} with the
-     * {@link ProcessExecutor} and calling {@link #passwordEnabled() }.
+     * {@link CommandExecutor} and calling {@link #passwordEnabled() }.
      *
      * @throws ProcessingException
      */
@@ -599,8 +610,8 @@ public class SystemconfigTask implements Processable<String> {
                 + "echo \"user:" + password1 + "\""
                 + " | /usr/sbin/chpasswd\n";
         try {
-            int returnValue = PROCESS_EXECUTOR.executeScript(
-                    true, true, passwordChangeScript);
+            int returnValue = COMMAND_EXECUTOR.executeScript(
+                    passwordChangeScript).getExitCode();
             if (returnValue == 0) {
                 passwordEnabled();
             } else {
@@ -844,6 +855,72 @@ public class SystemconfigTask implements Processable<String> {
         return passwordChanged;
     }
 
+    /**
+     * Checks if the bootloader values differ from the loaded values.
+     *
+     * @return true if the bootloaders have to be updated
+     */
+    private boolean hasBootConfigChanged() {
+        return timeoutSeconds.get() != oldTimeoutSeconds
+                || !Objects.equals(systemname.get(), oldSystemname)
+                || !Objects.equals(systemversion.get(), oldSystemversion);
+    }
+
+    /**
+     * Checks if the direct sound output differs from the state of the alsa
+     * pulse config file.
+     *
+     * @return true if the alsa pulse config file has to be diverted or
+     * restored
+     */
+    private boolean hasSoundOutputChanged() {
+        return directSoundOutput.get()
+                == Files.exists(WelcomeConstants.ALSA_PULSE_CONFIG_FILE);
+    }
+
+    /**
+     * Logs a dpkg-divert command which failed. The sound output can still be
+     * changed manually, so the other settings are applied anyway.
+     *
+     * @param result the result of dpkg-divert
+     */
+    private static void logDivertFailure(CommandResult result) {
+        if (!result.isSuccess()) {
+            LOGGER.log(Level.WARNING, "{0} failed: {1}",
+                    new Object[]{result.getCommand(), result.getOutput()});
+        }
+    }
+
+    /**
+     * Checks if any value differs from the values loaded on construction or
+     * saved the last time.
+     *
+     * @return true if there is something to apply
+     */
+    @Override
+    public boolean hasChanges() {
+        return (username.get() != null && !username.get().equals(oldUsername))
+                || hasBootConfigChanged()
+                || allowAccessToOtherFilesystems.get()
+                != oldAllowAccessToOtherFilesystems
+                || hasSoundOutputChanged()
+                || !Boolean.toString(blockKdeDesktopApplets.get()).equals(
+                        properties.getProperty(WelcomeConstants.KDE_LOCK))
+                || (isExamEnv && password.get() != null
+                && !password.get().isEmpty());
+    }
+
+    @Override
+    public double getEstimatedCost() {
+        // updating the bootloader configs needs to remount the image
+        return hasBootConfigChanged() ? 10 : 1;
+    }
+
+    @Override
+    public long getTaskTimeout() {
+        return 600;
+    }
+
     @Override
     public Task<String> newTask() {
         return new InternalTask();
@@ -854,7 +931,7 @@ public class SystemconfigTask implements Processable<String> {
      *
      * @see Processable
      */
-    private class InternalTask extends Task<String> {
+    private class InternalTask extends ProcessableTask<String> {
 
         @Override
         protected String call() throws Exception {
@@ -867,38 +944,49 @@ public class SystemconfigTask implements Processable<String> {
             if (!username.get().equals(oldUsername)) {
                 LOGGER.log(Level.INFO,
                         "updating full user name to \"{0}\"", username.get());
-                PROCESS_EXECUTOR.executeProcess(
+                COMMAND_EXECUTOR.execute(
                         "chfn", "-f", username.get(), "user");
+                oldUsername = username.get();
             }
 
             updateProgress(1, 6);
             updateMessage("SystemconfigTask.bootloader");
 
             // Update bootloader
-            if (WelcomeUtil.isImageWritable()) {
+            if (hasBootConfigChanged() && WelcomeUtil.isImageWritable()) {
                 updateBootloaders();
+                oldTimeoutSeconds = timeoutSeconds.get();
+                oldSystemname = systemname.get();
+                oldSystemversion = systemversion.get();
             }
 
             updateProgress(2, 6);
             updateMessage("SystemconfigTask.setup");
 
             // Update allow filesystem mount
-            updateAllowFilesystemMount();
+            if (allowAccessToOtherFilesystems.get()
+                    != oldAllowAccessToOtherFilesystems) {
+                updateAllowFilesystemMount();
+                oldAllowAccessToOtherFilesystems
+                        = allowAccessToOtherFilesystems.get();
+            }
 
             updateProgress(3, 6);
 
             // Update direct sound
+            String alsaPulseConfig
+                    = WelcomeConstants.ALSA_PULSE_CONFIG_FILE.toString();
             if (Files.exists(WelcomeConstants.ALSA_PULSE_CONFIG_FILE)) {
                 if (directSoundOutput.get()) {
                     // divert alsa pulse config file
-                    PROCESS_EXECUTOR.executeProcess("dpkg-divert", "--rename",
-                            WelcomeConstants.ALSA_PULSE_CONFIG_FILE.toString());
+                    logDivertFailure(COMMAND_EXECUTOR.execute(
+                            "dpkg-divert", "--rename", alsaPulseConfig));
                 }
             } else if (!directSoundOutput.get()) {
                 // restore original alsa pulse config file
-                PROCESS_EXECUTOR.executeProcess(
+                logDivertFailure(COMMAND_EXECUTOR.execute(
                         "dpkg-divert", "--remove", "--rename",
-                        WelcomeConstants.ALSA_PULSE_CONFIG_FILE.toString());
+                        alsaPulseConfig));
             }
 
             updateProgress(4, 6);
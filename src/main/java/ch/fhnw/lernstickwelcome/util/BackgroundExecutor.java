@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs all background work of the application.
+ * <br>
+ * The work is divided into {@link Pool}s with a bounded number of named
+ * threads, so e.g. waiting for a log file can't delay the processes started
+ * by the tasks. Every pool counts its tasks and measures how long they waited
+ * and ran (see {@link #getStatistics(Pool)}).
+ * <br>
+ * The threads are created by a {@link Backend}. By default virtual threads are
+ * used if the JDK supports them, otherwise platform threads. The backend can
+ * be chosen with the system property {@value #BACKEND_PROPERTY}
+ * ({@code platform}, {@code virtual} or {@code auto}).
+ *
+ * @author sschw
+ */
+public class BackgroundExecutor {
+
+    public static final String BACKEND_PROPERTY = "lernstickWelcome.threads";
+    private static final Logger LOGGER
+            = Logger.getLogger(BackgroundExecutor.class.getName());
+    /**
+     * Time in seconds running work gets to finish when shutting down.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 5;
+    private final Backend backend;
+    private final Map<Pool, InstrumentedPool> pools = new EnumMap<>(Pool.class);
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The kinds of background work.
+     */
+    public enum Pool {
+        /**
+         * Work which mostly waits for files, the network or other threads.
+         */
+        IO,
+        /**
+         * Work which runs external processes, e.g. the tasks of the
+         * TaskProcessor.
+         */
+        PROCESS,
+        /**
+         * Downloads, which occupy a thread for minutes and must not delay
+         * the other IO work.
+         */
+        DOWNLOAD
+    }
+
+    /**
+     * Creates the pools with the backend selected by the system property.
+     *
+     * @param ioThreads the maximum number of threads for {@link Pool#IO}
+     * @param processThreads the maximum number of threads for
+     * {@link Pool#PROCESS}
+     * @param downloadThreads the maximum number of threads for
+     * {@link Pool#DOWNLOAD}
+     */
+    public BackgroundExecutor(int ioThreads, int processThreads,
+            int downloadThreads) {
+        this(Backend.fromProperty(System.getProperty(BACKEND_PROPERTY)),
+                ioThreads, processThreads, downloadThreads);
+    }
+
+    /**
+     * Creates the pools.
+     *
+     * @param backend the backend creating the threads
+     * @param ioThreads the maximum number of threads for {@link Pool#IO}
+     * @param processThreads the maximum number of threads for
+     * {@link Pool#PROCESS}
+     * @param downloadThreads the maximum number of threads for
+     * {@link Pool#DOWNLOAD}
+     */
+    public BackgroundExecutor(Backend backend, int ioThreads,
+            int processThreads, int downloadThreads) {
+        this.backend = backend;
+        pools.put(Pool.IO, new InstrumentedPool(ioThreads,
+                backend.newThreadFactory("welcome-io")));
+        pools.put(Pool.PROCESS, new InstrumentedPool(processThreads,
+                backend.newThreadFactory("welcome-process")));
+        pools.put(Pool.DOWNLOAD, new InstrumentedPool(downloadThreads,
+                backend.newThreadFactory("welcome-download")));
+        // Only hands the work over to the pools, one thread is enough
+        ScheduledThreadPoolExecutor scheduledPool
+                = new ScheduledThreadPoolExecutor(1,
+                        Backend.PLATFORM.newThreadFactory("welcome-scheduler"));
+        scheduledPool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduledPool.setRemoveOnCancelPolicy(true);
+        scheduler = scheduledPool;
+        LOGGER.log(Level.INFO, "Using {0} threads", backend);
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the executor service of a pool, e.g. to create a
+     * {@link java.util.concurrent.CompletionService}. The service is shut
+     * down by {@link #shutdown()} and must not be shut down by the caller.
+     *
+     * @param pool the pool
+     * @return the executor service of the pool
+     */
+    public ExecutorService getExecutorService(Pool pool) {
+        return pools.get(pool);
+    }
+
+    /**
+     * Runs the work in a thread of the pool. Exceptions thrown by the work
+     * are logged.
+     *
+     * @param pool the pool
+     * @param work the work
+     */
+    public void execute(Pool pool, Runnable work) {
+        pools.get(pool).execute(work);
+    }
+
+    /**
+     * Runs the work in a thread of the pool.
+     *
+     * @param pool the pool
+     * @param work the work
+     * @return the future of the work, which can be used to cancel it and
+     * reports the exceptions thrown by the work
+     */
+    public Future<?> submit(Pool pool, Runnable work) {
+        return pools.get(pool).submit(work);
+    }
+
+    /**
+     * Runs the work periodically in a thread of the pool. If a run takes
+     * longer than the period the next run is skipped.
+     *
+     * @param pool the pool
+     * @param work the work
+     * @param period the time between two runs, the first run starts
+     * immediately
+     * @param unit the unit of the period
+     * @return the future which cancels further runs
+     */
+    public Future<?> scheduleAtFixedRate(Pool pool, Runnable work,
+            long period, TimeUnit unit) {
+        InstrumentedPool executor = pools.get(pool);
+        AtomicBoolean running = new AtomicBoolean();
+        return scheduler.scheduleAtFixedRate(() -> {
+            if (running.compareAndSet(false, true)) {
+                executor.execute(() -> {
+                    try {
+                        work.run();
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Returns the statistics of a pool.
+     *
+     * @param pool the pool
+     * @return the statistics since the pool was created
+     */
+    public Statistics getStatistics(Pool pool) {
+        return pools.get(pool).statistics;
+    }
+
+    /**
+     * Stops the periodic work, waits a few seconds for the running work and
+     * interrupts it afterwards.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        pools.values().forEach(ThreadPoolExecutor::shutdown);
+        long deadline = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT);
+        for (Map.Entry<Pool, InstrumentedPool> entry : pools.entrySet()) {
+            InstrumentedPool pool = entry.getValue();
+            try {
+                if (!pool.awaitTermination(deadline - System.nanoTime(),
+                        TimeUnit.NANOSECONDS)) {
+                    LOGGER.log(Level.WARNING, "Interrupting {0} work",
+                            entry.getKey());
+                    pool.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            LOGGER.log(Level.INFO, "{0} pool: {1}",
+                    new Object[]{entry.getKey(), pool.statistics});
+        }
+    }
+
+    /**
+     * Creates the threads of the pools.
+     */
+    public enum Backend {
+        /**
+         * Daemon platform threads.
+         */
+        PLATFORM,
+        /**
+         * Virtual threads, only available on JDK 21 and newer.
+         */
+        VIRTUAL;
+
+        /**
+         * Selects the backend by its name. Unknown names select virtual
+         * threads if they are available.
+         *
+         * @param name the name of the backend or null
+         * @return the backend
+         */
+        public static Backend fromProperty(String name) {
+            if ("platform".equalsIgnoreCase(name)) {
+                return PLATFORM;
+            }
+            if ("virtual".equalsIgnoreCase(name)) {
+                if (!isVirtualAvailable()) {
+                    LOGGER.warning("Virtual threads aren't supported");
+                    return PLATFORM;
+                }
+                return VIRTUAL;
+            }
+            return isVirtualAvailable() ? VIRTUAL : PLATFORM;
+        }
+
+        /**
+         * Checks if the JDK supports virtual threads.
+         *
+         * @return true if virtual threads can be created
+         */
+        public static boolean isVirtualAvailable() {
+            try {
+                Thread.class.getMethod("ofVirtual");
+                return true;
+            } catch (NoSuchMethodException ex) {
+                return false;
+            }
+        }
+
+        /**
+         * Creates a factory for threads named prefix-1, prefix-2...
+         *
+         * @param prefix the name of the threads
+         * @return the thread factory
+         */
+        public ThreadFactory newThreadFactory(String prefix) {
+            if (this == VIRTUAL) {
+                try {
+                    // Thread.ofVirtual().name(prefix + "-", 1).factory()
+                    // The API doesn't exist in the JDK the sources target.
+                    Class<?> builderClass
+                            = Class.forName("java.lang.Thread$Builder");
+                    Object builder = Thread.class.getMethod("ofVirtual")
+                            .invoke(null);
+                    Method name = builderClass.getMethod(
+                            "name", String.class, long.class);
+                    builder = name.invoke(builder, prefix + "-", 1L);
+                    return (ThreadFactory) builderClass.getMethod("factory")
+                            .invoke(builder);
+                } catch (ReflectiveOperationException ex) {
+                    LOGGER.log(Level.WARNING,
+                            "Couldn't create virtual threads", ex);
+                }
+            }
+            AtomicInteger counter = new AtomicInteger();
+            return r -> {
+                Thread thread = new Thread(r,
+                        prefix + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * The counters of a pool.
+     */
+    public static class Statistics {
+
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong runNanos = new AtomicLong();
+
+        public long getSubmitted() {
+            return submitted.get();
+        }
+
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        /**
+         * Returns the number of runs which threw an exception. Failures of
+         * submitted work are reported by its future instead (see
+         * {@link BackgroundExecutor#submit(Pool, Runnable)}).
+         *
+         * @return the number of failed runs
+         */
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public int getActive() {
+            return active.get();
+        }
+
+        public int getMaxActive() {
+            return maxActive.get();
+        }
+
+        /**
+         * Returns the total time the work waited for a thread.
+         *
+         * @param unit the unit of the result
+         * @return the total waiting time
+         */
+        public long getWaitTime(TimeUnit unit) {
+            return unit.convert(waitNanos.get(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the longest time a work waited for a thread.
+         *
+         * @param unit the unit of the result
+         * @return the maximum waiting time
+         */
+        public long getMaxWaitTime(TimeUnit unit) {
+            return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the total time the work ran.
+         *
+         * @param unit the unit of the result
+         * @return the total running time
+         */
+        public long getRunTime(TimeUnit unit) {
+            return unit.convert(runNanos.get(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "submitted=" + getSubmitted()
+                    + ", completed=" + getCompleted()
+                    + ", failed=" + getFailed()
+                    + ", active=" + getActive()
+                    + ", maxActive=" + getMaxActive()
+                    + ", waitMs=" + getWaitTime(TimeUnit.MILLISECONDS)
+                    + ", maxWaitMs=" + getMaxWaitTime(TimeUnit.MILLISECONDS)
+                    + ", runMs=" + getRunTime(TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A pool with a fixed maximum number of threads which updates its
+     * statistics. Idle threads are terminated after a while.
+     */
+    private static class InstrumentedPool extends ThreadPoolExecutor {
+
+        private final Statistics statistics = new Statistics();
+        private final ThreadLocal<Long> startTime = new ThreadLocal<>();
+
+        InstrumentedPool(int threads, ThreadFactory threadFactory) {
+            super(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory);
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            statistics.submitted.incrementAndGet();
+            long submitTime = System.nanoTime();
+            super.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long wait = System.nanoTime() - submitTime;
+                    statistics.waitNanos.addAndGet(wait);
+                    statistics.maxWaitNanos.accumulateAndGet(wait, Math::max);
+                    command.run();
+                }
+
+                @Override
+                public String toString() {
+                    return command.toString();
+                }
+            });
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable work) {
+            super.beforeExecute(thread, work);
+            statistics.maxActive.accumulateAndGet(
+                    statistics.active.incrementAndGet(), Math::max);
+            startTime.set(System.nanoTime());
+        }
+
+        @Override
+        protected void afterExecute(Runnable work, Throwable throwable) {
+            super.afterExecute(work, throwable);
+            statistics.runNanos.addAndGet(System.nanoTime() - startTime.get());
+            statistics.active.decrementAndGet();
+            statistics.completed.incrementAndGet();
+            if (throwable != null) {
+                statistics.failed.incrementAndGet();
+                LOGGER.log(Level.SEVERE, "Background work failed", throwable);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * File operations which are done in this process instead of running
+ * {@code mv}, {@code chown}, {@code touch} or {@code rm}.
+ *
+ * @author sschw
+ */
+public class FileOperations {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(FileOperations.class.getName());
+
+    private FileOperations() {
+    }
+
+    /**
+     * Writes the content of a file.
+     *
+     * @param <E> the exception thrown by the content
+     */
+    @FunctionalInterface
+    public interface Content<E extends Exception> {
+
+        /**
+         * Writes the content to the stream. The stream is closed afterwards.
+         *
+         * @param out the stream of the file
+         * @throws IOException if writing the stream fails
+         * @throws E if creating the content fails
+         */
+        void writeTo(OutputStream out) throws IOException, E;
+    }
+
+    /**
+     * Replaces a file atomically. The content is written to a temporary file
+     * in the same directory, which is moved to the target afterwards, so
+     * readers see either the old or the new file but never a partially
+     * written one.
+     * <br>
+     * If the file already exists, the new file gets its owner and
+     * permissions.
+     *
+     * @param <E> the exception thrown by the content
+     * @param target the file to write
+     * @param content writes the content of the file
+     * @throws IOException if the file can't be written
+     * @throws E if the content fails
+     */
+    public static <E extends Exception> void writeAtomically(Path target,
+            Content<E> content) throws IOException, E {
+        Path directory = target.toAbsolutePath().getParent();
+        Path tmpFile = Files.createTempFile(directory,
+                "." + target.getFileName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile,
+                    StandardOpenOption.WRITE);
+                    OutputStream out = Channels.newOutputStream(channel)) {
+                content.writeTo(out);
+                out.flush();
+                channel.force(true);
+            }
+            if (Files.exists(target)) {
+                copyOwnerAndPermissions(target, tmpFile);
+            }
+            move(tmpFile, target);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Moves a file and replaces the target. The file is moved atomically if
+     * source and target are on the same file system.
+     *
+     * @param source the file to move
+     * @param target the new path of the file
+     * @throws IOException if the file can't be moved
+     */
+    public static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            LOGGER.log(Level.FINE,
+                    "can not move {0} atomically", source);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Changes the owner and group of a file like {@code chown user.group}.
+     * Symbolic links are changed themselves and not followed.
+     *
+     * @param path the file
+     * @param user the name of the new owner
+     * @param group the name of the new group
+     * @throws IOException if the user or group doesn't exist or the owner
+     * can't be changed
+     */
+    public static void setOwner(Path path, String user, String group)
+            throws IOException {
+        UserPrincipalLookupService lookupService
+                = path.getFileSystem().getUserPrincipalLookupService();
+        PosixFileAttributeView view = getPosixView(path);
+        view.setOwner(lookupService.lookupPrincipalByName(user));
+        view.setGroup(lookupService.lookupPrincipalByGroupName(group));
+    }
+
+    /**
+     * Changes the owner and group of a directory and all its content like
+     * {@code chown -R user.group}. Symbolic links aren't followed.
+     *
+     * @param directory the directory
+     * @param user the name of the new owner
+     * @param group the name of the new group
+     * @throws IOException if the user or group doesn't exist or an owner
+     * can't be changed
+     */
+    public static void setOwnerRecursively(Path directory, String user,
+            String group) throws IOException {
+        UserPrincipalLookupService lookupService
+                = directory.getFileSystem().getUserPrincipalLookupService();
+        UserPrincipal owner
+                = lookupService.lookupPrincipalByName(user);
+        GroupPrincipal ownerGroup
+                = lookupService.lookupPrincipalByGroupName(group);
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attrs) throws IOException {
+                return visitFile(dir, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                PosixFileAttributeView view = getPosixView(file);
+                view.setOwner(owner);
+                view.setGroup(ownerGroup);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Checks if files can be created in a directory by creating and deleting
+     * a temporary file.
+     *
+     * @param directory the directory
+     * @return true if a file could be created
+     */
+    public static boolean canCreateFile(Path directory) {
+        try {
+            Files.delete(Files.createTempFile(
+                    directory, "lernstickWelcome", ".tmp"));
+            return true;
+        } catch (IOException | UnsupportedOperationException ex) {
+            LOGGER.log(Level.FINE, "can not create file in " + directory, ex);
+            return false;
+        }
+    }
+
+    private static void copyOwnerAndPermissions(Path source, Path target)
+            throws IOException {
+        PosixFileAttributes attributes = Files.readAttributes(
+                source, PosixFileAttributes.class);
+        PosixFileAttributeView view = getPosixView(target);
+        view.setPermissions(attributes.permissions());
+        try {
+            view.setOwner(attributes.owner());
+            view.setGroup(attributes.group());
+        } catch (IOException ex) {
+            // only root can give files away
+            LOGGER.log(Level.WARNING,
+                    "can not keep owner of " + source, ex);
+        }
+    }
+
+    private static PosixFileAttributeView getPosixView(Path path)
+            throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(path,
+                PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view == null) {
+            throw new IOException(
+                    "no POSIX file attributes supported for " + path);
+        }
+        return view;
+    }
+}
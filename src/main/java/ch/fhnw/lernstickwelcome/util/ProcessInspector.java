@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class inspects and terminates processes by reading the proc
+ * filesystem.
+ * <br>
+ * All processes are read with a single scan of the proc filesystem (see
+ * {@link #getProcesses()}), so no {@code ps} has to be forked. The processes
+ * holding a lock on a file are found in {@code /proc/locks} (see
+ * {@link #getLockHolders(Collection)}).
+ *
+ * @author sschw
+ */
+public class ProcessInspector {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ProcessInspector.class.getName());
+    private static final Path PROC = Paths.get("/proc");
+    private static final Path LOCKS = PROC.resolve("locks");
+    private static final String DELETED_SUFFIX = " (deleted)";
+    /**
+     * Time in milliseconds processes get to terminate before they are killed.
+     */
+    private static final long TERMINATION_TIMEOUT = 3000;
+
+    private ProcessInspector() {
+    }
+
+    /**
+     * Returns the process id of this application.
+     *
+     * @return the process id or -1 if it can't be determined
+     */
+    public static long getOwnPid() {
+        try {
+            return Long.parseLong(Files.readSymbolicLink(
+                    PROC.resolve("self")).getFileName().toString());
+        } catch (IOException | NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't determine own pid", ex);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the parent process ids of all running processes.
+     *
+     * @return a map from process id to parent process id
+     */
+    public static Map<Long, Long> getParentPids() {
+        Map<Long, Long> parents = new HashMap<>();
+        try (DirectoryStream<Path> stream
+                = Files.newDirectoryStream(PROC, "[0-9]*")) {
+            for (Path dir : stream) {
+                long ppid = readParentPid(dir);
+                if (ppid >= 0) {
+                    parents.put(Long.parseLong(
+                            dir.getFileName().toString()), ppid);
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't read processes", ex);
+        }
+        return parents;
+    }
+
+    /**
+     * Reads all running processes.
+     *
+     * @return a map from process id to process
+     */
+    public static Map<Long, ProcessInfo> getProcesses() {
+        Map<Long, ProcessInfo> processes = new HashMap<>();
+        try (DirectoryStream<Path> stream
+                = Files.newDirectoryStream(PROC, "[0-9]*")) {
+            for (Path dir : stream) {
+                long ppid = readParentPid(dir);
+                if (ppid >= 0) {
+                    long pid = Long.parseLong(dir.getFileName().toString());
+                    processes.put(pid, new ProcessInfo(pid, ppid,
+                            readExecutable(dir), readArguments(dir)));
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't read processes", ex);
+        }
+        return processes;
+    }
+
+    /**
+     * Returns the ids of the processes running one of the given executables.
+     *
+     * @param processes the processes read by {@link #getProcesses()}
+     * @param executables the absolute paths of the executables or scripts
+     * @return the ids of the matching processes
+     */
+    public static Set<Long> findProcesses(Map<Long, ProcessInfo> processes,
+            Collection<String> executables) {
+        Set<Long> pids = new HashSet<>();
+        processes.values().forEach(process -> {
+            if (executables.stream().anyMatch(process::runs)) {
+                pids.add(process.getPid());
+            }
+        });
+        return pids;
+    }
+
+    /**
+     * Returns whether a process or one of its ancestors is contained in the
+     * given processes.
+     *
+     * @param processes the processes read by {@link #getProcesses()}
+     * @param pid the id of the process
+     * @param ancestors the ids of the possible ancestors
+     * @return true if the process descends from one of the ancestors
+     */
+    public static boolean descendsFrom(Map<Long, ProcessInfo> processes,
+            long pid, Set<Long> ancestors) {
+        Set<Long> visited = new HashSet<>();
+        ProcessInfo process = processes.get(pid);
+        while (process != null && visited.add(process.getPid())) {
+            if (ancestors.contains(process.getPid())) {
+                return true;
+            }
+            process = processes.get(process.getParentPid());
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ids of the processes holding a lock on one of the given
+     * files. Processes waiting for a lock aren't returned.
+     *
+     * @param files the locked files
+     * @return the ids of the lock holders
+     */
+    public static Set<Long> getLockHolders(Collection<Path> files) {
+        Set<String> fileIds = new HashSet<>();
+        for (Path file : files) {
+            String fileId = getFileId(file);
+            if (fileId != null) {
+                fileIds.add(fileId);
+            }
+        }
+        if (fileIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        try {
+            return parseLockHolders(
+                    Files.readAllLines(LOCKS, StandardCharsets.UTF_8),
+                    fileIds);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't read file locks", ex);
+            return new HashSet<>();
+        }
+    }
+
+    /**
+     * Returns the ids of the processes holding a lock in the content of
+     * {@code /proc/locks}.
+     *
+     * @param lines the lines of {@code /proc/locks}
+     * @param fileIds the locked files as decimal
+     * {@code major:minor:inode}
+     * @return the ids of the lock holders
+     * @throws RuntimeException if a line is invalid
+     */
+    public static Set<Long> parseLockHolders(List<String> lines,
+            Set<String> fileIds) {
+        Set<Long> holders = new HashSet<>();
+        for (String line : lines) {
+            // e.g. "1: POSIX  ADVISORY  WRITE 1234 08:01:131075 0 EOF",
+            // waiting processes are listed with "->" after the number
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 6 || fields[1].equals("->")) {
+                continue;
+            }
+            long pid = Long.parseLong(fields[4]);
+            // open file description locks aren't owned by a process
+            if (pid > 0 && fileIds.contains(normalizeFileId(fields[5]))) {
+                holders.add(pid);
+            }
+        }
+        return holders;
+    }
+
+    /**
+     * Returns the ids of the direct child processes.
+     *
+     * @param pid the id of the parent process
+     * @return the ids of the child processes
+     */
+    public static Set<Long> getChildren(long pid) {
+        Set<Long> children = new HashSet<>();
+        getParentPids().forEach((child, parent) -> {
+            if (parent == pid) {
+                children.add(child);
+            }
+        });
+        return children;
+    }
+
+    /**
+     * Returns the ids of the given processes and all their descendants.
+     * Parents are listed before their children.
+     *
+     * @param pids the ids of the root processes
+     * @return the ids of the process trees
+     */
+    public static List<Long> getProcessTrees(Collection<Long> pids) {
+        Map<Long, Long> parents = getParentPids();
+        List<Long> tree = new ArrayList<>(pids);
+        for (int i = 0; i < tree.size(); i++) {
+            long parent = tree.get(i);
+            parents.forEach((child, ppid) -> {
+                if (ppid == parent && !tree.contains(child)) {
+                    tree.add(child);
+                }
+            });
+        }
+        return tree;
+    }
+
+    /**
+     * Terminates the given processes and all their descendants. Processes
+     * which don't terminate within a few seconds are killed.
+     *
+     * @param pids the ids of the root processes
+     */
+    public static void killProcessTrees(Collection<Long> pids) {
+        if (pids.isEmpty()) {
+            return;
+        }
+        // collect the whole trees first, terminated parents lose their
+        // children to init
+        List<Long> tree = getProcessTrees(pids);
+        LOGGER.log(Level.WARNING, "Terminating processes {0}", tree);
+        signal("TERM", tree);
+        long deadline = System.currentTimeMillis() + TERMINATION_TIMEOUT;
+        List<Long> alive = new ArrayList<>(tree);
+        while (!alive.isEmpty() && System.currentTimeMillis() < deadline) {
+            alive.removeIf(pid -> !Files.exists(PROC.resolve(pid.toString())));
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!alive.isEmpty()) {
+            signal("KILL", alive);
+        }
+    }
+
+    /**
+     * Reads the parent process id from the stat file of a process.
+     *
+     * @param processDir the directory of the process in the proc filesystem
+     * @return the parent process id or -1 if the process doesn't exist anymore
+     */
+    private static long readParentPid(Path processDir) {
+        try {
+            String stat = new String(Files.readAllBytes(
+                    processDir.resolve("stat")), StandardCharsets.UTF_8);
+            // the command name in brackets may contain spaces
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2)
+                    .split(" ");
+            return Long.parseLong(fields[1]);
+        } catch (IOException | RuntimeException ex) {
+            return -1;
+        }
+    }
+
+    private static String readExecutable(Path processDir) {
+        try {
+            String executable
+                    = Files.readSymbolicLink(processDir.resolve("exe"))
+                            .toString();
+            // the executable may have been replaced by an update
+            if (executable.endsWith(DELETED_SUFFIX)) {
+                executable = executable.substring(0,
+                        executable.length() - DELETED_SUFFIX.length());
+            }
+            return executable;
+        } catch (IOException | RuntimeException ex) {
+            // kernel threads and processes of other users
+            return null;
+        }
+    }
+
+    private static List<String> readArguments(Path processDir) {
+        try {
+            String cmdline = new String(Files.readAllBytes(
+                    processDir.resolve("cmdline")), StandardCharsets.UTF_8);
+            if (cmdline.isEmpty()) {
+                return Collections.emptyList();
+            }
+            return Arrays.asList(cmdline.split("\0"));
+        } catch (IOException ex) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns the device and inode of a file in the format of
+     * {@code /proc/locks}.
+     *
+     * @param file the file
+     * @return the id or null if the file doesn't exist
+     */
+    private static String getFileId(Path file) {
+        try {
+            long device = (Long) Files.getAttribute(file, "unix:dev");
+            long inode = (Long) Files.getAttribute(file, "unix:ino");
+            // the encoding of dev_t by glibc
+            long major = ((device >>> 8) & 0xfff)
+                    | ((device >>> 32) & ~0xfffL);
+            long minor = (device & 0xff) | ((device >>> 12) & ~0xffL);
+            return major + ":" + minor + ":" + inode;
+        } catch (IOException ex) {
+            return null;
+        } catch (UnsupportedOperationException | IllegalArgumentException
+                | ClassCastException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't read inode of " + file, ex);
+            return null;
+        }
+    }
+
+    private static String normalizeFileId(String lockFileId) {
+        String[] parts = lockFileId.split(":");
+        return Long.parseLong(parts[0], 16) + ":"
+                + Long.parseLong(parts[1], 16) + ":" + parts[2];
+    }
+
+    private static void signal(String signal, List<Long> pids) {
+        List<String> command = new ArrayList<>();
+        command.add("kill");
+        command.add("-" + signal);
+        pids.forEach(pid -> command.add(pid.toString()));
+        try {
+            // the output must not end up on the console of the application
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true).start();
+            String output;
+            try (InputStream in = process.getInputStream()) {
+                output = readAll(in).trim();
+            }
+            if (process.waitFor() != 0 || !output.isEmpty()) {
+                // e.g. "No such process" if a process has terminated already
+                LOGGER.log(Level.FINE, "{0}: {1}", new Object[]{command,
+                    output});
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't send signal " + signal, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A running process.
+     */
+    public static final class ProcessInfo {
+
+        private final long pid;
+        private final long parentPid;
+        private final String executable;
+        private final List<String> arguments;
+
+        private ProcessInfo(long pid, long parentPid, String executable,
+                List<String> arguments) {
+            this.pid = pid;
+            this.parentPid = parentPid;
+            this.executable = executable;
+            this.arguments = arguments;
+        }
+
+        public long getPid() {
+            return pid;
+        }
+
+        public long getParentPid() {
+            return parentPid;
+        }
+
+        /**
+         * Returns the absolute path of the executable.
+         *
+         * @return the path or null if it can't be read
+         */
+        public String getExecutable() {
+            return executable;
+        }
+
+        /**
+         * Returns the command line of the process.
+         *
+         * @return the arguments including the program name
+         */
+        public List<String> getArguments() {
+            return Collections.unmodifiableList(arguments);
+        }
+
+        /**
+         * Returns whether the process runs an executable. Scripts are run by
+         * their interpreter, so the first two arguments are checked too.
+         *
+         * @param path the absolute path of the executable or script
+         * @return true if the process runs the executable
+         */
+        public boolean runs(String path) {
+            return path.equals(executable)
+                    || arguments.stream().limit(2).anyMatch(path::equals);
+        }
+
+        @Override
+        public String toString() {
+            return pid + " " + (executable != null ? executable
+                    : arguments.isEmpty() ? "?" : arguments.get(0));
+        }
+    }
+}
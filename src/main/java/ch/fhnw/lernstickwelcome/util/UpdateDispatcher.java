@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util;
+
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.application.Platform;
+
+/**
+ * Dispatches updates of the model to the GUI Thread.
+ * <br>
+ * Instead of posting every update with {@link Platform#runLater(Runnable)}
+ * the updates are collected and run together by a single runnable. Updates
+ * with the same key replace each other, so at most one update per key (e.g.
+ * per property) reaches the GUI Thread per flush. The updates are run in the
+ * order their keys were posted first.
+ * <br>
+ * Without GUI (see {@link #setHeadless(boolean)}) the JavaFX toolkit isn't
+ * available, so the updates are run immediately one after another.
+ *
+ * @author sschw
+ */
+public class UpdateDispatcher {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(UpdateDispatcher.class.getName());
+    private static final Map<Object, Runnable> PENDING = new LinkedHashMap<>();
+    private static boolean flushScheduled;
+    private static volatile boolean headless;
+
+    private UpdateDispatcher() {
+    }
+
+    /**
+     * Sets if the application runs without GUI. In this mode the JavaFX
+     * toolkit must not be used.
+     *
+     * @param headless true if there is no GUI Thread
+     */
+    public static void setHeadless(boolean headless) {
+        UpdateDispatcher.headless = headless;
+    }
+
+    public static boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * Posts an update which replaces a pending update with the same key.
+     *
+     * @param key the key of the updated value, e.g. the property
+     * @param update the update which has to be run in the GUI Thread
+     */
+    public static void post(Object key, Runnable update) {
+        if (headless) {
+            synchronized (PENDING) {
+                run(update);
+            }
+            return;
+        }
+        boolean scheduleFlush;
+        synchronized (PENDING) {
+            PENDING.put(key, update);
+            scheduleFlush = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (scheduleFlush) {
+            Platform.runLater(UpdateDispatcher::flush);
+        }
+    }
+
+    /**
+     * Posts an update which is never replaced by other updates.
+     *
+     * @param update the update which has to be run in the GUI Thread
+     */
+    public static void execute(Runnable update) {
+        post(new Object(), update);
+    }
+
+    /**
+     * Runs all pending updates. Updates posted while flushing are run by the
+     * next flush.
+     */
+    private static void flush() {
+        List<Runnable> updates;
+        synchronized (PENDING) {
+            updates = new ArrayList<>(PENDING.values());
+            PENDING.clear();
+            flushScheduled = false;
+        }
+        WelcomeEvents.Span span
+                = WelcomeEvents.beginFxSection("UpdateDispatcher.flush");
+        try {
+            updates.forEach(UpdateDispatcher::run);
+        } finally {
+            span.close();
+        }
+    }
+
+    private static void run(Runnable update) {
+        try {
+            update.run();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Update failed", ex);
+        }
+    }
+}
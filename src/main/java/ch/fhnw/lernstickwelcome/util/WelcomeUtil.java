@@ -19,14 +19,13 @@ package ch.fhnw.lernstickwelcome.util;
 import ch.fhnw.lernstickwelcome.controller.exception.TableCellValidationException;
 import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
 import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
-import ch.fhnw.util.ProcessExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -52,8 +51,8 @@ public class WelcomeUtil {
 
     private static final Logger LOGGER
             = Logger.getLogger(WelcomeUtil.class.getName());
-    private static final ProcessExecutor PROCESS_EXECUTOR
-            = WelcomeModelFactory.getProcessExecutor();
+    private static final CommandExecutor COMMAND_EXECUTOR
+            = WelcomeModelFactory.getCommandExecutor();
     /**
      * see {@link #isImageWritable()} *
      */
@@ -176,14 +175,11 @@ public class WelcomeUtil {
      */
     public static boolean isImageWritable() {
         if (isImageWritable == null) {
-            PROCESS_EXECUTOR.executeProcess("mount", "-o", "remount,rw",
+            COMMAND_EXECUTOR.execute("mount", "-o", "remount,rw",
                     WelcomeConstants.IMAGE_DIRECTORY);
-            String testPath = WelcomeConstants.IMAGE_DIRECTORY
-                    + "/lernstickWelcome.tmp";
-            PROCESS_EXECUTOR.executeProcess("touch", testPath);
-            File testFile = new File(testPath);
             try {
-                if (testFile.exists()) {
+                if (FileOperations.canCreateFile(
+                        Paths.get(WelcomeConstants.IMAGE_DIRECTORY))) {
                     LOGGER.info("image is writable");
                     isImageWritable = true;
                 } else {
@@ -191,8 +187,7 @@ public class WelcomeUtil {
                     isImageWritable = false;
                 }
             } finally {
-                PROCESS_EXECUTOR.executeProcess("rm", testPath);
-                PROCESS_EXECUTOR.executeProcess("mount", "-o", "remount,ro",
+                COMMAND_EXECUTOR.execute("mount", "-o", "remount,ro",
                         WelcomeConstants.IMAGE_DIRECTORY);
             }
         }
@@ -395,15 +390,10 @@ public class WelcomeUtil {
         // usable, switch back to the code above)
         try {
             final URL finalUrl = new URL(url);
-            Thread browserThread = new Thread() {
-                @Override
-                public void run() {
-                    PROCESS_EXECUTOR.executeProcess(new String[]{
-                        "firefox", finalUrl.toString()});
-                }
-            };
-            browserThread.start();
-        } catch (MalformedURLException ex) {
+            // The browser runs on its own, no thread has to wait for it.
+            new ProcessBuilder("firefox", finalUrl.toString())
+                    .inheritIO().start();
+        } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, null, ex);
         }
     }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.jfr;
+
+import javafx.concurrent.Task;
+
+/**
+ * Records the events of {@link WelcomeEvents}. The interface doesn't use any
+ * flight recorder classes, so it can be loaded on every JRE.
+ * <br>
+ * The methods are called in the thread the event happens in.
+ *
+ * @author sschw
+ */
+public interface EventRecorder {
+
+    /**
+     * Begins the run of a task.
+     *
+     * @param task the task
+     * @param processable the simple name of the Processable
+     * @param taskClass the name of the task class
+     * @return the span which is closed at the end of the run
+     */
+    WelcomeEvents.Span beginTask(Task<?> task, String processable,
+            String taskClass);
+
+    /**
+     * Records that a running task reached a progress checkpoint.
+     *
+     * @param task the task
+     * @param workDone the work done so far
+     * @param max the total work
+     */
+    default void taskProgress(Task<?> task, double workDone, double max) {
+    }
+
+    /**
+     * Records that a running task changed its message.
+     *
+     * @param task the task
+     * @param message the new message
+     */
+    default void taskMessage(Task<?> task, String message) {
+    }
+
+    /**
+     * Begins an external command.
+     *
+     * @param command the command line
+     * @param fxThread true if the command runs in the GUI Thread
+     * @return the span which is closed when the command is finished
+     */
+    WelcomeEvents.Span beginCommand(String command, boolean fxThread);
+
+    /**
+     * Begins a section running in the GUI Thread.
+     *
+     * @param name the name of the section
+     * @return the span which is closed at the end of the section
+     */
+    WelcomeEvents.Span beginFxSection(String name);
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.jfr;
+
+import javafx.concurrent.Task;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Records the events of {@link WelcomeEvents} with the flight recorder.
+ * <br>
+ * The events are only created if their type is enabled, so there is almost no
+ * overhead without a running recording.
+ *
+ * @author sschw
+ */
+class JfrEventRecorder implements EventRecorder {
+
+    private static final String CATEGORY = "Lernstick Welcome";
+
+    @Override
+    public WelcomeEvents.Span beginTask(Task<?> task, String processable,
+            String taskClass) {
+        TaskEvent event = new TaskEvent();
+        if (!event.isEnabled()) {
+            return new EventSpan(null);
+        }
+        event.processable = processable;
+        event.taskClass = taskClass;
+        event.begin();
+        return new EventSpan(event) {
+            @Override
+            public void setOutcome(String outcome) {
+                event.outcome = outcome;
+            }
+
+            @Override
+            public void setFailure(Throwable failure) {
+                event.outcome = "failed";
+                event.failure = failure.toString();
+            }
+        };
+    }
+
+    @Override
+    public WelcomeEvents.Span beginCommand(String command, boolean fxThread) {
+        CommandEvent event = new CommandEvent();
+        if (!event.isEnabled()) {
+            return new EventSpan(null);
+        }
+        event.command = command;
+        event.fxThread = fxThread;
+        event.begin();
+        return new EventSpan(event) {
+            @Override
+            public void setResult(int exitCode, long outputSize) {
+                event.exitCode = exitCode;
+                event.outputSize = outputSize;
+            }
+        };
+    }
+
+    @Override
+    public WelcomeEvents.Span beginFxSection(String name) {
+        FxSectionEvent event = new FxSectionEvent();
+        if (!event.isEnabled()) {
+            return new EventSpan(null);
+        }
+        event.section = name;
+        event.begin();
+        return new EventSpan(event);
+    }
+
+    /**
+     * Commits the event when it is closed.
+     */
+    private static class EventSpan implements WelcomeEvents.Span {
+
+        private final Event event;
+
+        EventSpan(Event event) {
+            this.event = event;
+        }
+
+        @Override
+        public void close() {
+            if (event != null) {
+                event.commit();
+            }
+        }
+    }
+
+    @Name("ch.fhnw.lernstickwelcome.Task")
+    @Label("Task")
+    @Category(CATEGORY)
+    @Description("Run of a task created by a Processable")
+    @StackTrace(false)
+    static class TaskEvent extends Event {
+
+        @Label("Processable")
+        String processable;
+
+        @Label("Task Class")
+        String taskClass;
+
+        @Label("Outcome")
+        @Description("succeeded, failed, cancelled or skipped")
+        String outcome;
+
+        @Label("Failure")
+        String failure;
+    }
+
+    @Name("ch.fhnw.lernstickwelcome.Command")
+    @Label("Command")
+    @Category(CATEGORY)
+    @Description("Execution of an external command")
+    static class CommandEvent extends Event {
+
+        @Label("Command")
+        String command;
+
+        @Label("Exit Code")
+        int exitCode;
+
+        @Label("Output Size")
+        @Description("Number of bytes written to stdout and stderr")
+        long outputSize;
+
+        @Label("In GUI Thread")
+        boolean fxThread;
+    }
+
+    @Name("ch.fhnw.lernstickwelcome.FxSection")
+    @Label("GUI Thread Section")
+    @Category(CATEGORY)
+    @Description("Section which blocks the GUI Thread")
+    @Threshold("1 ms")
+    static class FxSectionEvent extends Event {
+
+        @Label("Section")
+        String section;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.jfr;
+
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+/**
+ * Records Java Flight Recorder events of the application.
+ * <br>
+ * The following events are recorded:
+ * <ul>
+ * <li>{@code ch.fhnw.lernstickwelcome.Task}: the run of a task created by
+ * a Processable with its outcome</li>
+ * <li>{@code ch.fhnw.lernstickwelcome.Command}: an external command with
+ * its exit code and output size</li>
+ * <li>{@code ch.fhnw.lernstickwelcome.FxSection}: a section which blocks
+ * the GUI Thread</li>
+ * </ul>
+ * The events are only recorded while a recording is running, e.g. after
+ * {@code jcmd <pid> JFR.start}. On a JRE without flight recorder nothing is
+ * recorded.
+ * <br>
+ * Additional {@link EventRecorder}s, e.g. a trace of a single run, can be
+ * added with {@link #addRecorder(EventRecorder)}.
+ *
+ * @author sschw
+ */
+public final class WelcomeEvents {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(WelcomeEvents.class.getName());
+    private static final Span NO_SPAN = new Span() {
+    };
+    private static final List<EventRecorder> RECORDERS
+            = new CopyOnWriteArrayList<>();
+
+    static {
+        EventRecorder flightRecorder = createFlightRecorder();
+        if (flightRecorder != null) {
+            RECORDERS.add(flightRecorder);
+        }
+    }
+
+    private WelcomeEvents() {
+    }
+
+    /**
+     * The recording of an event which is committed when it is closed.
+     */
+    public interface Span extends AutoCloseable {
+
+        /**
+         * Sets the outcome of a task, e.g. succeeded, failed or cancelled.
+         *
+         * @param outcome the outcome
+         */
+        default void setOutcome(String outcome) {
+        }
+
+        /**
+         * Sets the exception which caused a task to fail.
+         *
+         * @param failure the exception
+         */
+        default void setFailure(Throwable failure) {
+        }
+
+        /**
+         * Sets the result of a command.
+         *
+         * @param exitCode the exit code of the command
+         * @param outputSize the size of the output in bytes
+         */
+        default void setResult(int exitCode, long outputSize) {
+        }
+
+        @Override
+        default void close() {
+        }
+    }
+
+    /**
+     * Adds a recorder which receives all following events.
+     *
+     * @param recorder the recorder
+     */
+    public static void addRecorder(EventRecorder recorder) {
+        RECORDERS.add(recorder);
+    }
+
+    public static void removeRecorder(EventRecorder recorder) {
+        RECORDERS.remove(recorder);
+    }
+
+    /**
+     * Starts recording the run of a task.
+     *
+     * @param task the task created by a Processable
+     * @return the span which has to be closed when the task is finished
+     */
+    public static Span beginTask(Task<?> task) {
+        if (RECORDERS.isEmpty()) {
+            return NO_SPAN;
+        }
+        // The tasks are inner classes of their Processable
+        Class<?> taskClass = task.getClass();
+        Class<?> processable = taskClass.getEnclosingClass() != null
+                ? taskClass.getEnclosingClass() : taskClass;
+        return begin(recorder -> recorder.beginTask(
+                task, processable.getSimpleName(), taskClass.getName()));
+    }
+
+    /**
+     * Records that a task reached a progress checkpoint.
+     *
+     * @param task the task
+     * @param workDone the work done so far
+     * @param max the total work
+     */
+    public static void taskProgress(Task<?> task, double workDone, double max) {
+        RECORDERS.forEach(r -> r.taskProgress(task, workDone, max));
+    }
+
+    /**
+     * Records that a task changed its message.
+     *
+     * @param task the task
+     * @param message the new message
+     */
+    public static void taskMessage(Task<?> task, String message) {
+        RECORDERS.forEach(r -> r.taskMessage(task, message));
+    }
+
+    /**
+     * Starts recording an external command.
+     *
+     * @param command the command and its arguments
+     * @return the span which has to be closed when the command is finished
+     */
+    public static Span beginCommand(String... command) {
+        if (RECORDERS.isEmpty()) {
+            return NO_SPAN;
+        }
+        String commandLine = String.join(" ", command);
+        boolean fxThread = isFxThread();
+        return begin(recorder -> recorder.beginCommand(commandLine, fxThread));
+    }
+
+    /**
+     * Starts recording a section if it runs in the GUI Thread.
+     *
+     * @param name the name of the section
+     * @return the span which has to be closed at the end of the section
+     */
+    public static Span beginFxSection(String name) {
+        if (RECORDERS.isEmpty() || !isFxThread()) {
+            return NO_SPAN;
+        }
+        return begin(recorder -> recorder.beginFxSection(name));
+    }
+
+    /**
+     * Begins a span in all recorders.
+     *
+     * @param begin begins the span in a recorder
+     * @return a span which forwards to the spans of all recorders
+     */
+    private static Span begin(Function<EventRecorder, Span> begin) {
+        List<Span> spans = new ArrayList<>(RECORDERS.size());
+        RECORDERS.forEach(recorder -> spans.add(begin.apply(recorder)));
+        if (spans.size() == 1) {
+            return spans.get(0);
+        }
+        return new Span() {
+            @Override
+            public void setOutcome(String outcome) {
+                spans.forEach(span -> span.setOutcome(outcome));
+            }
+
+            @Override
+            public void setFailure(Throwable failure) {
+                spans.forEach(span -> span.setFailure(failure));
+            }
+
+            @Override
+            public void setResult(int exitCode, long outputSize) {
+                spans.forEach(span -> span.setResult(exitCode, outputSize));
+            }
+
+            @Override
+            public void close() {
+                spans.forEach(Span::close);
+            }
+        };
+    }
+
+    private static boolean isFxThread() {
+        // The toolkit must not be used without GUI
+        return !UpdateDispatcher.isHeadless()
+                && Platform.isFxApplicationThread();
+    }
+
+    private static EventRecorder createFlightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            // Only loaded if the JRE has a flight recorder
+            return (EventRecorder) Class.forName(
+                    WelcomeEvents.class.getPackage().getName()
+                    + ".JfrEventRecorder").newInstance();
+        } catch (ClassNotFoundException ex) {
+            LOGGER.info("No flight recorder available");
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            LOGGER.log(Level.WARNING, "Couldn't create flight recorder events", ex);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.io.IOException;
+
+/**
+ * Executes external commands and scripts.
+ * <br>
+ * Every execution returns its own {@link CommandResult}, so an executor can
+ * be shared by all threads, e.g. the firewall state checking and a running
+ * save.
+ *
+ * @author sschw
+ */
+public interface CommandExecutor {
+
+    /**
+     * Executes a command and waits until it is finished. The whole output is
+     * kept in the result.
+     *
+     * @param command the command and its arguments
+     * @return the result of the command
+     */
+    default CommandResult execute(String... command) {
+        return execute(OutputCapture.unbounded(), command);
+    }
+
+    /**
+     * Executes a command and waits until it is finished.
+     *
+     * @param capture captures the output of the command
+     * @param command the command and its arguments
+     * @return the result of the command with the output kept by the capture
+     */
+    CommandResult execute(OutputCapture capture, String... command);
+
+    /**
+     * Executes a shell script and waits until it is finished. The whole
+     * output is kept in the result.
+     *
+     * @param script the content of the script
+     * @return the result of the script
+     * @throws IOException if the script can't be executed
+     */
+    default CommandResult executeScript(String script) throws IOException {
+        return executeScript(script, OutputCapture.unbounded());
+    }
+
+    /**
+     * Executes a shell script and waits until it is finished.
+     *
+     * @param script the content of the script
+     * @param capture captures the output of the script
+     * @return the result of the script with the output kept by the capture
+     * @throws IOException if the script can't be executed
+     */
+    CommandResult executeScript(String script, OutputCapture capture)
+            throws IOException;
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A long-running helper process which executes commands for the application.
+ * <br>
+ * Forking the big JVM for every short command is expensive, the small helper
+ * process is forked once and forks the commands itself. The commands and
+ * their output are exchanged as frames over the pipes of the helper (see
+ * command-helper.pl). A helper executes one command at a time.
+ * <br>
+ * The helper terminates when its stdin is closed, so it doesn't survive the
+ * application.
+ *
+ * @author sschw
+ */
+class CommandHelper {
+
+    private static final String SCRIPT_RESOURCE = "command-helper.pl";
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final Process process;
+    private final OutputStream requests;
+    private final InputStream responses;
+    private boolean broken;
+
+    private CommandHelper(Process process) {
+        this.process = process;
+        this.requests = new BufferedOutputStream(process.getOutputStream());
+        this.responses = new BufferedInputStream(process.getInputStream());
+    }
+
+    /**
+     * Starts a new helper process.
+     *
+     * @return the helper
+     * @throws IOException if the helper can't be started
+     */
+    static CommandHelper start() throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(
+                "perl", "-e", readScript());
+        // Errors of the helper itself are shown in our log
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return new CommandHelper(builder.start());
+    }
+
+    /**
+     * Sends a command to the helper.
+     * <br>
+     * If this fails, the command hasn't been started, so it can be executed
+     * otherwise.
+     *
+     * @param command the command and its arguments
+     * @throws IOException if the helper doesn't accept the command
+     */
+    synchronized void send(List<String> command) throws IOException {
+        try {
+            requests.write(("C " + command.size() + "\n").getBytes(
+                    StandardCharsets.US_ASCII));
+            for (String argument : command) {
+                byte[] bytes = argument.getBytes(CHARSET);
+                requests.write((bytes.length + "\n").getBytes(
+                        StandardCharsets.US_ASCII));
+                requests.write(bytes);
+            }
+            requests.flush();
+        } catch (IOException ex) {
+            broken = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the output of the command sent before until it is finished.
+     * The process of the command is registered in {@link RunningCommands}
+     * while it is running.
+     *
+     * @param capture receives the output while the command is running
+     * @return the exit code of the command
+     * @throws IOException if the helper terminated or sent an invalid frame
+     */
+    synchronized int receive(OutputCapture capture) throws IOException {
+        long pid = -1;
+        try {
+            while (true) {
+                String header = readHeader();
+                if (header.length() < 3 || header.charAt(1) != ' ') {
+                    throw new IOException("invalid frame: " + header);
+                }
+                int value = Integer.parseInt(header.substring(2));
+                switch (header.charAt(0)) {
+                    case 'P':
+                        pid = value;
+                        RunningCommands.started(pid);
+                        break;
+                    case 'O':
+                        copy(value, false, capture);
+                        break;
+                    case 'E':
+                        copy(value, true, capture);
+                        break;
+                    case 'X':
+                        return value;
+                    default:
+                        throw new IOException("invalid frame: " + header);
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            broken = true;
+            throw ex instanceof IOException ? (IOException) ex
+                    : new IOException(ex);
+        } finally {
+            if (pid != -1) {
+                RunningCommands.finished(pid);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the helper can execute further commands.
+     *
+     * @return true if the helper can be used
+     */
+    synchronized boolean isUsable() {
+        return !broken && process.isAlive();
+    }
+
+    /**
+     * Terminates the helper. A running command isn't terminated.
+     */
+    void close() {
+        try {
+            requests.close();
+        } catch (IOException ex) {
+            // The helper is terminated anyway
+        }
+        process.destroy();
+    }
+
+    private String readHeader() throws IOException {
+        StringBuilder header = new StringBuilder();
+        int c;
+        while ((c = responses.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException("helper terminated");
+            }
+            header.append((char) c);
+        }
+        return header.toString();
+    }
+
+    private void copy(int length, boolean error, OutputCapture capture)
+            throws IOException {
+        byte[] buffer = new byte[Math.min(length, 8192)];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = responses.read(buffer, 0,
+                    Math.min(remaining, buffer.length));
+            if (read == -1) {
+                throw new EOFException("helper terminated");
+            }
+            capture.write(error, buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static String readScript() throws IOException {
+        InputStream stream
+                = CommandHelper.class.getResourceAsStream(SCRIPT_RESOURCE);
+        if (stream == null) {
+            throw new IOException(SCRIPT_RESOURCE + " not found");
+        }
+        StringBuilder script = new StringBuilder();
+        try (Reader reader = new InputStreamReader(
+                stream, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                script.append(buffer, 0, read);
+            }
+        }
+        return script.toString();
+    }
+}
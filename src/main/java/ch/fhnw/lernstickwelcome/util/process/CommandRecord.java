@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded execution of a command, stored as one line of a recording file.
+ * <br>
+ * The line consists of tab separated fields: the key of the command, the
+ * exit code, the duration in nanoseconds and the output chunks in the order
+ * they were written. Commands are stored with their arguments, scripts only
+ * with a hash of their content, because they may contain passwords. All text
+ * is Base64 encoded.
+ *
+ * @author sschw
+ */
+class CommandRecord {
+
+    /**
+     * The first line of a recording file.
+     */
+    static final String HEADER = "# lernstickWelcome command recording 1";
+    private static final Base64.Encoder ENCODER = Base64.getEncoder();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final String key;
+    private final int exitCode;
+    private final long durationNanos;
+    private final List<Chunk> chunks;
+
+    CommandRecord(String key, int exitCode, long durationNanos,
+            List<Chunk> chunks) {
+        this.key = key;
+        this.exitCode = exitCode;
+        this.durationNanos = durationNanos;
+        this.chunks = Collections.unmodifiableList(new ArrayList<>(chunks));
+    }
+
+    /**
+     * Returns the key of a command.
+     *
+     * @param command the command and its arguments
+     * @return the key
+     */
+    static String commandKey(List<String> command) {
+        return "C:" + ENCODER.encodeToString(String.join("\0", command)
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the key of a script.
+     *
+     * @param script the content of the script
+     * @return the key
+     */
+    static String scriptKey(String script) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+                    script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder("S:");
+            for (byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // every JRE has to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Parses a line of a recording file.
+     *
+     * @param line the line
+     * @return the record
+     * @throws IOException if the line isn't a valid record
+     */
+    static CommandRecord parse(String line) throws IOException {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 4) {
+            throw new IOException("invalid command record: " + line);
+        }
+        try {
+            List<Chunk> chunks = new ArrayList<>();
+            if (!fields[3].isEmpty()) {
+                for (String chunk : fields[3].split(",")) {
+                    chunks.add(new Chunk(chunk.charAt(0) == 'E',
+                            DECODER.decode(chunk.substring(1))));
+                }
+            }
+            return new CommandRecord(fields[0], Integer.parseInt(fields[1]),
+                    Long.parseLong(fields[2]), chunks);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new IOException("invalid command record: " + line, ex);
+        }
+    }
+
+    /**
+     * Formats the record as line of a recording file.
+     *
+     * @return the line without line separator
+     */
+    String format() {
+        StringBuilder line = new StringBuilder(key);
+        line.append('\t').append(exitCode);
+        line.append('\t').append(durationNanos).append('\t');
+        for (int i = 0; i < chunks.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            Chunk chunk = chunks.get(i);
+            line.append(chunk.error ? 'E' : 'O');
+            line.append(ENCODER.encodeToString(chunk.bytes));
+        }
+        return line.toString();
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    int getExitCode() {
+        return exitCode;
+    }
+
+    long getDurationNanos() {
+        return durationNanos;
+    }
+
+    List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Output written at once to stdout or stderr.
+     */
+    static class Chunk {
+
+        final boolean error;
+        final byte[] bytes;
+
+        Chunk(boolean error, byte[] bytes) {
+            this.error = error;
+            this.bytes = bytes;
+        }
+    }
+}
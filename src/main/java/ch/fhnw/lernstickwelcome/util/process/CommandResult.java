@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The immutable result of a single execution of a {@link CommandExecutor}.
+ * <br>
+ * Every execution has its own result, so it can be read without
+ * synchronization even if other commands are executed at the same time.
+ *
+ * @author sschw
+ */
+public final class CommandResult {
+
+    private final List<String> command;
+    private final int exitCode;
+    private final String stdOut;
+    private final String stdErr;
+    private final String output;
+    private final long startTime;
+    private final long durationNanos;
+    private final boolean truncated;
+
+    /**
+     * Creates a new result.
+     *
+     * @param command the executed command and its arguments
+     * @param exitCode the exit code of the command
+     * @param stdOut the output of the command on stdout
+     * @param stdErr the output of the command on stderr
+     * @param output the output of the command on stdout and stderr in the
+     * order it was written
+     * @param startTime the start of the execution in milliseconds since the
+     * epoch
+     * @param durationNanos the duration of the execution in nanoseconds
+     */
+    public CommandResult(List<String> command, int exitCode, String stdOut,
+            String stdErr, String output, long startTime, long durationNanos) {
+        this(command, exitCode, stdOut, stdErr, output, startTime,
+                durationNanos, false);
+    }
+
+    /**
+     * Creates a new result of a command whose output may have been
+     * truncated.
+     *
+     * @param command the executed command and its arguments
+     * @param exitCode the exit code of the command
+     * @param stdOut the (last) output of the command on stdout
+     * @param stdErr the (last) output of the command on stderr
+     * @param output the (last) output of the command on stdout and stderr in
+     * the order it was written
+     * @param startTime the start of the execution in milliseconds since the
+     * epoch
+     * @param durationNanos the duration of the execution in nanoseconds
+     * @param truncated true if only the end of the output was kept
+     */
+    public CommandResult(List<String> command, int exitCode, String stdOut,
+            String stdErr, String output, long startTime, long durationNanos,
+            boolean truncated) {
+        this.command = Collections.unmodifiableList(new ArrayList<>(command));
+        this.exitCode = exitCode;
+        this.stdOut = stdOut == null ? "" : stdOut;
+        this.stdErr = stdErr == null ? "" : stdErr;
+        this.output = output == null ? "" : output;
+        this.startTime = startTime;
+        this.durationNanos = durationNanos;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Returns the executed command. Scripts are returned with their content
+     * as single element.
+     *
+     * @return the command and its arguments
+     */
+    public List<String> getCommand() {
+        return command;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Returns whether the command exited with exit code 0.
+     *
+     * @return true if the command was successful
+     */
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+
+    public String getStdOut() {
+        return stdOut;
+    }
+
+    /**
+     * Returns the lines written to stdout.
+     *
+     * @return the lines without line separators
+     */
+    public List<String> getStdOutList() {
+        return toLines(stdOut);
+    }
+
+    public String getStdErr() {
+        return stdErr;
+    }
+
+    /**
+     * Returns the lines written to stderr.
+     *
+     * @return the lines without line separators
+     */
+    public List<String> getStdErrList() {
+        return toLines(stdErr);
+    }
+
+    /**
+     * Returns the output written to stdout and stderr in the order it was
+     * written.
+     *
+     * @return the combined output
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns whether the beginning of the output was discarded because the
+     * output was bigger than the limit of the {@link OutputCapture}.
+     *
+     * @return true if only the end of the output is available
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Returns the start of the execution.
+     *
+     * @return the start in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the duration of the execution.
+     *
+     * @param unit the unit of the returned duration
+     * @return the duration in the given unit
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static List<String> toLines(String text) {
+        if (text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(
+                Arrays.asList(text.split("\r?\n")));
+    }
+
+    @Override
+    public String toString() {
+        // Only the first line of scripts, they may contain passwords
+        String commandLine = String.join(" ", command).split("\n", 2)[0];
+        return commandLine + " (exit code " + exitCode + ", "
+                + getDuration(TimeUnit.MILLISECONDS) + " ms)";
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the executions of the external commands and measures their latency
+ * per command name (see {@link MeasuringCommandExecutor}).
+ * <br>
+ * The name of a command is the file name of its program, e.g.
+ * {@code lernstick-firewall} or {@code dpkg}. A script is named after the
+ * first command it runs, e.g. {@code sh apt-get}, the rest of the script
+ * isn't kept because it may contain passwords.
+ *
+ * @author sschw
+ */
+public class CommandStatistics {
+
+    private final Map<String, Statistics> statistics
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Records an execution.
+     *
+     * @param name the name of the command
+     * @param durationNanos the duration of the execution in nanoseconds
+     * @param exitCode the exit code
+     * @param outputSize the size of the output in bytes
+     */
+    public void record(String name, long durationNanos, int exitCode,
+            long outputSize) {
+        statistics.computeIfAbsent(name, key -> new Statistics())
+                .record(durationNanos, exitCode, outputSize);
+    }
+
+    /**
+     * Returns the statistics of all commands executed so far.
+     *
+     * @return the statistics sorted by command name
+     */
+    public SortedMap<String, Statistics> getStatistics() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(statistics));
+    }
+
+    /**
+     * Returns the name of a command.
+     *
+     * @param command the command and its arguments
+     * @return the name
+     */
+    public static String getCommandName(String... command) {
+        if (command.length == 0) {
+            return "";
+        }
+        String program = command[0].substring(command[0].lastIndexOf('/') + 1);
+        if (command.length > 2 && command[1].equals("-c")
+                && (program.equals("sh") || program.equals("bash"))) {
+            return getScriptName(command[2]);
+        }
+        return program;
+    }
+
+    /**
+     * Returns the name of a script.
+     *
+     * @param script the content of the script
+     * @return the name
+     */
+    public static String getScriptName(String script) {
+        for (String line : script.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")
+                    || line.startsWith("cd ") || line.startsWith("export ")) {
+                continue;
+            }
+            String word = line.split("[\\s;|&]", 2)[0];
+            return "sh " + word.substring(word.lastIndexOf('/') + 1);
+        }
+        return "sh";
+    }
+
+    /**
+     * The statistics of a command.
+     * <br>
+     * The percentiles are calculated from the last {@value #SAMPLES}
+     * executions, all other values from all executions.
+     */
+    public static class Statistics {
+
+        private static final int SAMPLES = 1024;
+
+        private final long[] durations = new long[SAMPLES];
+        private long count;
+        private long failed;
+        private long outputSize;
+        private long totalNanos;
+        private long maxNanos;
+
+        private synchronized void record(long durationNanos, int exitCode,
+                long outputSize) {
+            durations[(int) (count % SAMPLES)] = durationNanos;
+            count++;
+            if (exitCode != 0) {
+                failed++;
+            }
+            this.outputSize += outputSize;
+            totalNanos += durationNanos;
+            maxNanos = Math.max(maxNanos, durationNanos);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of executions with a non-zero exit code.
+         *
+         * @return the number of failed executions
+         */
+        public synchronized long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Returns the total size of the output of all executions.
+         *
+         * @return the size in bytes
+         */
+        public synchronized long getOutputSize() {
+            return outputSize;
+        }
+
+        /**
+         * Returns the total time of all executions.
+         *
+         * @param unit the unit of the result
+         * @return the total time
+         */
+        public synchronized long getTotalTime(TimeUnit unit) {
+            return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the longest execution time.
+         *
+         * @param unit the unit of the result
+         * @return the maximum time
+         */
+        public synchronized long getMaxTime(TimeUnit unit) {
+            return unit.convert(maxNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the time the given percentage of the recent executions
+         * didn't exceed.
+         *
+         * @param percentile the percentile between 0 and 100, e.g. 95
+         * @param unit the unit of the result
+         * @return the execution time or 0 if there was no execution
+         */
+        public long getPercentile(double percentile, TimeUnit unit) {
+            long[] sorted;
+            synchronized (this) {
+                sorted = Arrays.copyOf(durations,
+                        (int) Math.min(count, SAMPLES));
+            }
+            if (sorted.length == 0) {
+                return 0;
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            index = Math.max(0, Math.min(sorted.length - 1, index));
+            return unit.convert(sorted[index], TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            TimeUnit ms = TimeUnit.MILLISECONDS;
+            return "count=" + getCount()
+                    + ", failed=" + getFailed()
+                    + ", p50Ms=" + getPercentile(50, ms)
+                    + ", p95Ms=" + getPercentile(95, ms)
+                    + ", maxMs=" + getMaxTime(ms)
+                    + ", totalMs=" + getTotalTime(ms)
+                    + ", outputBytes=" + getOutputSize();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the commands with long-running {@link CommandHelper} processes, so
+ * the JVM doesn't have to be forked for every command.
+ * <br>
+ * Every helper executes one command at a time. Up to
+ * {@value #MAX_HELPERS} helpers are started on demand and reused, e.g. for
+ * the firewall state checking during a running save. If all helpers are busy
+ * or no helper can be started, e.g. because perl isn't installed, the
+ * commands are executed with the fallback executor.
+ * <br>
+ * The helpers can be disabled with the system property
+ * {@value #ENABLED_PROPERTY}{@code =false}.
+ *
+ * @author sschw
+ */
+public class HelperCommandExecutor implements CommandExecutor {
+
+    /**
+     * System property to disable the helper processes.
+     */
+    public static final String ENABLED_PROPERTY = "lernstickWelcome.commandHelper";
+    private static final Logger LOGGER
+            = Logger.getLogger(HelperCommandExecutor.class.getName());
+    private static final int MAX_HELPERS = 2;
+
+    private final CommandExecutor fallback;
+    private final ConcurrentLinkedQueue<CommandHelper> idleHelpers
+            = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger helpers = new AtomicInteger();
+    private volatile boolean disabled;
+
+    /**
+     * Creates a new HelperCommandExecutor.
+     *
+     * @param fallback executes the commands if no helper is available
+     */
+    public HelperCommandExecutor(CommandExecutor fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Returns whether the helper processes are enabled by the system
+     * property {@value #ENABLED_PROPERTY}.
+     *
+     * @return true if the helpers should be used
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(
+                System.getProperty(ENABLED_PROPERTY, "true"));
+    }
+
+    @Override
+    public CommandResult execute(OutputCapture capture, String... command) {
+        List<String> commandList = Arrays.asList(command);
+        CommandResult result = execute(commandList, commandList, capture,
+                command);
+        return result != null ? result : fallback.execute(capture, command);
+    }
+
+    @Override
+    public CommandResult executeScript(String script, OutputCapture capture)
+            throws IOException {
+        CommandResult result = execute(
+                ProcessCommandExecutor.getScriptCommand(script),
+                Collections.singletonList(script), capture,
+                ProcessCommandExecutor.RECORDED_SCRIPT);
+        return result != null
+                ? result : fallback.executeScript(script, capture);
+    }
+
+    /**
+     * Executes a command with a helper.
+     *
+     * @param command the command sent to the helper
+     * @param resultCommand the command stored in the result
+     * @param capture captures the output of the command
+     * @param recordedCommand the command recorded as event
+     * @return the result or null, if the command wasn't executed because no
+     * helper is available
+     */
+    private CommandResult execute(List<String> command,
+            List<String> resultCommand, OutputCapture capture,
+            String... recordedCommand) {
+        CommandHelper helper = acquireHelper();
+        if (helper == null) {
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            helper.send(command);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "command helper failed", ex);
+            releaseHelper(helper);
+            return null;
+        }
+        int exitCode;
+        try (WelcomeEvents.Span span
+                = WelcomeEvents.beginCommand(recordedCommand)) {
+            try {
+                exitCode = helper.receive(capture);
+            } catch (IOException ex) {
+                // The command was started, so it mustn't be executed again
+                LOGGER.log(Level.SEVERE, "command helper failed", ex);
+                exitCode = -1;
+            }
+            capture.finish();
+            span.setResult(exitCode, capture.getTotalSize());
+        } finally {
+            releaseHelper(helper);
+        }
+        return capture.createResult(resultCommand, exitCode, startTime,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Returns an idle helper or starts a new one.
+     *
+     * @return the helper or null if no helper is available
+     */
+    private CommandHelper acquireHelper() {
+        if (disabled) {
+            return null;
+        }
+        CommandHelper helper;
+        while ((helper = idleHelpers.poll()) != null) {
+            if (helper.isUsable()) {
+                return helper;
+            }
+            discardHelper(helper);
+        }
+        if (helpers.incrementAndGet() > MAX_HELPERS) {
+            helpers.decrementAndGet();
+            return null;
+        }
+        try {
+            return CommandHelper.start();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING,
+                    "can't start command helper, executing commands directly",
+                    ex);
+            disabled = true;
+            helpers.decrementAndGet();
+            return null;
+        }
+    }
+
+    private void releaseHelper(CommandHelper helper) {
+        if (helper.isUsable()) {
+            idleHelpers.add(helper);
+        } else {
+            discardHelper(helper);
+        }
+    }
+
+    private void discardHelper(CommandHelper helper) {
+        helper.close();
+        helpers.decrementAndGet();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.io.IOException;
+
+/**
+ * Executes the commands with another executor and records every execution
+ * in the {@link CommandStatistics}.
+ *
+ * @author sschw
+ */
+public class MeasuringCommandExecutor implements CommandExecutor {
+
+    private final CommandExecutor executor;
+    private final CommandStatistics statistics;
+
+    /**
+     * Creates a new MeasuringCommandExecutor.
+     *
+     * @param executor executes the commands
+     * @param statistics receives the executions
+     */
+    public MeasuringCommandExecutor(CommandExecutor executor,
+            CommandStatistics statistics) {
+        this.executor = executor;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public CommandResult execute(OutputCapture capture, String... command) {
+        long start = System.nanoTime();
+        CommandResult result = executor.execute(capture, command);
+        record(CommandStatistics.getCommandName(command), start, result,
+                capture);
+        return result;
+    }
+
+    @Override
+    public CommandResult executeScript(String script, OutputCapture capture)
+            throws IOException {
+        long start = System.nanoTime();
+        CommandResult result = executor.executeScript(script, capture);
+        record(CommandStatistics.getScriptName(script), start, result,
+                capture);
+        return result;
+    }
+
+    private void record(String name, long start, CommandResult result,
+            OutputCapture capture) {
+        statistics.record(name, System.nanoTime() - start,
+                result.getExitCode(), capture.getTotalSize());
+    }
+}
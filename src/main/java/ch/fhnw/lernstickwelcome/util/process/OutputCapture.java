@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Captures the output of a command while it is running.
+ * <br>
+ * Only the last bytes of stdout, stderr and the combined output up to a
+ * limit are kept, so the memory stays the same no matter how much output a
+ * command writes, e.g. apt-get installing big packages. The complete output
+ * can be consumed line by line with a listener while the command is running.
+ * <br>
+ * A capture is used for a single execution.
+ *
+ * @author sschw
+ */
+public class OutputCapture {
+
+    /**
+     * Default number of bytes kept for error messages.
+     */
+    public static final int DEFAULT_LIMIT = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final Tail stdOut;
+    private final Tail stdErr;
+    private final Tail output;
+    private final Consumer<String> lineListener;
+    private final int maxLineLength;
+    private final ByteArrayOutputStream stdOutLine = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream stdErrLine = new ByteArrayOutputStream();
+
+    /**
+     * Creates a capture which keeps the last {@code limit} bytes.
+     *
+     * @param limit the number of bytes kept of every stream
+     */
+    public OutputCapture(int limit) {
+        this(limit, null);
+    }
+
+    /**
+     * Creates a capture which keeps the last {@code limit} bytes and passes
+     * every line to a listener.
+     *
+     * @param limit the number of bytes kept of every stream
+     * @param lineListener receives every line of stdout and stderr in the
+     * thread reading the output, may be null
+     */
+    public OutputCapture(int limit, Consumer<String> lineListener) {
+        this.stdOut = new Tail(limit);
+        this.stdErr = new Tail(limit);
+        this.output = new Tail(limit);
+        this.lineListener = lineListener;
+        this.maxLineLength = Math.min(limit, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Creates a capture which keeps the whole output, e.g. for commands whose
+     * output is parsed.
+     *
+     * @return the capture
+     */
+    public static OutputCapture unbounded() {
+        return new OutputCapture(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Adds output of the command.
+     *
+     * @param error true for output on stderr, false for stdout
+     * @param bytes the buffer containing the output
+     * @param offset the start of the output in the buffer
+     * @param length the number of bytes
+     */
+    synchronized void write(boolean error, byte[] bytes, int offset,
+            int length) {
+        (error ? stdErr : stdOut).write(bytes, offset, length);
+        output.write(bytes, offset, length);
+        if (lineListener != null) {
+            splitLines(error ? stdErrLine : stdOutLine, bytes, offset, length);
+        }
+    }
+
+    /**
+     * Passes the last lines without line separator to the listener. Called
+     * when the command is finished.
+     */
+    synchronized void finish() {
+        if (lineListener != null) {
+            flushLine(stdOutLine);
+            flushLine(stdErrLine);
+        }
+    }
+
+    /**
+     * Returns the total size of the output, including the discarded bytes.
+     *
+     * @return the number of bytes written to stdout and stderr
+     */
+    synchronized long getTotalSize() {
+        return output.total;
+    }
+
+    /**
+     * Creates the result of the command from the captured output.
+     *
+     * @param command the command stored in the result
+     * @param exitCode the exit code of the command
+     * @param startTime the start in milliseconds since the epoch
+     * @param durationNanos the duration in nanoseconds
+     * @return the result
+     */
+    synchronized CommandResult createResult(List<String> command,
+            int exitCode, long startTime, long durationNanos) {
+        return new CommandResult(command, exitCode, stdOut.toString(),
+                stdErr.toString(), output.toString(), startTime,
+                durationNanos, output.isTruncated());
+    }
+
+    private void splitLines(ByteArrayOutputStream line, byte[] bytes,
+            int offset, int length) {
+        int lineStart = offset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (bytes[i] == '\n') {
+                line.write(bytes, lineStart, i - lineStart);
+                flushLine(line);
+                lineStart = i + 1;
+            }
+        }
+        line.write(bytes, lineStart, offset + length - lineStart);
+        if (line.size() > maxLineLength) {
+            // don't keep endless lines, e.g. progress bars using \r
+            flushLine(line);
+        }
+    }
+
+    private void flushLine(ByteArrayOutputStream line) {
+        if (line.size() > 0) {
+            String text = new String(line.toByteArray(), CHARSET);
+            line.reset();
+            lineListener.accept(text.endsWith("\r")
+                    ? text.substring(0, text.length() - 1) : text);
+        }
+    }
+
+    /**
+     * A ring buffer which keeps the last bytes written. It grows on demand,
+     * so small outputs don't allocate the whole limit.
+     */
+    private static class Tail {
+
+        private final int limit;
+        private byte[] buffer = new byte[0];
+        private int start;
+        private int length;
+        private long total;
+
+        Tail(int limit) {
+            this.limit = limit;
+        }
+
+        void write(byte[] bytes, int offset, int count) {
+            total += count;
+            if (count >= limit) {
+                ensureCapacity(limit);
+                System.arraycopy(bytes, offset + count - limit,
+                        buffer, 0, limit);
+                start = 0;
+                length = limit;
+                return;
+            }
+            ensureCapacity((int) Math.min(limit, (long) length + count));
+            int capacity = buffer.length;
+            int end = (start + length) % capacity;
+            int first = Math.min(count, capacity - end);
+            System.arraycopy(bytes, offset, buffer, end, first);
+            System.arraycopy(bytes, offset + first, buffer, 0, count - first);
+            int overflow = length + count - capacity;
+            if (overflow > 0) {
+                // the oldest bytes were overwritten
+                start = (start + overflow) % capacity;
+                length = capacity;
+            } else {
+                length += count;
+            }
+        }
+
+        boolean isTruncated() {
+            return total > length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= buffer.length) {
+                return;
+            }
+            int newCapacity = (int) Math.min(limit, Math.max(capacity,
+                    Math.max(INITIAL_CAPACITY, (long) buffer.length * 2)));
+            byte[] newBuffer = new byte[newCapacity];
+            copyTo(newBuffer);
+            buffer = newBuffer;
+            start = 0;
+        }
+
+        private void copyTo(byte[] target) {
+            int first = Math.min(length, buffer.length - start);
+            System.arraycopy(buffer, start, target, 0, first);
+            System.arraycopy(buffer, 0, target, first, length - first);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            copyTo(bytes);
+            int offset = 0;
+            if (isTruncated() && CHARSET.equals(StandardCharsets.UTF_8)) {
+                // skip the rest of a character cut at the start
+                while (offset < bytes.length
+                        && (bytes[offset] & 0xC0) == 0x80) {
+                    offset++;
+                }
+            }
+            return new String(bytes, offset, bytes.length - offset, CHARSET);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the commands as child processes of the JVM.
+ * <br>
+ * The output is read while the command is running and passed to the
+ * {@link OutputCapture} of the execution. The executor itself has no state
+ * and can be used by any number of threads.
+ *
+ * @author sschw
+ */
+public class ProcessCommandExecutor implements CommandExecutor {
+
+    /**
+     * The command recorded for scripts, the content isn't recorded because it
+     * may contain passwords.
+     */
+    static final String[] RECORDED_SCRIPT = {"/bin/sh", "<script>"};
+    /**
+     * Exit code of the shell for commands which can't be executed.
+     */
+    static final int NOT_EXECUTABLE = 127;
+    private static final Logger LOGGER
+            = Logger.getLogger(ProcessCommandExecutor.class.getName());
+    /**
+     * Reads stderr while the calling thread reads stdout. The pool is
+     * unbounded because every running command needs a reader, a command
+     * waiting for a reader could block on a full pipe.
+     */
+    private static final ExecutorService STDERR_READERS
+            = Executors.newCachedThreadPool(BackgroundExecutor.Backend
+                    .fromProperty(System.getProperty(
+                            BackgroundExecutor.BACKEND_PROPERTY))
+                    .newThreadFactory("command-stderr"));
+
+    @Override
+    public CommandResult execute(OutputCapture capture, String... command) {
+        List<String> commandList = Arrays.asList(command);
+        return execute(commandList, commandList, capture, command);
+    }
+
+    @Override
+    public CommandResult executeScript(String script, OutputCapture capture) {
+        return execute(getScriptCommand(script),
+                Collections.singletonList(script), capture, RECORDED_SCRIPT);
+    }
+
+    /**
+     * Returns the command which executes a script.
+     *
+     * @param script the content of the script
+     * @return the command
+     */
+    static List<String> getScriptCommand(String script) {
+        return Arrays.asList("/bin/sh", "-c", script);
+    }
+
+    private CommandResult execute(List<String> command,
+            List<String> resultCommand, OutputCapture capture,
+            String... recordedCommand) {
+        long startTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        int exitCode;
+        try (WelcomeEvents.Span span
+                = WelcomeEvents.beginCommand(recordedCommand)) {
+            exitCode = run(command, capture);
+            capture.finish();
+            span.setResult(exitCode, capture.getTotalSize());
+        }
+        return capture.createResult(resultCommand, exitCode, startTime,
+                System.nanoTime() - start);
+    }
+
+    private int run(List<String> command, OutputCapture capture) {
+        Process process;
+        try {
+            process = new ProcessBuilder(command)
+                    .redirectInput(ProcessBuilder.Redirect.from(
+                            new File("/dev/null")))
+                    .start();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can not execute " + command.get(0), ex);
+            byte[] message = (command.get(0) + ": " + ex.getMessage() + '\n')
+                    .getBytes();
+            capture.write(true, message, 0, message.length);
+            return NOT_EXECUTABLE;
+        }
+        long pid = getPid(process);
+        if (pid != -1) {
+            RunningCommands.started(pid);
+        }
+        try {
+            return waitFor(process, capture);
+        } finally {
+            if (pid != -1) {
+                RunningCommands.finished(pid);
+            }
+        }
+    }
+
+    private static int waitFor(Process process, OutputCapture capture) {
+        Future<?> stdErrReader = STDERR_READERS.submit(
+                () -> read(process.getErrorStream(), true, capture));
+        read(process.getInputStream(), false, capture);
+
+        // The command mustn't be left running (e.g. apt-get), so we wait
+        // for it even if the task gets cancelled.
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    stdErrReader.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.WARNING,
+                            "can not read output of command", ex.getCause());
+                    break;
+                }
+            }
+            while (true) {
+                try {
+                    return process.waitFor();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the id of a process.
+     *
+     * @param process the process
+     * @return the process id or -1 if it can't be determined
+     */
+    private static long getPid(Process process) {
+        try {
+            // Process.pid() doesn't exist in the JDK the sources target
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (NoSuchMethodException ex) {
+            try {
+                Field pid = process.getClass().getDeclaredField("pid");
+                pid.setAccessible(true);
+                return pid.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException ex2) {
+                LOGGER.log(Level.WARNING, "can not get process id", ex2);
+                return -1;
+            }
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.log(Level.WARNING, "can not get process id", ex);
+            return -1;
+        }
+    }
+
+    private static void read(InputStream stream, boolean error,
+            OutputCapture capture) {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = stream) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                capture.write(error, buffer, 0, read);
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can not read output of command", ex);
+        }
+    }
+}
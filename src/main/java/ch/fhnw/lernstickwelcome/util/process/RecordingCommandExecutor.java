@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the commands with another executor and records every execution
+ * with its output and duration to a file, which can be replayed by the
+ * {@link ReplayCommandExecutor}.
+ * <br>
+ * The whole output of every command is recorded, even if the capture of the
+ * caller keeps only the end of it.
+ *
+ * @author sschw
+ */
+public class RecordingCommandExecutor implements CommandExecutor {
+
+    /**
+     * System property with the file the commands are recorded to.
+     */
+    public static final String FILE_PROPERTY = "lernstickWelcome.recordCommands";
+    private static final Logger LOGGER
+            = Logger.getLogger(RecordingCommandExecutor.class.getName());
+
+    private final CommandExecutor executor;
+    private final Path file;
+
+    /**
+     * Creates a new RecordingCommandExecutor. The records are appended to
+     * the file.
+     *
+     * @param executor executes the commands
+     * @param file the recording file
+     */
+    public RecordingCommandExecutor(CommandExecutor executor, Path file) {
+        this.executor = executor;
+        this.file = file;
+    }
+
+    @Override
+    public CommandResult execute(OutputCapture capture, String... command) {
+        RecordingCapture recording = new RecordingCapture(capture);
+        CommandResult result = executor.execute(recording, command);
+        record(CommandRecord.commandKey(Arrays.asList(command)), result,
+                recording);
+        return result;
+    }
+
+    @Override
+    public CommandResult executeScript(String script, OutputCapture capture)
+            throws IOException {
+        RecordingCapture recording = new RecordingCapture(capture);
+        CommandResult result = executor.executeScript(script, recording);
+        record(CommandRecord.scriptKey(script), result, recording);
+        return result;
+    }
+
+    private synchronized void record(String key, CommandResult result,
+            RecordingCapture recording) {
+        CommandRecord record = new CommandRecord(key, result.getExitCode(),
+                result.getDuration(TimeUnit.NANOSECONDS),
+                recording.getChunks());
+        try {
+            boolean newFile = !Files.exists(file) || Files.size(file) == 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(file,
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND)) {
+                if (newFile) {
+                    writer.write(CommandRecord.HEADER);
+                    writer.newLine();
+                }
+                writer.write(record.format());
+                writer.newLine();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can not record command", ex);
+        }
+    }
+
+    /**
+     * Passes the output to the capture of the caller and keeps all chunks.
+     */
+    private static class RecordingCapture extends OutputCapture {
+
+        private final OutputCapture capture;
+        private final List<CommandRecord.Chunk> chunks = new ArrayList<>();
+
+        RecordingCapture(OutputCapture capture) {
+            super(0);
+            this.capture = capture;
+        }
+
+        @Override
+        synchronized void write(boolean error, byte[] bytes, int offset,
+                int length) {
+            chunks.add(new CommandRecord.Chunk(error,
+                    Arrays.copyOfRange(bytes, offset, offset + length)));
+            capture.write(error, bytes, offset, length);
+        }
+
+        @Override
+        void finish() {
+            capture.finish();
+        }
+
+        @Override
+        long getTotalSize() {
+            return capture.getTotalSize();
+        }
+
+        @Override
+        CommandResult createResult(List<String> command, int exitCode,
+                long startTime, long durationNanos) {
+            return capture.createResult(command, exitCode, startTime,
+                    durationNanos);
+        }
+
+        synchronized List<CommandRecord.Chunk> getChunks() {
+            return new ArrayList<>(chunks);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import ch.fhnw.lernstickwelcome.util.jfr.WelcomeEvents;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays the commands recorded by a {@link RecordingCommandExecutor}
+ * without executing anything, so the model can be used on any system.
+ * <br>
+ * Every execution returns the next recorded result of the same command, the
+ * last one is repeated (e.g. for the firewall state checking). The recorded
+ * duration is waited, multiplied with a time scale: 1 replays the original
+ * latency of the tools, 0 replays without waiting, so only the overhead of
+ * the application is measured. Commands which weren't recorded fail with
+ * exit code 127 like in a shell.
+ *
+ * @author sschw
+ */
+public class ReplayCommandExecutor implements CommandExecutor {
+
+    /**
+     * System property with the recording file which is replayed.
+     */
+    public static final String FILE_PROPERTY = "lernstickWelcome.replayCommands";
+    /**
+     * System property with the time scale of the replay, 1 by default.
+     */
+    public static final String TIME_SCALE_PROPERTY
+            = "lernstickWelcome.replayTimeScale";
+    private static final Logger LOGGER
+            = Logger.getLogger(ReplayCommandExecutor.class.getName());
+
+    private final Map<String, Deque<CommandRecord>> records = new HashMap<>();
+    private final double timeScale;
+
+    /**
+     * Loads a recording.
+     *
+     * @param file the recording file
+     * @param timeScale the factor for the recorded durations
+     * @throws IOException if the recording can't be read
+     */
+    public ReplayCommandExecutor(Path file, double timeScale)
+            throws IOException {
+        if (timeScale < 0) {
+            throw new IllegalArgumentException("negative time scale");
+        }
+        this.timeScale = timeScale;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                CommandRecord record = CommandRecord.parse(line);
+                records.computeIfAbsent(record.getKey(),
+                        key -> new ArrayDeque<>()).add(record);
+            }
+        }
+    }
+
+    /**
+     * Returns the time scale of the system property
+     * {@value #TIME_SCALE_PROPERTY}.
+     *
+     * @return the time scale
+     */
+    public static double getTimeScale() {
+        return Double.parseDouble(
+                System.getProperty(TIME_SCALE_PROPERTY, "1"));
+    }
+
+    @Override
+    public CommandResult execute(OutputCapture capture, String... command) {
+        List<String> commandList = Arrays.asList(command);
+        return replay(CommandRecord.commandKey(commandList), commandList,
+                capture, command);
+    }
+
+    @Override
+    public CommandResult executeScript(String script, OutputCapture capture) {
+        return replay(CommandRecord.scriptKey(script),
+                Collections.singletonList(script), capture,
+                ProcessCommandExecutor.RECORDED_SCRIPT);
+    }
+
+    private CommandResult replay(String key, List<String> command,
+            OutputCapture capture, String... recordedCommand) {
+        try (WelcomeEvents.Span span
+                = WelcomeEvents.beginCommand(recordedCommand)) {
+            CommandResult result = replay(key, command, capture);
+            span.setResult(result.getExitCode(), capture.getTotalSize());
+            return result;
+        }
+    }
+
+    private CommandResult replay(String key, List<String> command,
+            OutputCapture capture) {
+        long startTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        CommandRecord record = nextRecord(key);
+        if (record == null) {
+            LOGGER.log(Level.WARNING, "command not recorded: {0}",
+                    String.join(" ", command).split("\n", 2)[0]);
+            byte[] message = "command not recorded\n".getBytes(
+                    StandardCharsets.UTF_8);
+            capture.write(true, message, 0, message.length);
+            capture.finish();
+            return capture.createResult(command,
+                    ProcessCommandExecutor.NOT_EXECUTABLE, startTime,
+                    System.nanoTime() - start);
+        }
+        for (CommandRecord.Chunk chunk : record.getChunks()) {
+            capture.write(chunk.error, chunk.bytes, 0, chunk.bytes.length);
+        }
+        capture.finish();
+        waitUntil(start + (long) (record.getDurationNanos() * timeScale));
+        return capture.createResult(command, record.getExitCode(), startTime,
+                System.nanoTime() - start);
+    }
+
+    private synchronized CommandRecord nextRecord(String key) {
+        Deque<CommandRecord> queue = records.get(key);
+        if (queue == null) {
+            return null;
+        }
+        return queue.size() > 1 ? queue.poll() : queue.peek();
+    }
+
+    private static void waitUntil(long end) {
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
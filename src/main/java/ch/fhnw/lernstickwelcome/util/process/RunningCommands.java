@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.util.process;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the processes of the commands which are running, per
+ * thread which executes them.
+ * <br>
+ * A cancelled task must only kill the commands it started itself. The other
+ * child processes of the JVM, e.g. the {@link CommandHelper}s, the commands
+ * of other tasks or a browser showing the help, have to keep running.
+ *
+ * @author sschw
+ */
+public final class RunningCommands {
+
+    private static final Map<Thread, Set<Long>> PROCESSES
+            = new ConcurrentHashMap<>();
+
+    private RunningCommands() {
+    }
+
+    /**
+     * Returns the processes of the commands a thread is executing.
+     *
+     * @param thread the thread, may be null
+     * @return the process ids, the descendants of the processes aren't
+     * included
+     */
+    public static Set<Long> getProcesses(Thread thread) {
+        if (thread == null) {
+            return Collections.emptySet();
+        }
+        Set<Long> processes = PROCESSES.get(thread);
+        if (processes == null) {
+            return Collections.emptySet();
+        }
+        synchronized (processes) {
+            return new HashSet<>(processes);
+        }
+    }
+
+    /**
+     * Registers the process of a command which was started by the current
+     * thread.
+     *
+     * @param pid the process id
+     */
+    static void started(long pid) {
+        Set<Long> processes = PROCESSES.computeIfAbsent(
+                Thread.currentThread(), thread -> new HashSet<>());
+        synchronized (processes) {
+            processes.add(pid);
+        }
+    }
+
+    /**
+     * Removes the process of a command which was started by the current
+     * thread and has terminated.
+     *
+     * @param pid the process id
+     */
+    static void finished(long pid) {
+        // only the current thread adds processes to its set
+        PROCESSES.computeIfPresent(Thread.currentThread(), (thread, set) -> {
+            synchronized (set) {
+                set.remove(pid);
+                return set.isEmpty() ? null : set;
+            }
+        });
+    }
+}
@@ -0,0 +1,87 @@
+# Helper process of the lernstick welcome application (see CommandHelper.java)
+#
+# Executes the commands received on stdin one after the other and streams
+# their output back on stdout. All frames start with a header line:
+#
+# request:  "C <argc>\n" followed by <argc> times "<length>\n<argument>"
+# response: "P <pid>\n" when the command is started
+#           "O <length>\n<bytes>" for output on stdout
+#           "E <length>\n<bytes>" for output on stderr
+#           "X <exit code>\n" when the command is finished
+#
+# The helper terminates when stdin is closed.
+use strict;
+use warnings;
+use POSIX ();
+
+binmode STDIN;
+binmode STDOUT;
+$| = 1;
+
+sub read_bytes {
+    my ($length) = @_;
+    my $buffer = '';
+    while (length($buffer) < $length) {
+        my $read = read(STDIN, $buffer, $length - length($buffer),
+            length($buffer));
+        return undef unless $read;
+    }
+    return $buffer;
+}
+
+while (defined(my $header = <STDIN>)) {
+    my ($argc) = $header =~ /^C (\d+)\n\z/ or die "invalid request: $header";
+    my @command;
+    for (1 .. $argc) {
+        my $length = <STDIN>;
+        exit 0 unless defined $length;
+        chomp $length;
+        my $argument = read_bytes($length);
+        exit 0 unless defined $argument;
+        push @command, $argument;
+    }
+
+    pipe(my $stdout_read, my $stdout_write) or die "pipe: $!";
+    pipe(my $stderr_read, my $stderr_write) or die "pipe: $!";
+    my $pid = fork();
+    if (!defined $pid) {
+        my $message = "fork failed: $!\n";
+        print 'E ', length($message), "\n", $message, "X 127\n";
+        next;
+    }
+    if ($pid == 0) {
+        open(STDIN, '<', '/dev/null');
+        open(STDOUT, '>&', $stdout_write);
+        open(STDERR, '>&', $stderr_write);
+        { no warnings 'exec'; exec { $command[0] } @command; }
+        print STDERR "$command[0]: $!\n";
+        POSIX::_exit(127);
+    }
+    close $stdout_write;
+    close $stderr_write;
+    # the application kills the command, not the helper, on a timeout
+    print "P $pid\n";
+
+    # forward the output in the order it is written
+    my %streams = (O => $stdout_read, E => $stderr_read);
+    while (%streams) {
+        my $bits = '';
+        vec($bits, fileno($_), 1) = 1 for values %streams;
+        next if select(my $ready = $bits, undef, undef, undef) < 0;
+        for my $type (sort keys %streams) {
+            my $stream = $streams{$type};
+            next unless vec($ready, fileno($stream), 1);
+            my $read = sysread($stream, my $buffer, 65536);
+            next if !defined $read && $!{EINTR};
+            if ($read) {
+                print $type, ' ', length($buffer), "\n", $buffer;
+            } else {
+                close $stream;
+                delete $streams{$type};
+            }
+        }
+    }
+    waitpid($pid, 0);
+    my $exit_code = ($? & 127) ? 128 + ($? & 127) : $? >> 8;
+    print "X $exit_code\n";
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.model;
+
+import ch.fhnw.lernstickwelcome.model.ProgressAggregator;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the weighting of the progress and the estimation of the remaining
+ * time.
+ *
+ * @author sschw
+ */
+public class ProgressAggregatorTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testProgressIsWeightedByCost() {
+        ProgressAggregator aggregator
+                = new ProgressAggregator(new double[]{1, 3});
+        assertEquals(0, aggregator.getProgress(), DELTA);
+
+        aggregator.update(0, 1);
+        assertEquals(0.25, aggregator.getProgress(), DELTA);
+
+        aggregator.update(1, 0.5);
+        assertEquals(0.625, aggregator.getProgress(), DELTA);
+
+        // repeated updates replace the previous progress of the task
+        aggregator.update(1, 0.5);
+        assertEquals(0.625, aggregator.getProgress(), DELTA);
+        aggregator.update(1, 1);
+        assertEquals(1, aggregator.getProgress(), DELTA);
+    }
+
+    @Test
+    public void testProgressIsClamped() {
+        ProgressAggregator aggregator
+                = new ProgressAggregator(new double[]{1, 1});
+        aggregator.update(0, 0.5);
+        // indeterminate progress counts as nothing done
+        aggregator.update(0, -1);
+        assertEquals(0, aggregator.getProgress(), DELTA);
+
+        aggregator.update(1, 2);
+        assertEquals(0.5, aggregator.getProgress(), DELTA);
+    }
+
+    @Test
+    public void testTasksWithoutCost() {
+        // nothing to do is done
+        assertEquals(1, new ProgressAggregator(new double[0]).getProgress(),
+                DELTA);
+
+        ProgressAggregator aggregator
+                = new ProgressAggregator(new double[]{-5, 2});
+        aggregator.update(0, 1);
+        assertEquals(0, aggregator.getProgress(), DELTA);
+        aggregator.update(1, 0.5);
+        assertEquals(0.5, aggregator.getProgress(), DELTA);
+    }
+
+    @Test
+    public void testRemainingSeconds() {
+        ProgressAggregator aggregator
+                = new ProgressAggregator(new double[]{10, 30});
+        assertEquals(40, aggregator.getRemainingSeconds(0), DELTA);
+
+        // too little progress to measure the speed
+        aggregator.update(0, 0.1);
+        assertEquals(39, aggregator.getRemainingSeconds(100), DELTA);
+
+        // 10 seconds of estimated work took 20 seconds
+        aggregator.update(0, 1);
+        assertEquals(60, aggregator.getRemainingSeconds(20), DELTA);
+
+        aggregator.update(1, 1);
+        assertEquals(0, aggregator.getRemainingSeconds(80), DELTA);
+    }
+}
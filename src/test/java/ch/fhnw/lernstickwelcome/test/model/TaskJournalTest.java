@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.model;
+
+import ch.fhnw.lernstickwelcome.model.TaskJournal;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests writing and reading the journal of a TaskProcessor run.
+ *
+ * @author sschw
+ */
+public class TaskJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path path;
+    private TaskJournal journal;
+
+    @Before
+    public void setup() {
+        path = folder.getRoot().toPath().resolve("journal");
+        journal = new TaskJournal(path);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Map<String, List<String>> states = new LinkedHashMap<>();
+        states.put("FirewallTask-1", Collections.<String>emptyList());
+        // the values are encoded, so they may contain separators
+        states.put("ApplicationGroupTask-1", Arrays.asList(
+                "GIMP 2", "line\nbreak", "100% ä"));
+        states.put("ApplicationGroupTask-2", Collections.<String>emptyList());
+        journal.begin(states);
+        journal.taskStarted("FirewallTask-1");
+        journal.taskFinished("FirewallTask-1");
+        journal.taskStarted("ApplicationGroupTask-1");
+        journal.close();
+
+        TaskJournal.Entry entry = journal.read();
+        assertNotNull(entry);
+        assertEquals(Arrays.asList("FirewallTask-1", "ApplicationGroupTask-1",
+                "ApplicationGroupTask-2"), entry.getTaskIds());
+        assertEquals(states.get("ApplicationGroupTask-1"),
+                entry.getState("ApplicationGroupTask-1"));
+        assertTrue(entry.getState("FirewallTask-1").isEmpty());
+        assertEquals(Collections.singleton("FirewallTask-1"),
+                entry.getFinished());
+        assertTrue(entry.hasUnfinishedTasks());
+        assertTrue(entry.hasUnfinishedTasksWithState());
+    }
+
+    @Test
+    public void testUnfinishedTasksWithoutState() {
+        Map<String, List<String>> states = new LinkedHashMap<>();
+        states.put("ApplicationGroupTask-1", Collections.singletonList("GIMP"));
+        states.put("FirewallTask-1", Collections.<String>emptyList());
+        journal.begin(states);
+        journal.taskFinished("ApplicationGroupTask-1");
+        journal.close();
+
+        TaskJournal.Entry entry = journal.read();
+        assertTrue(entry.hasUnfinishedTasks());
+        assertFalse(entry.hasUnfinishedTasksWithState());
+    }
+
+    @Test
+    public void testAllTasksFinished() {
+        journal.begin(Collections.singletonMap("PropertiesTask-1",
+                Collections.<String>emptyList()));
+        journal.taskFinished("PropertiesTask-1");
+        journal.close();
+
+        assertFalse(journal.read().hasUnfinishedTasks());
+    }
+
+    @Test
+    public void testTruncatedLastLine() throws IOException {
+        Map<String, List<String>> states = new LinkedHashMap<>();
+        states.put("A-1", Collections.<String>emptyList());
+        states.put("B-1", Collections.<String>emptyList());
+        journal.begin(states);
+        journal.taskFinished("A-1");
+        journal.close();
+        // the run was killed while writing the next line
+        Files.write(path, "FINISHED B".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        TaskJournal.Entry entry = journal.read();
+        assertEquals(Collections.singleton("A-1"), entry.getFinished());
+        assertTrue(entry.hasUnfinishedTasks());
+    }
+
+    @Test
+    public void testUnknownLinesAreIgnored() throws IOException {
+        Files.write(path, ("RUN A-1 B-1\nSTATE A-1\nPAUSED A-1\n"
+                + "FINISHED B-1\n").getBytes(StandardCharsets.UTF_8));
+
+        TaskJournal.Entry entry = journal.read();
+        assertEquals(Arrays.asList("A-1", "B-1"), entry.getTaskIds());
+        assertTrue(entry.getState("A-1").isEmpty());
+        assertEquals(Collections.singleton("B-1"), entry.getFinished());
+    }
+
+    @Test
+    public void testInvalidJournal() throws IOException {
+        assertNull(journal.read());
+
+        Files.write(path, "STARTED A-1\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(journal.read());
+
+        // not even the first line is complete
+        Files.write(path, "RUN A-1".getBytes(StandardCharsets.UTF_8));
+        assertNull(journal.read());
+    }
+
+    @Test
+    public void testBeginReplacesPreviousRun() {
+        journal.begin(Collections.singletonMap("A-1",
+                Collections.singletonList("old")));
+        journal.taskFinished("A-1");
+        journal.begin(Collections.singletonMap("B-1",
+                Collections.<String>emptyList()));
+        journal.close();
+
+        TaskJournal.Entry entry = journal.read();
+        assertEquals(Collections.singletonList("B-1"), entry.getTaskIds());
+        assertTrue(entry.getState("A-1").isEmpty());
+        assertTrue(entry.getFinished().isEmpty());
+    }
+
+    @Test
+    public void testDelete() {
+        journal.begin(Collections.singletonMap("A-1",
+                Collections.<String>emptyList()));
+        journal.delete();
+
+        assertFalse(Files.exists(path));
+        assertNull(journal.read());
+        // appending to a deleted journal doesn't create it again
+        journal.taskFinished("A-1");
+        assertFalse(Files.exists(path));
+        // the temporary file of begin() isn't left behind
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
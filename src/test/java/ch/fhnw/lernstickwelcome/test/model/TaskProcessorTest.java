@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.model;
+
+import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
+import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.ProcessableTask;
+import ch.fhnw.lernstickwelcome.model.TaskJournal;
+import ch.fhnw.lernstickwelcome.model.TaskProcessor;
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.concurrent.Task;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the scheduling, the error policies and the journal of the
+ * TaskProcessor. The tasks are run without GUI, like on the command line.
+ *
+ * @author sschw
+ */
+public class TaskProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private BackgroundExecutor executor;
+    /**
+     * The started and finished tasks in the order they happened.
+     */
+    private final List<String> log
+            = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeClass
+    public static void setupClass() {
+        UpdateDispatcher.setHeadless(true);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        UpdateDispatcher.setHeadless(false);
+    }
+
+    @Before
+    public void setup() {
+        executor = new BackgroundExecutor(2, 4, 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSequentialByDefault() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        TestProcessable c = new TestProcessable("c");
+        a.sleepMillis = 50;
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(a, b, c), executor);
+
+        assertNull(run(processor));
+        assertEquals(Arrays.asList("a started", "a finished", "b started",
+                "b finished", "c started", "c finished"), log);
+        assertEquals("TaskProcessor.finishedTitle",
+                processor.titleProperty().get());
+    }
+
+    @Test(timeout = 30000)
+    public void testIndependentTasksRunConcurrently()
+            throws InterruptedException {
+        // each task waits until the other one is running
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        a.meeting = bothRunning;
+        b.meeting = bothRunning;
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(a, b), 2, executor);
+
+        assertNull(run(processor));
+        assertEquals(4, log.size());
+    }
+
+    @Test
+    public void testDependencies() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        TestProcessable c = new TestProcessable("c");
+        a.sleepMillis = 100;
+        // declared by the Processable and added to the processor
+        b.dependencies = Collections.singletonList(a);
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(c, b, a), 3, executor);
+        processor.addDependency(c, b);
+
+        assertNull(run(processor));
+        assertTrue(log.indexOf("a finished") < log.indexOf("b started"));
+        assertTrue(log.indexOf("b finished") < log.indexOf("c started"));
+    }
+
+    @Test
+    public void testTasksWithoutChangesAreSkipped()
+            throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        a.changes = false;
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(a, b), executor);
+
+        assertNull(run(processor));
+        assertEquals(Arrays.asList("b started", "b finished"), log);
+    }
+
+    @Test
+    public void testLastTasksWithoutChanges() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        TestProcessable c = new TestProcessable("c");
+        b.changes = false;
+        c.changes = false;
+        c.dependencies = Collections.singletonList(b);
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(a, b, c), executor);
+
+        // nothing is left to start, but that isn't a cycle
+        assertNull(run(processor));
+        assertEquals(Arrays.asList("a started", "a finished"), log);
+    }
+
+    @Test
+    public void testProgress() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        TestProcessable c = new TestProcessable("c");
+        a.cost = 3;
+        b.changes = false;
+        List<Double> progress = Collections.synchronizedList(
+                new ArrayList<>());
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(a, b, c), executor);
+        processor.progressProperty().addListener(
+                (observable, oldValue, newValue) -> progress.add(
+                        newValue.doubleValue()));
+
+        assertNull(run(processor));
+        // a is weighted by its cost, the skipped b counts as complete
+        assertEquals(Arrays.asList(0.6, 0.8, 1.0), progress);
+        assertEquals(0, processor.remainingSecondsProperty().get(), 1e-9);
+    }
+
+    @Test
+    public void testStopAfterFailure() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        a.failure = new ProcessingException("a.failed");
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(a, b), executor);
+
+        assertSame(a.failure, run(processor));
+        assertEquals(Collections.singletonList("a started"), log);
+    }
+
+    @Test
+    public void testContinueAfterFailure() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        TestProcessable c = new TestProcessable("c");
+        TestProcessable d = new TestProcessable("d");
+        a.failure = new ProcessingException("a.failed");
+        d.failure = new ProcessingException("d.failed");
+        TaskProcessor processor = new TaskProcessor(
+                Arrays.asList(a, b, c, d), executor);
+        processor.setErrorPolicy(TaskProcessor.ErrorPolicy.CONTINUE);
+        processor.addDependency(b, a);
+        processor.addOrdering(c, a);
+
+        Exception exception = run(processor);
+        // b needs a, c is only run after it
+        assertFalse(log.contains("b started"));
+        assertTrue(log.contains("c finished"));
+        assertTrue(exception instanceof ProcessingException);
+        assertEquals("TaskProcessor.multipleErrors", exception.getMessage());
+        assertEquals(Arrays.asList(a.failure, d.failure),
+                Arrays.asList(exception.getSuppressed()));
+    }
+
+    @Test
+    public void testCyclicDependencies() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(a, b), executor);
+        processor.addDependency(a, b);
+        processor.addDependency(b, a);
+
+        assertTrue(run(processor) instanceof IllegalStateException);
+        assertTrue(log.isEmpty());
+    }
+
+    @Test(timeout = 30000)
+    public void testTimeout() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        a.sleepMillis = TimeUnit.MINUTES.toMillis(1);
+        TaskProcessor processor
+                = new TaskProcessor(Collections.singletonList(a), executor);
+        processor.setTimeout(a, 1);
+
+        Exception exception = run(processor);
+        assertTrue(exception instanceof ProcessingException);
+        assertEquals("TaskProcessor.timeout", exception.getMessage());
+        assertArrayEquals(new Object[]{"a"},
+                ((ProcessingException) exception).getMessageDetails());
+        assertFalse(log.contains("a finished"));
+    }
+
+    @Test(timeout = 30000)
+    public void testTimeoutStartsWithTask() throws InterruptedException {
+        BackgroundExecutor busyExecutor = new BackgroundExecutor(2, 1, 1);
+        try {
+            // the only process thread is busy longer than the timeout
+            busyExecutor.execute(BackgroundExecutor.Pool.PROCESS, () -> {
+                try {
+                    Thread.sleep(1500);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            TestProcessable a = new TestProcessable("a");
+            a.sleepMillis = 200;
+            TaskProcessor processor = new TaskProcessor(
+                    Collections.singletonList(a), busyExecutor);
+            processor.setTimeout(a, 1);
+
+            assertNull(run(processor));
+            assertEquals(Arrays.asList("a started", "a finished"), log);
+        } finally {
+            busyExecutor.shutdown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testCancel() throws InterruptedException {
+        TestProcessable a = new TestProcessable("a");
+        TestProcessable b = new TestProcessable("b");
+        a.started = new CountDownLatch(1);
+        a.sleepMillis = TimeUnit.MINUTES.toMillis(1);
+        TaskProcessor processor
+                = new TaskProcessor(Arrays.asList(a, b), executor);
+        AtomicInteger cleanups = new AtomicInteger();
+        processor.addCleanup(cleanups::incrementAndGet);
+
+        CountDownLatch finished = watchFinished(processor);
+        processor.run();
+        a.started.await();
+        processor.cancel();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+        assertEquals("TaskProcessor.cancelled",
+                processor.exceptionProperty().get().getMessage());
+        assertEquals(Collections.singletonList("a started"), log);
+        assertTrue(cleanups.get() > 0);
+    }
+
+    @Test
+    public void testJournalAndResume() throws InterruptedException {
+        Path path = folder.getRoot().toPath().resolve("journal");
+        TaskJournal journal = new TaskJournal(path);
+        TestProcessable setting = new TestProcessable("setting");
+        TestProcessable other = new TestProcessable("other");
+        TestProcessable persister = new TestProcessable("persister");
+        persister.failure = new ProcessingException("persister.failed");
+        List<Processable> tasks = Arrays.asList(setting, other, persister);
+        TaskProcessor processor = new TaskProcessor(tasks, executor);
+        processor.setErrorPolicy(TaskProcessor.ErrorPolicy.CONTINUE);
+        processor.setJournal(journal);
+        processor.addDependency(persister, setting);
+        processor.addPersister(persister, setting);
+
+        assertSame(persister.failure, run(processor));
+        TaskJournal.Entry entry = journal.read();
+        // the setting wasn't saved, so it isn't finished
+        assertEquals(Collections.singleton("TestProcessable-2"),
+                entry.getFinished());
+        assertEquals(Collections.singletonList("state of setting"),
+                entry.getState("TestProcessable-1"));
+        assertTrue(processor.canResume(entry));
+
+        log.clear();
+        persister.failure = null;
+        CountDownLatch finished = watchFinished(processor);
+        processor.resume(entry);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+        assertNull(processor.exceptionProperty().get());
+        assertEquals(Arrays.asList("setting started", "setting finished",
+                "persister started", "persister finished"), log);
+        assertEquals(Collections.singletonList("state of setting"),
+                setting.restoredState);
+        // a successful run doesn't need to be resumed
+        assertFalse(Files.exists(path));
+        assertFalse(processor.canResume(journal.read()));
+    }
+
+    @Test
+    public void testResumeNeedsJournalState() throws InterruptedException {
+        TaskJournal journal = new TaskJournal(
+                folder.getRoot().toPath().resolve("journal"));
+        TestProcessable a = new TestProcessable("a");
+        a.stateless = true;
+        a.failure = new ProcessingException("a.failed");
+        TaskProcessor processor
+                = new TaskProcessor(Collections.singletonList(a), executor);
+        processor.setJournal(journal);
+
+        assertSame(a.failure, run(processor));
+        TaskJournal.Entry entry = journal.read();
+        assertTrue(entry.hasUnfinishedTasks());
+        // the task would read its unchanged settings from the system again
+        assertFalse(processor.canResume(entry));
+    }
+
+    /**
+     * Runs the processor and waits until it is finished.
+     *
+     * @param processor the processor
+     * @return the exception of the run or null
+     * @throws InterruptedException if the test is interrupted
+     */
+    private static Exception run(TaskProcessor processor)
+            throws InterruptedException {
+        CountDownLatch finished = watchFinished(processor);
+        processor.run();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        return processor.exceptionProperty().get();
+    }
+
+    private static CountDownLatch watchFinished(TaskProcessor processor) {
+        CountDownLatch finished = new CountDownLatch(1);
+        processor.finishedProperty().addListener(
+                (observable, oldValue, newValue) -> {
+                    if (newValue) {
+                        finished.countDown();
+                    }
+                });
+        return finished;
+    }
+
+    /**
+     * A Processable whose task logs its start and end.
+     */
+    private class TestProcessable implements Processable<String> {
+
+        private final String name;
+        private Collection<Processable> dependencies
+                = Collections.emptyList();
+        private boolean changes = true;
+        private Exception failure;
+        private double cost = 1;
+        private long sleepMillis;
+        private CountDownLatch started;
+        private CountDownLatch meeting;
+        private List<String> restoredState;
+        private boolean stateless;
+
+        TestProcessable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Task<String> newTask() {
+            return new ProcessableTask<String>() {
+                @Override
+                protected String call() throws Exception {
+                    updateTitle(name);
+                    log.add(name + " started");
+                    if (started != null) {
+                        started.countDown();
+                    }
+                    if (meeting != null) {
+                        meeting.countDown();
+                        assertTrue(meeting.await(10, TimeUnit.SECONDS));
+                    }
+                    Thread.sleep(sleepMillis);
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    updateProgress(1, 1);
+                    log.add(name + " finished");
+                    return name;
+                }
+            };
+        }
+
+        @Override
+        public Collection<Processable> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public boolean hasChanges() {
+            return changes;
+        }
+
+        @Override
+        public double getEstimatedCost() {
+            return cost;
+        }
+
+        @Override
+        public List<String> getJournalState() {
+            return stateless ? Collections.<String>emptyList()
+                    : Collections.singletonList("state of " + name);
+        }
+
+        @Override
+        public void restoreJournalState(List<String> state) {
+            restoredState = state;
+        }
+    }
+}
@@ -22,11 +22,8 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
-
 import org.junit.Before;
 import org.junit.Test;
-import org.xml.sax.SAXException;
 
 import ch.fhnw.lernstickwelcome.model.application.ApplicationTask;
 import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
@@ -47,8 +44,7 @@ public class WelcomeModelFactoryTest {
     }
 
     @Test
-    public void testGetApplicationTask() throws
-            ParserConfigurationException, SAXException, IOException {
+    public void testGetApplicationTask() throws IOException {
 
         ApplicationTask t = WelcomeModelFactory.getApplicationTask("Kstars");
         assertTrue(t.getName().equals("Kstars"));
@@ -86,7 +82,7 @@ public class WelcomeModelFactoryTest {
 
     @Test
     public void testGetApplicationTasks()
-            throws ParserConfigurationException, SAXException, IOException {
+            throws IOException {
 
         List<ApplicationTask> ts
                 = WelcomeModelFactory.getApplicationTasks("recommended");
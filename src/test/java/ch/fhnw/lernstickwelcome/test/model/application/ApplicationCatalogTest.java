@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.model.application;
+
+import ch.fhnw.lernstickwelcome.model.application.ApplicationCatalog;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests reading the application catalog and the compiled format.
+ *
+ * @author sschw
+ */
+public class ApplicationCatalogTest {
+
+    private static final String CATALOG
+            = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<applications>\n"
+            + "    <application name=\"Reader\">\n"
+            + "        <description>Reader.description</description>\n"
+            + "        <icon>reader</icon>\n"
+            + "        <installed-names>\n"
+            + "            <installed-name>reader-ä</installed-name>\n"
+            + "        </installed-names>\n"
+            + "        <packages>\n"
+            + "            <package type=\"aptget\">libgtk2.0-0:i386</package>\n"
+            + "            <package type=\"wget\" fetchUrl=\"ftp://example.com/{0}\""
+            + " saveDir=\"/tmp/reader\">reader.deb</package>\n"
+            + "        </packages>\n"
+            + "        <tags>\n"
+            + "            <tag>recommended</tag>\n"
+            + "            <tag>exam</tag>\n"
+            + "        </tags>\n"
+            + "    </application>\n"
+            + "    <application name=\"Game\">\n"
+            + "        <description>Game.description</description>\n"
+            + "        <help-path>Game.website</help-path>\n"
+            + "        <packages>\n"
+            + "            <package type=\"aptget\">game</package>\n"
+            + "        </packages>\n"
+            + "        <tags>\n"
+            + "            <tag>games</tag>\n"
+            + "            <tag>recommended</tag>\n"
+            + "        </tags>\n"
+            + "    </application>\n"
+            + "    <application name=\"Reader\">\n"
+            + "        <description>duplicate</description>\n"
+            + "    </application>\n"
+            + "</applications>\n";
+
+    @Test
+    public void testRead() throws IOException {
+        ApplicationCatalog catalog = read(CATALOG);
+
+        assertEquals(3, catalog.getAllEntries().size());
+        // the first application with a name wins
+        assertEquals(2, catalog.getEntries().size());
+        ApplicationCatalog.Entry reader = catalog.getEntry("Reader");
+        assertEquals("Reader.description", reader.getDescription());
+        assertEquals("reader", reader.getIcon());
+        assertNull(reader.getHelpPath());
+        assertEquals(Arrays.asList("reader-ä"), reader.getInstalledNames());
+        assertEquals(Arrays.asList("recommended", "exam"), reader.getTags());
+
+        List<ApplicationCatalog.PackageEntry> packages = reader.getPackages();
+        assertEquals(2, packages.size());
+        assertEquals("aptget", packages.get(0).getType());
+        assertEquals("libgtk2.0-0:i386", packages.get(0).getName());
+        assertEquals("", packages.get(0).getFetchUrl());
+        assertEquals("wget", packages.get(1).getType());
+        assertEquals("ftp://example.com/{0}", packages.get(1).getFetchUrl());
+        assertEquals("/tmp/reader", packages.get(1).getSaveDir());
+
+        assertEquals(Arrays.asList("Reader", "Game"), names(
+                catalog.getEntries("recommended")));
+        assertEquals(Arrays.asList("Game"), names(catalog.getEntries("games")));
+        assertTrue(catalog.getEntries("unknown").isEmpty());
+        assertNull(catalog.getEntry("unknown"));
+    }
+
+    @Test
+    public void testCompiledRoundTrip() throws IOException {
+        assertRoundTrip(read(CATALOG));
+    }
+
+    @Test
+    public void testCompiledRoundTripOfApplications() throws IOException {
+        ApplicationCatalog catalog;
+        try (InputStream in = ApplicationCatalog.class.getResourceAsStream(
+                "/applications.xml")) {
+            catalog = ApplicationCatalog.read(in);
+        }
+        assertFalse(catalog.getAllEntries().isEmpty());
+        assertRoundTrip(catalog);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotCompiled() throws IOException {
+        ApplicationCatalog.readCompiled(new ByteArrayInputStream(
+                CATALOG.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherFormatVersion() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        read(CATALOG).write(out);
+        byte[] bytes = out.toByteArray();
+        // the version follows the magic number
+        ByteArrayOutputStream version = new ByteArrayOutputStream();
+        new DataOutputStream(version).writeInt(2);
+        System.arraycopy(version.toByteArray(), 0, bytes, 4, 4);
+        ApplicationCatalog.readCompiled(new ByteArrayInputStream(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedCompiledCatalog() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        read(CATALOG).write(out);
+        ApplicationCatalog.readCompiled(new ByteArrayInputStream(
+                Arrays.copyOf(out.toByteArray(), out.size() - 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidXml() throws IOException {
+        read("<applications><application name=\"x\">");
+    }
+
+    private static ApplicationCatalog read(String xml) throws IOException {
+        return ApplicationCatalog.read(new ByteArrayInputStream(
+                xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<String> names(List<ApplicationCatalog.Entry> entries) {
+        return entries.stream().map(ApplicationCatalog.Entry::getName)
+                .collect(Collectors.toList());
+    }
+
+    private static void assertRoundTrip(ApplicationCatalog catalog)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        catalog.write(out);
+        ApplicationCatalog compiled = ApplicationCatalog.readCompiled(
+                new ByteArrayInputStream(out.toByteArray()));
+
+        List<ApplicationCatalog.Entry> expected = catalog.getAllEntries();
+        List<ApplicationCatalog.Entry> actual = compiled.getAllEntries();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ApplicationCatalog.Entry e = expected.get(i);
+            ApplicationCatalog.Entry a = actual.get(i);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getDescription(), a.getDescription());
+            assertEquals(e.getIcon(), a.getIcon());
+            assertEquals(e.getHelpPath(), a.getHelpPath());
+            assertEquals(e.getInstalledNames(), a.getInstalledNames());
+            assertEquals(e.getTags(), a.getTags());
+            assertEquals(e.getPackages().size(), a.getPackages().size());
+            for (int j = 0; j < e.getPackages().size(); j++) {
+                ApplicationCatalog.PackageEntry ep = e.getPackages().get(j);
+                ApplicationCatalog.PackageEntry ap = a.getPackages().get(j);
+                assertEquals(ep.getType(), ap.getType());
+                assertEquals(ep.getName(), ap.getName());
+                assertEquals(ep.getFetchUrl(), ap.getFetchUrl());
+                assertEquals(ep.getSaveDir(), ap.getSaveDir());
+            }
+        }
+        assertEquals(names(catalog.getEntries("recommended")),
+                names(compiled.getEntries("recommended")));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.model.application;
+
+import ch.fhnw.lernstickwelcome.model.application.DpkgStatusIndex;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests parsing the status file of dpkg and detecting its changes.
+ *
+ * @author sschw
+ */
+public class DpkgStatusIndexTest {
+
+    private static final String STATUS
+            = "Package: gimp\n"
+            + "Status: install ok installed\n"
+            + "Priority: optional\n"
+            + "Architecture: amd64\n"
+            + "Description: GNU Image Manipulation Program\n"
+            + " A multi-line description\n"
+            + " Package: not-a-package\n"
+            + "\n"
+            + "Package: libgtk2.0-0\n"
+            + "Status: install ok installed\n"
+            + "Architecture: i386\n"
+            + "\n"
+            + "Package: libgtk2.0-0\n"
+            + "Status: install ok installed\n"
+            + "Architecture: amd64\n"
+            + "\n"
+            // removed, only the configuration files are left ("rc")
+            + "Package: kstars\n"
+            + "Status: deinstall ok config-files\n"
+            + "Architecture: amd64\n"
+            + "\n"
+            // selected but not yet completely installed
+            + "Package: scribus\n"
+            + "Status: install ok unpacked\n"
+            + "Architecture: amd64\n"
+            + "\n"
+            // the last paragraph has no empty line
+            + "Package: lernstick-kstars\n"
+            + "Status: install ok installed\n"
+            + "Architecture: all";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path statusFile;
+    private DpkgStatusIndex index;
+
+    @Before
+    public void setup() throws IOException {
+        statusFile = folder.getRoot().toPath().resolve("status");
+        writeStatus(STATUS);
+        index = new DpkgStatusIndex(statusFile);
+    }
+
+    @Test
+    public void testIsInstalled() {
+        assertTrue(index.isInstalled("gimp"));
+        assertTrue(index.isInstalled("gimp:amd64"));
+        assertFalse(index.isInstalled("gimp:i386"));
+        assertTrue(index.isInstalled("libgtk2.0-0:i386"));
+        assertTrue(index.isInstalled("libgtk2.0-0:amd64"));
+        assertTrue(index.isInstalled("lernstick-kstars"));
+        assertFalse(index.isInstalled("kstars"));
+        assertFalse(index.isInstalled("scribus"));
+        assertFalse(index.isInstalled("not-a-package"));
+        assertFalse(index.isInstalled("unknown"));
+
+        assertTrue(index.areInstalled(Arrays.asList(
+                "gimp", "libgtk2.0-0:i386")));
+        assertFalse(index.areInstalled(Arrays.asList("gimp", "kstars")));
+        assertTrue(index.areInstalled(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void testMissingStatusFile() throws IOException {
+        Files.delete(statusFile);
+        DpkgStatusIndex missing = new DpkgStatusIndex(statusFile);
+        assertFalse(missing.isInstalled("gimp"));
+
+        // read as soon as it exists
+        writeStatus(STATUS);
+        assertTrue(missing.isInstalled("gimp"));
+    }
+
+    @Test
+    public void testChangedPackages() throws IOException {
+        List<Set<String>> changes = new ArrayList<>();
+        index.addListener(changes::add);
+        assertTrue(index.isInstalled("gimp"));
+        // nobody has seen the first state, so it isn't a change
+        assertTrue(changes.isEmpty());
+
+        // dpkg installed kstars and removed the i386 libgtk2.0-0 and gimp
+        writeStatus(STATUS
+                .replace("deinstall ok config-files", "install ok installed")
+                .replace("Package: gimp\nStatus: install ok installed",
+                        "Package: gimp\nStatus: deinstall ok config-files")
+                .replace("Package: libgtk2.0-0\n"
+                        + "Status: install ok installed\n"
+                        + "Architecture: i386\n\n", ""));
+        assertTrue(index.isInstalled("kstars"));
+        assertFalse(index.isInstalled("gimp"));
+        assertTrue(index.isInstalled("libgtk2.0-0"));
+        assertFalse(index.isInstalled("libgtk2.0-0:i386"));
+        assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList(
+                "kstars", "gimp", "libgtk2.0-0"))), changes);
+
+        // the same content again isn't a change
+        writeStatus(new String(Files.readAllBytes(statusFile),
+                StandardCharsets.UTF_8));
+        assertTrue(index.isInstalled("kstars"));
+        assertEquals(1, changes.size());
+    }
+
+    /**
+     * Replaces the status file like dpkg does.
+     *
+     * @param content the new content
+     * @throws IOException if the file can't be written
+     */
+    private void writeStatus(String content) throws IOException {
+        Path newFile = statusFile.resolveSibling("status-new");
+        Files.write(newFile, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(newFile, statusFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.model.application;
+
+import ch.fhnw.lernstickwelcome.controller.exception.ProcessingException;
+import ch.fhnw.lernstickwelcome.model.Processable;
+import ch.fhnw.lernstickwelcome.model.TaskProcessor;
+import ch.fhnw.lernstickwelcome.model.WelcomeConstants;
+import ch.fhnw.lernstickwelcome.model.WelcomeModelFactory;
+import ch.fhnw.lernstickwelcome.model.application.ApplicationGroupTask;
+import ch.fhnw.lernstickwelcome.model.application.ApplicationTask;
+import ch.fhnw.lernstickwelcome.model.application.AptGetPackages;
+import ch.fhnw.lernstickwelcome.model.application.InstallPostprocessingTask;
+import ch.fhnw.lernstickwelcome.model.application.InstallTransactionTask;
+import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
+import ch.fhnw.lernstickwelcome.test.util.process.CommandRecording;
+import ch.fhnw.lernstickwelcome.util.BackgroundExecutor;
+import ch.fhnw.lernstickwelcome.util.UpdateDispatcher;
+import ch.fhnw.lernstickwelcome.util.process.CommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
+import ch.fhnw.lernstickwelcome.util.process.OutputCapture;
+import ch.fhnw.lernstickwelcome.util.process.ProcessCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.ReplayCommandExecutor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the installation of applications with replayed apt-get output, so the
+ * whole pipeline runs without root rights and package management. The status
+ * file of dpkg is written to the synthetic system root (see
+ * {@link WelcomeConstants#SYSTEM_ROOT_PROPERTY}), the build sets it for the
+ * tests.
+ *
+ * @author sschw
+ */
+public class InstallPipelineTest {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(InstallPipelineTest.class.getName());
+    private static final String INSTALLED_ALPHA
+            = "Package: alpha\n"
+            + "Status: install ok installed\n"
+            + "Architecture: amd64\n"
+            + "\n"
+            + "Package: alpha-data\n"
+            + "Status: install ok installed\n"
+            + "Architecture: all\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private BackgroundExecutor executor;
+
+    @BeforeClass
+    public static void setupClass() {
+        UpdateDispatcher.setHeadless(true);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        UpdateDispatcher.setHeadless(false);
+    }
+
+    @Before
+    public void setup() throws IOException {
+        // never touch the packages of the real system
+        assumeFalse("needs a synthetic system root",
+                WelcomeConstants.SYSTEM_ROOT.isEmpty());
+        writeStatus("");
+        executor = new BackgroundExecutor(2, 2, 1);
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        WelcomeModelFactory.setCommandExecutor(new ProcessCommandExecutor());
+    }
+
+    @Test
+    public void testInstallation() throws Exception {
+        String all = installScript("alpha alpha-data beta gamma delta");
+        String retry = installScript("alpha alpha-data beta");
+        String repair = "apt-get -f -y --force-yes install";
+        CommandRecording recording = new CommandRecording();
+        recording.script(all).duration(2, TimeUnit.SECONDS)
+                .stdOut("Reading package lists...\n")
+                .stdErr("E: Unable to locate package gamma\n")
+                .stdErr("E: Package 'delta' has no installation candidate\n")
+                .exitCode(100);
+        recording.script(retry).duration(30, TimeUnit.SECONDS)
+                .stdOut("dlstatus:1:20.0000:Retrieving file 1 of 3\n")
+                .stdOut("dlstatus:3:100.0000:Retrieving file 3 of 3\n")
+                .stdOut("pmstatus:alpha-data:25.0000:Installing alpha-data\n")
+                .stdOut("pmstatus:alpha:50.0000:Installing alpha (amd64)\n")
+                .stdOut("pmstatus:beta:75.00")
+                .stdOut("00:Installing beta (amd64)\n")
+                .stdOut("pmerror:beta:75.0000:subprocess installed "
+                        + "post-installation script returned error exit "
+                        + "status 1\n")
+                .exitCode(100);
+        recording.script(repair).duration(5, TimeUnit.SECONDS).exitCode(0);
+        ReplayCommandExecutor replay = new ReplayCommandExecutor(
+                recording.write(folder.newFile().toPath()), 0);
+        List<String> scripts = Collections.synchronizedList(new ArrayList<>());
+        WelcomeModelFactory.setCommandExecutor(new CommandExecutor() {
+            @Override
+            public CommandResult execute(OutputCapture capture,
+                    String... command) {
+                return replay.execute(capture, command);
+            }
+
+            @Override
+            public CommandResult executeScript(String script,
+                    OutputCapture capture) throws IOException {
+                scripts.add(script);
+                CommandResult result = replay.executeScript(script, capture);
+                if (script.equals(retry)) {
+                    // dpkg installed alpha before beta failed
+                    writeStatus(INSTALLED_ALPHA);
+                }
+                return result;
+            }
+        });
+
+        ApplicationTask alpha = application("alpha", "alpha", "alpha-data");
+        ApplicationTask beta = application("beta", "beta");
+        ApplicationTask gamma = application("gamma", "gamma");
+        ApplicationTask delta = application("delta", "delta");
+        ProxyTask proxy = new ProxyTask();
+        ApplicationGroupTask group = new ApplicationGroupTask("group", proxy,
+                Arrays.asList(alpha, beta, gamma, delta));
+        InstallTransactionTask transaction
+                = new InstallTransactionTask(proxy, group);
+        InstallPostprocessingTask post
+                = new InstallPostprocessingTask(proxy, group);
+        List<Processable> tasks = Arrays.asList(proxy, transaction, group,
+                post);
+        // like the WelcomeController
+        TaskProcessor processor = new TaskProcessor(tasks, 2, executor);
+        processor.addOrdering(group, transaction);
+        processor.addOrdering(post, group);
+        processor.setErrorPolicy(TaskProcessor.ErrorPolicy.CONTINUE);
+
+        long start = System.nanoTime();
+        Exception exception = run(processor);
+        LOGGER.log(Level.INFO, "replayed installation in {0} ms",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // apt-get was retried without the unknown packages
+        assertEquals(Arrays.asList(all, retry, repair), scripts);
+        assertTrue(alpha.installedProperty().get());
+        for (ApplicationTask app : Arrays.asList(beta, gamma, delta)) {
+            assertFalse(app.installedProperty().get());
+            assertTrue(app.installingProperty().get());
+        }
+        // the group stops at the first failed application
+        assertTrue(exception instanceof ProcessingException);
+        assertEquals("ApplicationTask.installationFailed",
+                exception.getMessage());
+        assertArrayEquals(new Object[]{"beta"},
+                ((ProcessingException) exception).getMessageDetails());
+    }
+
+    @Test
+    public void testNothingToInstall() throws Exception {
+        ReplayCommandExecutor replay = new ReplayCommandExecutor(
+                new CommandRecording().write(folder.newFile().toPath()), 0);
+        WelcomeModelFactory.setCommandExecutor(replay);
+        writeStatus(INSTALLED_ALPHA);
+
+        ApplicationTask alpha = application("alpha", "alpha", "alpha-data");
+        ProxyTask proxy = new ProxyTask();
+        ApplicationGroupTask group = new ApplicationGroupTask("group", proxy,
+                Collections.singletonList(alpha));
+        InstallTransactionTask transaction
+                = new InstallTransactionTask(proxy, group);
+        InstallPostprocessingTask post
+                = new InstallPostprocessingTask(proxy, group);
+        TaskProcessor processor = new TaskProcessor(
+                Arrays.asList(proxy, transaction, group, post), executor);
+
+        // an unrecorded script would fail
+        assertNull(run(processor));
+        assertTrue(alpha.installedProperty().get());
+        assertEquals(1, processor.progressProperty().get(), 1e-9);
+    }
+
+    private static ApplicationTask application(String name,
+            String... packages) {
+        ApplicationTask app = new ApplicationTask(name, name + ".description",
+                name, null, new AptGetPackages(Arrays.asList(packages)), null);
+        app.installingProperty().set(true);
+        return app;
+    }
+
+    /**
+     * Returns the script the InstallTransactionTask runs without proxy.
+     *
+     * @param packages the packages separated by spaces
+     * @return the script
+     */
+    private static String installScript(String packages) {
+        return "#!/bin/sh\n"
+                + "export DEBIAN_FRONTEND=noninteractive\n"
+                + "apt-get  -o APT::Status-Fd=1 -y --force-yes install "
+                + packages + " ";
+    }
+
+    /**
+     * Replaces the status file of dpkg like dpkg does.
+     *
+     * @param content the new content
+     * @throws IOException if the file can't be written
+     */
+    private static void writeStatus(String content) throws IOException {
+        Path statusFile = WelcomeConstants.DPKG_STATUS_FILE;
+        Files.createDirectories(statusFile.getParent());
+        Path newFile = statusFile.resolveSibling("status-new");
+        Files.write(newFile, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(newFile, statusFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Exception run(TaskProcessor processor)
+            throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(1);
+        processor.finishedProperty().addListener(
+                (observable, oldValue, newValue) -> {
+                    if (newValue) {
+                        finished.countDown();
+                    }
+                });
+        processor.run();
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        return processor.exceptionProperty().get();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.model.application;
+
+import ch.fhnw.lernstickwelcome.model.application.PackageCache;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests storing, checking and evicting the cached packages.
+ *
+ * @author sschw
+ */
+public class PackageCacheTest {
+
+    private static final String URL_A = "http://example.com/a.deb";
+    private static final String URL_B = "http://example.com/b.deb";
+    private static final String URL_C = "http://example.com/c.deb";
+    private static final String ETAG = "\"1234\"";
+    private static final String LAST_MODIFIED
+            = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path directory;
+    private Path downloads;
+
+    @Before
+    public void setup() throws IOException {
+        directory = folder.getRoot().toPath().resolve("cache");
+        downloads = folder.newFolder("downloads").toPath();
+    }
+
+    @Test
+    public void testStoreAndCopy() throws IOException {
+        PackageCache cache = new PackageCache(directory, 1000);
+        assertNull(cache.getEntry(URL_A));
+        assertFalse(cache.copy(URL_A, downloads.resolve("a.deb")));
+
+        cache.store(URL_A, download("a", 100), ETAG, LAST_MODIFIED);
+        PackageCache.Entry entry = cache.getEntry(URL_A);
+        assertEquals(ETAG, entry.getEtag());
+        assertEquals(LAST_MODIFIED, entry.getLastModified());
+
+        Path copy = downloads.resolve("copy.deb");
+        assertTrue(cache.copy(URL_A, copy));
+        assertArrayEquals(content("a", 100), Files.readAllBytes(copy));
+
+        // a new cache reads the index
+        assertEquals(ETAG, new PackageCache(directory, 1000)
+                .getEntry(URL_A).getEtag());
+    }
+
+    @Test
+    public void testOnlyOneValidator() throws IOException {
+        PackageCache cache = new PackageCache(directory, 1000);
+        cache.store(URL_A, download("a", 10), null, LAST_MODIFIED);
+        cache.store(URL_B, download("b", 10), ETAG, null);
+
+        assertNull(cache.getEntry(URL_A).getEtag());
+        assertEquals(LAST_MODIFIED, cache.getEntry(URL_A).getLastModified());
+        assertEquals(ETAG, cache.getEntry(URL_B).getEtag());
+        assertNull(cache.getEntry(URL_B).getLastModified());
+    }
+
+    @Test
+    public void testUncheckablePackagesAreNotStored() throws IOException {
+        PackageCache cache = new PackageCache(directory, 1000);
+        cache.store(URL_A, download("a", 10), null, null);
+
+        assertNull(cache.getEntry(URL_A));
+        assertFalse(cache.copy(URL_A, downloads.resolve("copy.deb")));
+    }
+
+    @Test
+    public void testTooBigPackagesAreNotStored() throws IOException {
+        PackageCache cache = new PackageCache(directory, 99);
+        cache.store(URL_A, download("a", 100), ETAG, null);
+
+        assertNull(cache.getEntry(URL_A));
+        assertTrue(getPackages().isEmpty());
+    }
+
+    @Test
+    public void testSamePackageIsStoredOnce() throws IOException {
+        PackageCache cache = new PackageCache(directory, 1000);
+        cache.store(URL_A, download("a", 100), ETAG, null);
+        cache.store(URL_B, download("a", 100), ETAG, null);
+
+        assertEquals(1, getPackages().size());
+        assertTrue(cache.copy(URL_B, downloads.resolve("copy.deb")));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPackageIsEvicted() throws IOException {
+        PackageCache cache = new PackageCache(directory, 250);
+        cache.store(URL_A, download("a", 100), ETAG, null);
+        cache.store(URL_B, download("b", 100), ETAG, null);
+        // a is used after b
+        for (Path file : getPackages()) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(1000));
+        }
+        assertTrue(cache.copy(URL_A, downloads.resolve("copy.deb")));
+
+        cache.store(URL_C, download("c", 100), ETAG, null);
+        assertEquals(2, getPackages().size());
+        assertNull(cache.getEntry(URL_B));
+        assertFalse(cache.copy(URL_B, downloads.resolve("copy.deb")));
+        assertTrue(cache.copy(URL_A, downloads.resolve("copy.deb")));
+        assertTrue(cache.copy(URL_C, downloads.resolve("copy.deb")));
+    }
+
+    @Test
+    public void testStoredPackageIsKept() throws IOException {
+        PackageCache cache = new PackageCache(directory, 150);
+        cache.store(URL_A, download("a", 100), ETAG, null);
+        // the new package is the least recently used one
+        Files.setLastModifiedTime(getPackages().get(0), FileTime.fromMillis(
+                System.currentTimeMillis() + 3600 * 1000));
+        cache.store(URL_B, download("b", 100), ETAG, null);
+
+        assertNull(cache.getEntry(URL_A));
+        assertNotNull(cache.getEntry(URL_B));
+    }
+
+    @Test
+    public void testDamagedPackage() throws IOException {
+        PackageCache cache = new PackageCache(directory, 1000);
+        cache.store(URL_A, download("a", 100), ETAG, null);
+        Path cached = getPackages().get(0);
+        byte[] bytes = Files.readAllBytes(cached);
+        bytes[50] ^= 1;
+        Files.write(cached, bytes);
+
+        Path copy = downloads.resolve("copy.deb");
+        assertFalse(cache.copy(URL_A, copy));
+        assertFalse(Files.exists(copy));
+        assertFalse(Files.exists(cached));
+    }
+
+    @Test
+    public void testIndexWithoutValidators() throws IOException {
+        PackageCache cache = new PackageCache(directory, 1000);
+        cache.store(URL_A, download("a", 100), ETAG, LAST_MODIFIED);
+        // an index written before the validators were stored
+        Path indexFile = directory.resolve("index.properties");
+        Properties index = new Properties();
+        try (InputStream in = Files.newInputStream(indexFile)) {
+            index.load(in);
+        }
+        String hash = index.getProperty(URL_A).split("\t")[0];
+        index.setProperty(URL_A, hash);
+        try (OutputStream out = Files.newOutputStream(indexFile)) {
+            index.store(out, null);
+        }
+
+        // can't be checked for changes, but is still valid
+        assertNull(cache.getEntry(URL_A));
+        assertTrue(cache.copy(URL_A, downloads.resolve("copy.deb")));
+    }
+
+    private Path download(String name, int size) throws IOException {
+        return Files.write(downloads.resolve(name), content(name, size));
+    }
+
+    private static byte[] content(String name, int size) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) name.charAt(0));
+        return content;
+    }
+
+    private List<Path> getPackages() throws IOException {
+        List<Path> packages = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream
+                    = Files.newDirectoryStream(directory, "*.deb")) {
+                stream.forEach(packages::add);
+            }
+        }
+        return packages;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.model.application;
+
+import ch.fhnw.lernstickwelcome.model.application.PackageCache;
+import ch.fhnw.lernstickwelcome.model.application.PackageDownloader;
+import ch.fhnw.lernstickwelcome.model.application.proxy.ProxyTask;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests downloading packages into the cache, revalidating them and
+ * downloading through a proxy.
+ *
+ * @author sschw
+ */
+public class PackageDownloaderTest {
+
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final String ETAG = "\"1234\"";
+    private static final byte[] CONTENT
+            = "package".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private final List<String> requests = new ArrayList<>();
+    private HttpServer server;
+    private PackageCache cache;
+    private Path downloads;
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(LOCALHOST, 0), 0);
+        server.createContext("/", exchange -> {
+            String ifNoneMatch
+                    = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String authorization = exchange.getRequestHeaders()
+                    .getFirst("Proxy-Authorization");
+            synchronized (requests) {
+                requests.add((ifNoneMatch == null ? "GET" : "conditional GET")
+                        + (authorization == null ? "" : " " + new String(
+                                Base64.getDecoder().decode(
+                                        authorization.substring(6)),
+                                StandardCharsets.UTF_8)));
+            }
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            if (exchange.getRequestURI().getHost() != null
+                    && authorization == null) {
+                // a request to the proxy
+                exchange.getResponseHeaders().set(
+                        "Proxy-Authenticate", "Basic realm=\"proxy\"");
+                exchange.sendResponseHeaders(407, -1);
+            } else if (ETAG.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.sendResponseHeaders(200, CONTENT.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(CONTENT);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        cache = new PackageCache(folder.getRoot().toPath().resolve("cache"),
+                1000);
+        downloads = folder.newFolder("downloads").toPath();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testCachedPackageIsRevalidated() throws Exception {
+        String url = getUrl(server.getAddress().getPort());
+
+        assertArrayEquals(CONTENT, download(url, "a.deb"));
+        assertEquals(ETAG, cache.getEntry(url).getEtag());
+        // the cached package is only used if it hasn't changed
+        assertArrayEquals(CONTENT, download(url, "a.deb"));
+        assertEquals(Arrays.asList("GET", "conditional GET"), requests);
+    }
+
+    @Test
+    public void testCachedPackageIsUsedWhenUnreachable() throws Exception {
+        String url = getUrl(getClosedPort());
+        cache.store(url, Files.write(folder.newFile().toPath(), CONTENT),
+                ETAG, null);
+        long start = System.nanoTime();
+
+        assertArrayEquals(CONTENT, download(url, "a.deb"));
+        // used at once instead of retrying the download
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    public void testProxyCredentials() throws Exception {
+        // the server is used as proxy, the URL is never resolved
+        String url = "http://lernstick.invalid/b.deb";
+        ProxyTask proxy = new ProxyTask();
+        proxy.proxyActiveProperty().set(true);
+        proxy.hostnameProperty().set(LOCALHOST);
+        proxy.portProperty().set(
+                String.valueOf(server.getAddress().getPort()));
+        proxy.usernameProperty().set("user");
+        proxy.passwordProperty().set("secret");
+
+        assertArrayEquals(CONTENT, download(proxy, url, "b.deb"));
+        assertEquals(Arrays.asList("GET", "GET user:secret"), requests);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidProxyPort() throws Exception {
+        ProxyTask proxy = new ProxyTask();
+        proxy.proxyActiveProperty().set(true);
+        proxy.hostnameProperty().set(LOCALHOST);
+        proxy.portProperty().set("eighty");
+
+        download(proxy, getUrl(server.getAddress().getPort()), "a.deb");
+    }
+
+    private byte[] download(String url, String name)
+            throws IOException, InterruptedException {
+        return download(new ProxyTask(), url, name);
+    }
+
+    private byte[] download(ProxyTask proxy, String url, String name)
+            throws IOException, InterruptedException {
+        PackageDownloader downloader = new PackageDownloader(cache);
+        Path file = downloader.await(proxy,
+                new PackageDownloader.Download(url, downloads.resolve(name)));
+        return Files.readAllBytes(file);
+    }
+
+    private static String getUrl(int port) {
+        return "http://" + LOCALHOST + ':' + port + "/a.deb";
+    }
+
+    private static int getClosedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1,
+                InetAddress.getByName(LOCALHOST))) {
+            return socket.getLocalPort();
+        }
+    }
+}
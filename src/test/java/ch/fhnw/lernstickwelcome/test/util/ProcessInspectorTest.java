@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.util;
+
+import ch.fhnw.lernstickwelcome.util.ProcessInspector;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests finding the holders of the package locks in {@code /proc/locks}.
+ *
+ * @author sschw
+ */
+public class ProcessInspectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseLockHolders() {
+        List<String> locks = Arrays.asList(
+                "1: POSIX  ADVISORY  WRITE 1234 08:01:131075 0 EOF",
+                // waits for the lock of 1234
+                "1: -> POSIX  ADVISORY  WRITE 1300 08:01:131075 0 EOF",
+                "2: FLOCK  ADVISORY  WRITE 999 08:01:42 0 EOF",
+                // the device numbers are hexadecimal
+                "3: POSIX  ADVISORY  READ 4321 fd:0a:131075 0 EOF",
+                // open file description locks have no owner
+                "4: OFDLCK ADVISORY  WRITE -1 08:01:131075 0 EOF",
+                "5: POSIX  ADVISORY  WRITE 77 08:01:131076 0 EOF");
+        Set<String> fileIds = new HashSet<>(Arrays.asList(
+                "8:1:131075", "253:10:131075"));
+
+        assertEquals(new HashSet<>(Arrays.asList(1234L, 4321L)),
+                ProcessInspector.parseLockHolders(locks, fileIds));
+        assertTrue(ProcessInspector.parseLockHolders(locks,
+                Collections.<String>emptySet()).isEmpty());
+        assertTrue(ProcessInspector.parseLockHolders(
+                Collections.<String>emptyList(), fileIds).isEmpty());
+    }
+
+    @Test
+    public void testGetLockHolders() throws IOException {
+        assumeTrue("needs /proc/locks",
+                Files.isReadable(Paths.get("/proc/locks")));
+        long pid = ProcessInspector.getOwnPid();
+        Path lockFile = folder.newFile("lock").toPath();
+        List<Path> files = Arrays.asList(
+                Paths.get("/nonexistent/lock"), lockFile);
+
+        try (FileChannel channel = FileChannel.open(lockFile,
+                StandardOpenOption.WRITE)) {
+            assertFalse(ProcessInspector.getLockHolders(files).contains(pid));
+            // a POSIX lock, like dpkg uses
+            try (FileLock lock = channel.lock()) {
+                assertEquals(Collections.singleton(pid),
+                        ProcessInspector.getLockHolders(files));
+            }
+            assertFalse(ProcessInspector.getLockHolders(files).contains(pid));
+        }
+        assertTrue(ProcessInspector.getLockHolders(Collections.singletonList(
+                Paths.get("/nonexistent/lock"))).isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.util.process;
+
+import ch.fhnw.lernstickwelcome.util.process.RecordingCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.ReplayCommandExecutor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a recording file for the {@link ReplayCommandExecutor} like the
+ * {@link RecordingCommandExecutor} does, so tests can replay commands which
+ * don't exist on the test system.
+ *
+ * @author sschw
+ */
+public class CommandRecording {
+
+    private static final String HEADER
+            = "# lernstickWelcome command recording 1";
+    private final List<Record> records = new ArrayList<>();
+
+    /**
+     * Adds a command.
+     *
+     * @param command the command and its arguments
+     * @return the record, which has to be completed
+     */
+    public Record command(String... command) {
+        String key = "C:" + Base64.getEncoder().encodeToString(
+                String.join("\0", command).getBytes(StandardCharsets.UTF_8));
+        return add(key);
+    }
+
+    /**
+     * Adds a script.
+     *
+     * @param script the content of the script
+     * @return the record, which has to be completed
+     */
+    public Record script(String script) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+                    script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder("S:");
+            for (byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+            return add(key.toString());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Writes the recording.
+     *
+     * @param file the recording file
+     * @return the file
+     * @throws IOException if the file can't be written
+     */
+    public Path write(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        records.forEach(record -> lines.add(record.format()));
+        return Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    private Record add(String key) {
+        Record record = new Record(key);
+        records.add(record);
+        return record;
+    }
+
+    /**
+     * A recorded execution, the commands are replayed in the order they
+     * were added.
+     */
+    public static class Record {
+
+        private final String key;
+        private final List<String> chunks = new ArrayList<>();
+        private int exitCode;
+        private long durationNanos;
+
+        private Record(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Adds output on stdout.
+         *
+         * @param text the output, written at once
+         * @return this record
+         */
+        public Record stdOut(String text) {
+            return chunk('O', text);
+        }
+
+        /**
+         * Adds output on stderr.
+         *
+         * @param text the output, written at once
+         * @return this record
+         */
+        public Record stdErr(String text) {
+            return chunk('E', text);
+        }
+
+        public Record exitCode(int exitCode) {
+            this.exitCode = exitCode;
+            return this;
+        }
+
+        public Record duration(long duration, TimeUnit unit) {
+            this.durationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        private Record chunk(char stream, String text) {
+            chunks.add(stream + Base64.getEncoder().encodeToString(
+                    text.getBytes(StandardCharsets.UTF_8)));
+            return this;
+        }
+
+        private String format() {
+            return key + '\t' + exitCode + '\t' + durationNanos + '\t'
+                    + String.join(",", chunks);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.util.process;
+
+import ch.fhnw.lernstickwelcome.util.process.CommandStatistics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the statistics of the executed commands.
+ *
+ * @author sschw
+ */
+public class CommandStatisticsTest {
+
+    private static final TimeUnit MS = TimeUnit.MILLISECONDS;
+
+    @Test
+    public void testPercentiles() {
+        CommandStatistics statistics = new CommandStatistics();
+        // recorded in random order, 1 to 100 ms
+        for (int i = 0; i < 100; i++) {
+            statistics.record("dpkg", MS.toNanos((i * 37) % 100 + 1), 0, 0);
+        }
+        CommandStatistics.Statistics dpkg
+                = statistics.getStatistics().get("dpkg");
+        assertEquals(1, dpkg.getPercentile(0, MS));
+        assertEquals(1, dpkg.getPercentile(1, MS));
+        assertEquals(50, dpkg.getPercentile(50, MS));
+        assertEquals(95, dpkg.getPercentile(95, MS));
+        assertEquals(100, dpkg.getPercentile(100, MS));
+        assertEquals(100, dpkg.getMaxTime(MS));
+        assertEquals(5050, dpkg.getTotalTime(MS));
+    }
+
+    @Test
+    public void testPercentilesOfRecentExecutions() {
+        CommandStatistics statistics = new CommandStatistics();
+        for (int i = 0; i < 1024; i++) {
+            statistics.record("df", MS.toNanos(1000), 0, 0);
+        }
+        // the slow executions are replaced by the recent ones
+        for (int i = 0; i < 1024; i++) {
+            statistics.record("df", MS.toNanos(1), 0, 0);
+        }
+        CommandStatistics.Statistics df = statistics.getStatistics().get("df");
+        assertEquals(1, df.getPercentile(99, MS));
+        assertEquals(2048, df.getCount());
+        // unlike the maximum and the total of all executions
+        assertEquals(1000, df.getMaxTime(MS));
+        assertEquals(1024 * 1001, df.getTotalTime(MS));
+    }
+
+    @Test
+    public void testCountsAndOutput() {
+        CommandStatistics statistics = new CommandStatistics();
+        statistics.record("lernstick-firewall", 0, 0, 10);
+        statistics.record("lernstick-firewall", 0, 1, 20);
+        statistics.record("dpkg", 0, 0, 5);
+        assertEquals(Arrays.asList("dpkg", "lernstick-firewall"),
+                new ArrayList<>(statistics.getStatistics().keySet()));
+
+        CommandStatistics.Statistics firewall
+                = statistics.getStatistics().get("lernstick-firewall");
+        assertEquals(2, firewall.getCount());
+        assertEquals(1, firewall.getFailed());
+        assertEquals(30, firewall.getOutputSize());
+    }
+
+    @Test
+    public void testNoExecutions() {
+        CommandStatistics statistics = new CommandStatistics();
+        assertTrue(statistics.getStatistics().isEmpty());
+        statistics.record("df", 0, 0, 0);
+        assertEquals(0, statistics.getStatistics().get("df")
+                .getPercentile(50, MS));
+    }
+
+    @Test
+    public void testCommandNames() {
+        assertEquals("dpkg", CommandStatistics.getCommandName(
+                "/usr/bin/dpkg", "-l"));
+        assertEquals("lernstick-firewall", CommandStatistics.getCommandName(
+                "lernstick-firewall", "status"));
+        assertEquals("", CommandStatistics.getCommandName());
+        // a script is named after its first command, the rest isn't kept
+        assertEquals("sh apt-get", CommandStatistics.getCommandName("sh",
+                "-c", "#!/bin/sh\nexport DEBIAN_FRONTEND=noninteractive\n"
+                + "/usr/bin/apt-get -y install gimp"));
+        assertEquals("sh passwd", CommandStatistics.getScriptName(
+                "cd /home/user\n\npasswd;echo user:secret | chpasswd"));
+        assertEquals("sh", CommandStatistics.getScriptName("# nothing\n"));
+        assertEquals("bash", CommandStatistics.getCommandName("/bin/bash"));
+    }
+}
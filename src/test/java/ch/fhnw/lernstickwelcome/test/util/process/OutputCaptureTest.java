@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.util.process;
+
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
+import ch.fhnw.lernstickwelcome.util.process.OutputCapture;
+import ch.fhnw.lernstickwelcome.util.process.ProcessCommandExecutor;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests keeping the tail of the output of commands. The output of a process
+ * is read in chunks of at most 8 KiB.
+ *
+ * @author sschw
+ */
+public class OutputCaptureTest {
+
+    private final ProcessCommandExecutor executor
+            = new ProcessCommandExecutor();
+
+    @Before
+    public void setup() {
+        assumeTrue("needs /bin/sh", Files.isExecutable(Paths.get("/bin/sh")));
+    }
+
+    @Test
+    public void testSmallOutput() {
+        CommandResult result = run(new OutputCapture(100),
+                "printf out; printf err >&2");
+
+        assertEquals("out", result.getStdOut());
+        assertEquals("err", result.getStdErr());
+        assertEquals(6, result.getOutput().length());
+        assertFalse(result.isTruncated());
+    }
+
+    @Test
+    public void testTailOfManyChunks() {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 20000; i++) {
+            expected.append(i).append('\n');
+        }
+        // the chunks are smaller than the limit and wrap around the buffer
+        int limit = 20000;
+        CommandResult result = run(new OutputCapture(limit), "seq 1 20000");
+
+        assertTrue(result.isTruncated());
+        assertEquals(expected.substring(expected.length() - limit),
+                result.getStdOut());
+        assertEquals(result.getStdOut(), result.getOutput());
+        assertEquals("", result.getStdErr());
+    }
+
+    @Test
+    public void testChunkBiggerThanLimit() {
+        CommandResult result = run(new OutputCapture(4),
+                "printf ab; sleep 0.1; printf 0123456789; sleep 0.1; "
+                + "printf xy");
+
+        assertTrue(result.isTruncated());
+        assertEquals("89xy", result.getStdOut());
+    }
+
+    @Test
+    public void testUnbounded() {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 100000; i++) {
+            expected.append(i).append('\n');
+        }
+        CommandResult result = run(OutputCapture.unbounded(), "seq 1 100000");
+
+        assertFalse(result.isTruncated());
+        assertEquals(expected.toString(), result.getStdOut());
+    }
+
+    @Test
+    public void testCutCharacter() {
+        assumeTrue("needs UTF-8 as default charset",
+                Charset.defaultCharset().equals(StandardCharsets.UTF_8));
+        // "ä" has two bytes, the limit cuts the first one
+        CommandResult result = run(new OutputCapture(4),
+                "printf 'x\\303\\244abc'");
+
+        assertTrue(result.isTruncated());
+        assertEquals("abc", result.getStdOut());
+    }
+
+    @Test
+    public void testLineListener() {
+        List<String> lines = new ArrayList<>();
+        CommandResult result = run(new OutputCapture(8, lines::add),
+                "printf 'first li'; sleep 0.1; printf 'ne\\r\\nsec'; "
+                + "sleep 0.1; printf 'ond\\nlast'");
+
+        // the lines are complete, even if the output is truncated
+        assertEquals(Arrays.asList("first line", "second", "last"), lines);
+        assertTrue(result.isTruncated());
+        assertEquals("ond\nlast", result.getStdOut());
+    }
+
+    @Test
+    public void testLineListenerSeparatesStreams() {
+        List<String> lines = new ArrayList<>();
+        run(new OutputCapture(100, lines::add), "printf 'out'; "
+                + "printf 'err' >&2; sleep 0.1; printf 'put\\n'; "
+                + "printf 'or\\n' >&2");
+
+        assertEquals(2, lines.size());
+        assertTrue(lines.contains("output"));
+        assertTrue(lines.contains("error"));
+    }
+
+    private CommandResult run(OutputCapture capture, String script) {
+        return executor.execute(capture, "sh", "-c", script);
+    }
+}
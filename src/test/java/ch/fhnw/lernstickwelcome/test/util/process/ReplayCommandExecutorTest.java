@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 FHNW
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.fhnw.lernstickwelcome.test.util.process;
+
+import ch.fhnw.lernstickwelcome.util.process.CommandResult;
+import ch.fhnw.lernstickwelcome.util.process.ProcessCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.RecordingCommandExecutor;
+import ch.fhnw.lernstickwelcome.util.process.ReplayCommandExecutor;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests recording and replaying commands.
+ *
+ * @author sschw
+ */
+public class ReplayCommandExecutorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path file;
+
+    @Before
+    public void setup() {
+        file = folder.getRoot().toPath().resolve("commands.rec");
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        CommandRecording recording = new CommandRecording();
+        recording.command("lernstick-firewall", "status")
+                .stdOut("on\n").exitCode(0);
+        recording.command("lernstick-firewall", "status")
+                .stdOut("off\n").stdErr("stopped\n").exitCode(3);
+        recording.script("#!/bin/sh\nexit 1\n").exitCode(1);
+        ReplayCommandExecutor executor
+                = new ReplayCommandExecutor(recording.write(file), 0);
+
+        CommandResult first = executor.execute("lernstick-firewall", "status");
+        assertEquals(0, first.getExitCode());
+        assertEquals("on\n", first.getStdOut());
+        assertEquals("", first.getStdErr());
+
+        // the last record is repeated
+        for (int i = 0; i < 2; i++) {
+            CommandResult next
+                    = executor.execute("lernstick-firewall", "status");
+            assertEquals(3, next.getExitCode());
+            assertEquals("off\n", next.getStdOut());
+            assertEquals("stopped\n", next.getStdErr());
+            assertEquals("off\nstopped\n", next.getOutput());
+        }
+
+        assertEquals(1, executor.executeScript("#!/bin/sh\nexit 1\n")
+                .getExitCode());
+    }
+
+    @Test
+    public void testNotRecorded() throws IOException {
+        CommandRecording recording = new CommandRecording();
+        recording.command("lernstick-firewall", "status").exitCode(0);
+        ReplayCommandExecutor executor
+                = new ReplayCommandExecutor(recording.write(file), 0);
+
+        // the arguments are part of the key
+        CommandResult result = executor.execute("lernstick-firewall", "stop");
+        assertEquals(127, result.getExitCode());
+        assertFalse(result.getStdErr().isEmpty());
+        assertEquals(127, executor.executeScript("#!/bin/sh\n").getExitCode());
+    }
+
+    @Test
+    public void testTimeScale() throws IOException {
+        CommandRecording recording = new CommandRecording();
+        recording.command("sleep", "1").duration(200, TimeUnit.MILLISECONDS);
+        recording.write(file);
+
+        CommandResult scaled = new ReplayCommandExecutor(file, 0.5)
+                .execute("sleep", "1");
+        assertTrue(scaled.getDuration(TimeUnit.MILLISECONDS) >= 100);
+
+        CommandResult instant = new ReplayCommandExecutor(file, 0)
+                .execute("sleep", "1");
+        assertTrue(instant.getDuration(TimeUnit.MILLISECONDS) < 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTimeScale() throws IOException {
+        new ReplayCommandExecutor(new CommandRecording().write(file), -1);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidRecording() throws IOException {
+        Files.write(file, "C:x\t0\n".getBytes());
+        new ReplayCommandExecutor(file, 0);
+    }
+
+    @Test
+    public void testRecordAndReplay() throws IOException {
+        assumeTrue("needs /bin/sh", Files.isExecutable(Paths.get("/bin/sh")));
+        String script = "#!/bin/sh\necho out\necho err >&2\nexit 2\n";
+        RecordingCommandExecutor recorder = new RecordingCommandExecutor(
+                new ProcessCommandExecutor(), file);
+        CommandResult recorded = recorder.executeScript(script);
+        CommandResult command = recorder.execute("sh", "-c", "printf 'a\\nb'");
+
+        ReplayCommandExecutor executor = new ReplayCommandExecutor(file, 0);
+        CommandResult replayed = executor.executeScript(script);
+        assertEquals(2, replayed.getExitCode());
+        assertEquals(recorded.getStdOut(), replayed.getStdOut());
+        assertEquals(recorded.getStdErr(), replayed.getStdErr());
+        assertEquals("out\n", replayed.getStdOut());
+        assertEquals("err\n", replayed.getStdErr());
+
+        CommandResult replayedCommand
+                = executor.execute("sh", "-c", "printf 'a\\nb'");
+        assertEquals(command.getExitCode(), replayedCommand.getExitCode());
+        assertEquals("a\nb", replayedCommand.getStdOut());
+    }
+}